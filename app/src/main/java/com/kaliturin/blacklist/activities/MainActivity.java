@@ -17,6 +17,7 @@
 package com.kaliturin.blacklist.activities;
 
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -43,9 +44,14 @@ import com.kaliturin.blacklist.fragments.SMSConversationFragment;
 import com.kaliturin.blacklist.fragments.SMSConversationsListFragment;
 import com.kaliturin.blacklist.fragments.SMSSendFragment;
 import com.kaliturin.blacklist.fragments.SettingsFragment;
+import com.kaliturin.blacklist.utils.BlocklistImage;
 import com.kaliturin.blacklist.utils.ContactsAccessHelper;
 import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Contact;
+import com.kaliturin.blacklist.utils.JournalCompactor;
+import com.kaliturin.blacklist.utils.JournalWriter;
 import com.kaliturin.blacklist.utils.Permissions;
+import com.kaliturin.blacklist.utils.PhonebookIndex;
+import com.kaliturin.blacklist.utils.SMSAddressIndex;
 import com.kaliturin.blacklist.utils.Settings;
 
 public class MainActivity extends AppCompatActivity
@@ -74,6 +80,25 @@ public class MainActivity extends AppCompatActivity
         // init settings defaults
         Settings.initDefaults(this);
 
+        // warm up the index of SMS addresses if it is used for blocking
+        if (Settings.getBooleanValue(this, Settings.BLOCK_SMS_NOT_FROM_SMS_CONTENT) ||
+                Settings.getBooleanValue(this, Settings.BLOCK_CALLS_NOT_FROM_SMS_CONTENT)) {
+            SMSAddressIndex.getInstance(this);
+        }
+
+        // make sure the image of the lists for the cold receivers exists
+        BlocklistImage.build(this);
+
+        // write the journal records left uncommitted since the previous run
+        JournalWriter.getInstance(this);
+        // apply the retention policy of the journal
+        JournalCompactor.getInstance(this).schedule();
+
+        // warm up the index of the phonebook numbers
+        if (Permissions.isGranted(this, Permissions.READ_CONTACTS)) {
+            PhonebookIndex.getInstance(this);
+        }
+
         // toolbar
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -204,6 +229,14 @@ public class MainActivity extends AppCompatActivity
         Permissions.onRequestPermissionsResult(requestCode, permissions, grantResults);
         // check granted permissions and notify about not granted
         Permissions.notifyIfNotGranted(this);
+
+        // the index of SMS addresses couldn't be built before the permission was granted
+        for (int i = 0; i < permissions.length && i < grantResults.length; i++) {
+            if (Permissions.READ_SMS.equals(permissions[i]) &&
+                    grantResults[i] == PackageManager.PERMISSION_GRANTED) {
+                SMSAddressIndex.getInstance(this).rebuild();
+            }
+        }
     }
 
     @Override
@@ -127,7 +127,7 @@ public class ContactsCursorAdapter extends CursorAdapter {
             cursor.moveToFirst();
             do {
                 Contact contact = ((ContactSource) cursor).getContact();
-                if (checkedItems.contains((int) contact.id)) {
+                if (checkedItems.contains(contact.id)) {
                     list.add(contact);
                 }
             } while (cursor.moveToNext());
@@ -179,7 +179,7 @@ public class ContactsCursorAdapter extends CursorAdapter {
         private StringBuilder sb = new StringBuilder();
 
         private Contact contact;
-        private int itemId;
+        private long itemId;
         private CheckableLinearLayout rowView;
         private TextView nameTextView;
         private TextView numbersTextView;
@@ -206,7 +206,7 @@ public class ContactsCursorAdapter extends CursorAdapter {
         private void setModel(Context context, Contact contact) {
             this.contact = contact;
 
-            itemId = (int) contact.id;
+            itemId = contact.id;
             boolean oneNumberEquals = false;
 
             // show contact name
@@ -19,9 +19,9 @@ package com.kaliturin.blacklist.adapters;
 import android.content.Context;
 import android.database.Cursor;
 import android.support.annotation.Nullable;
+import android.support.v4.util.LongSparseArray;
 import android.support.v4.widget.CursorAdapter;
 import android.text.TextUtils;
-import android.util.SparseBooleanArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -31,6 +31,7 @@ import android.widget.TextView;
 
 import com.kaliturin.blacklist.R;
 import com.kaliturin.blacklist.utils.CheckableLinearLayout;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper;
 import com.kaliturin.blacklist.utils.DatabaseAccessHelper.JournalRecord;
 import com.kaliturin.blacklist.utils.DatabaseAccessHelper.JournalRecordCursorWrapper;
 import com.kaliturin.blacklist.utils.IdentifiersContainer;
@@ -49,9 +50,13 @@ public class JournalCursorAdapter extends CursorAdapter {
     private final DateFormat timeFormat = SimpleDateFormat.getTimeInstance(DateFormat.SHORT);
     private final DateFormat dateFormat = SimpleDateFormat.getDateInstance(DateFormat.LONG);
     private final DateFormat yearLessDateFormat = Utils.getYearLessDateFormat(dateFormat);
+    private final DateFormat shortDateFormat = SimpleDateFormat.getDateInstance(DateFormat.SHORT);
     private final Date datetime = new Date();
     private final Calendar calendar = Calendar.getInstance();
-    private final SparseBooleanArray unfoldedTextItems = new SparseBooleanArray();
+    private final LongSparseArray<Boolean> unfoldedTextItems = new LongSparseArray<>();
+    // full texts of the records loaded on demand (the cursor contains the previews only)
+    private final LongSparseArray<String> fullTextItems = new LongSparseArray<>();
+    private final Context context;
     private IdentifiersContainer checkedItems = new IdentifiersContainer(0);
     private View.OnClickListener outerOnClickListener = null;
     private View.OnLongClickListener outerOnLongClickListener = null;
@@ -62,6 +67,7 @@ public class JournalCursorAdapter extends CursorAdapter {
 
     public JournalCursorAdapter(Context context) {
         super(context, null, 0);
+        this.context = context;
 
         foldSMSText = Settings.getBooleanValue(context, Settings.FOLD_SMS_TEXT_IN_JOURNAL);
         calendar.setTimeInMillis(System.currentTimeMillis());
@@ -180,7 +186,7 @@ public class JournalCursorAdapter extends CursorAdapter {
     // View holder improves scroll performance
     private class ViewHolder {
         private JournalRecord record;
-        private int itemId;
+        private long itemId;
         private ImageView iconImageView;
         private TextView senderTextView;
         private TextView textTextView;
@@ -225,20 +231,23 @@ public class JournalCursorAdapter extends CursorAdapter {
             // add on click listeners
             contentLayout.setOnClickListener(onClickListener);
             contentLayout.setOnLongClickListener(onLongClickListener);
-            if (foldSMSText) {
-                textTextView.setOnLongClickListener(onLongClickListener);
-                textTextView.setOnClickListener(new View.OnClickListener() {
-                    @Override
-                    public void onClick(View v) {
+            textTextView.setOnLongClickListener(onLongClickListener);
+            textTextView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    if (foldSMSText) {
                         setTextUnfolded(!isTextUnfolded());
+                    } else if (!showFullText()) {
+                        // the text is shown fully - process the click as the row's one
+                        onClickListener.onClick(contentLayout);
                     }
-                });
-            }
+                }
+            });
         }
 
         private void setModel(JournalRecord record, DateFormat dateFormat) {
             this.record = record;
-            itemId = (int) record.id;
+            itemId = record.id;
             Date date = toDate(record.time);
             if (dateFormat != null) {
                 dateTextView.setText(dateFormat.format(date));
@@ -246,9 +255,17 @@ public class JournalCursorAdapter extends CursorAdapter {
             } else {
                 dateLayout.setVisibility(View.GONE);
             }
-            timeTextView.setText(timeFormat.format(date));
+            String time = timeFormat.format(date);
+            if (record.count > 1) {
+                // the times of the first and the last of the folded events
+                time = getFirstTime(record) + "\n" + time;
+            }
+            timeTextView.setText(time);
 
             String sender = record.caller;
+            if (record.count > 1) {
+                sender += " (" + context.getString(R.string.Times, record.count) + ")";
+            }
             if (record.number != null &&
                     !record.caller.equals(record.number)) {
                 sender += "\n" + record.number;
@@ -257,7 +274,7 @@ public class JournalCursorAdapter extends CursorAdapter {
 
             if (record.text != null) {
                 iconImageView.setImageResource(android.R.drawable.sym_action_email);
-                textTextView.setText(record.text);
+                textTextView.setText(getText());
                 textTextView.setVisibility(View.VISIBLE);
                 if (foldSMSText) {
                     setTextUnfolded(isTextUnfolded());
@@ -288,15 +305,42 @@ public class JournalCursorAdapter extends CursorAdapter {
         }
 
         private boolean isTextUnfolded() {
-            return unfoldedTextItems.get(itemId);
+            return (unfoldedTextItems.get(itemId) != null);
+        }
+
+        // Returns the full text if it is loaded or the preview
+        private String getText() {
+            if (record.textTruncated) {
+                String text = fullTextItems.get(itemId);
+                return (text != null ? text : record.text + "\u2026");
+            }
+            return record.text;
+        }
+
+        // Loads and shows the full text of the record if the preview is shown.
+        // Returns false if there is nothing to load.
+        private boolean showFullText() {
+            if (record == null || !record.textTruncated ||
+                    fullTextItems.get(itemId) != null) {
+                return false;
+            }
+            DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+            String text = (db != null ? db.getJournalRecordText(record.id) : null);
+            if (text == null) {
+                return false;
+            }
+            fullTextItems.put(itemId, text);
+            textTextView.setText(text);
+            return true;
         }
 
         private void setTextUnfolded(boolean unfolded) {
             if (unfolded) {
+                showFullText();
                 textTextView.setSingleLine(false);
                 textTextView.setMaxLines(Integer.MAX_VALUE);
                 textTextView.setEllipsize(null);
-                unfoldedTextItems.append(itemId, true);
+                unfoldedTextItems.put(itemId, Boolean.TRUE);
 
             } else {
                 textTextView.setSingleLine(true);
@@ -306,6 +350,20 @@ public class JournalCursorAdapter extends CursorAdapter {
             }
         }
 
+        // Returns the time of the first folded event (with the date if it is another day)
+        private String getFirstTime(JournalRecord record) {
+            calendar.setTimeInMillis(record.time);
+            int lastDay = calendar.get(Calendar.DAY_OF_YEAR);
+            int lastYear = calendar.get(Calendar.YEAR);
+            calendar.setTimeInMillis(record.firstTime);
+            Date date = toDate(record.firstTime);
+            if (lastDay != calendar.get(Calendar.DAY_OF_YEAR) ||
+                    lastYear != calendar.get(Calendar.YEAR)) {
+                return shortDateFormat.format(date) + "\n" + timeFormat.format(date);
+            }
+            return timeFormat.format(date);
+        }
+
         private Date toDate(long time) {
             datetime.setTime(time);
             return datetime;
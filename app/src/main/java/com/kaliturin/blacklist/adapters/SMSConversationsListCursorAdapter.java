@@ -18,8 +18,8 @@ package com.kaliturin.blacklist.adapters;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.support.v4.util.LongSparseArray;
 import android.support.v4.widget.CursorAdapter;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -49,7 +49,6 @@ public class SMSConversationsListCursorAdapter extends CursorAdapter {
     private View.OnLongClickListener outerOnLongClickListener = null;
     private RowOnClickListener rowOnClickListener = new RowOnClickListener();
     private RowOnLongClickListener rowOnLongClickListener = new RowOnLongClickListener();
-    private LongSparseArray<SMSConversation> smsConversationCache = new LongSparseArray<>();
     private final int currentYear;
     private final int currentDay;
 
@@ -80,42 +79,27 @@ public class SMSConversationsListCursorAdapter extends CursorAdapter {
 
     @Override
     public void bindView(View view, Context context, Cursor cursor) {
-        // try to get a model from the cache
-        long itemId = getItemId(cursor.getPosition());
-        SMSConversation model = smsConversationCache.get(itemId);
-        if (model == null) {
-            // get cursor wrapper
-            SMSConversationWrapper cursorWrapper = (SMSConversationWrapper) cursor;
-            // get model
-            model = cursorWrapper.getConversation(context);
-            // put it to the cache
-            smsConversationCache.put(itemId, model);
-        }
+        // get cursor wrapper
+        SMSConversationWrapper cursorWrapper = (SMSConversationWrapper) cursor;
+        // get model (is built in background with the cursor)
+        SMSConversation model = cursorWrapper.getConversation();
         // get view holder from the row
         ViewHolder viewHolder = (ViewHolder) view.getTag();
         // update the view holder with new model
         viewHolder.setModel(model);
     }
 
-    @Override
-    public void changeCursor(Cursor cursor) {
-        invalidateCache();
-        super.changeCursor(cursor);
-    }
-
 //---------------------------------------------------------------------------------
 
-    // Clears the cache
-    private void invalidateCache() {
-        smsConversationCache.clear();
-    }
-
-    // Removes particular item from the cache (if exists)
-    public boolean invalidateCache(int itemId) {
-        if (smsConversationCache.get(itemId) == null) {
+    // Updates the row of the conversation thread without reloading of the list,
+    // returns false if the thread isn't in the list or its position is changed
+    public boolean updateSMSConversation(@NonNull SMSConversation conversation) {
+        Cursor cursor = getCursor();
+        if (!(cursor instanceof SMSConversationWrapper) ||
+                !((SMSConversationWrapper) cursor).updateConversation(conversation)) {
             return false;
         }
-        smsConversationCache.remove(itemId);
+        notifyDataSetChanged();
         return true;
     }
 
@@ -53,6 +53,7 @@ import com.kaliturin.blacklist.utils.Permissions;
 import com.kaliturin.blacklist.utils.ProgressDialogHolder;
 import com.kaliturin.blacklist.utils.Utils;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -356,7 +357,7 @@ public class AddContactsFragment extends Fragment implements FragmentArguments {
     }
 
     // Async task - writes contacts to the DB
-    private class ContactsWriter extends AsyncTask<Void, Integer, Void> {
+    private class ContactsWriter extends AsyncTask<Void, Void, Void> {
         ProgressDialogHolder progress = new ProgressDialogHolder();
         List<Contact> contacts;
         LongSparseArray<ContactNumber> singleContactNumbers;
@@ -373,20 +374,24 @@ public class AddContactsFragment extends Fragment implements FragmentArguments {
         protected Void doInBackground(Void... params) {
             DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(getContext());
             if (db != null) {
-                int count = 1;
+                List<Contact> list = new ArrayList<>(contacts.size());
                 for (Contact contact : contacts) {
-                    if (isCancelled()) break;
                     ContactNumber contactNumber = singleContactNumbers.get(contact.id);
                     if (contactNumber != null) {
                         // add only the single number of contact
-                        db.addContact(contactType, contact.name, contactNumber);
-                        publishProgress(100 / contacts.size() * count++);
+                        List<ContactNumber> numbers = new ArrayList<>(1);
+                        numbers.add(contactNumber);
+                        list.add(new Contact(contact.id, contact.name, contact.type, numbers));
                     } else {
                         // add all numbers of contact
-                        db.addContact(contactType, contact.name, contact.numbers);
-                        publishProgress(100 / contacts.size() * count++);
+                        list.add(contact);
                     }
                 }
+                // all contacts are written in one transaction, so after it is
+                // started the cancellation only closes the progress dialog
+                if (!isCancelled()) {
+                    db.addContacts(contactType, list);
+                }
             }
             return null;
         }
@@ -412,12 +417,7 @@ public class AddContactsFragment extends Fragment implements FragmentArguments {
                     ContactsWriter.this.cancel(true);
                 }
             });
-            progress.setMessage(getString(R.string.Saving_) + " 0%");
-        }
-
-        @Override
-        protected void onProgressUpdate(Integer... values) {
-            progress.setMessage(getString(R.string.Saving_) + " " + values[0] + "%");
+            progress.setMessage(getString(R.string.Saving_));
         }
     }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.fragments;
+
+import android.os.Bundle;
+import android.os.Environment;
+import android.support.annotation.Nullable;
+import android.support.annotation.StringRes;
+import android.support.v4.app.Fragment;
+import android.support.v7.app.ActionBar;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ListView;
+import android.widget.Toast;
+
+import com.kaliturin.blacklist.R;
+import com.kaliturin.blacklist.adapters.SettingsArrayAdapter;
+import com.kaliturin.blacklist.utils.LatencyStats;
+import com.kaliturin.blacklist.utils.LatencyStats.Histogram;
+import com.kaliturin.blacklist.utils.LatencyStats.Stage;
+import com.kaliturin.blacklist.utils.Permissions;
+import com.kaliturin.blacklist.utils.Utils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Diagnostics fragment - shows latency statistics of the blocking stages
+ */
+public class DiagnosticsFragment extends Fragment implements FragmentArguments {
+    private static final String TAG = DiagnosticsFragment.class.getName();
+    private static final String EXPORT_FILE_NAME = "blacklist_latency.csv";
+    private ListView listView = null;
+
+    public DiagnosticsFragment() {
+        // Required empty public constructor
+    }
+
+    @Override
+    public void onActivityCreated(@Nullable Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        // set activity title
+        Bundle arguments = getArguments();
+        ActionBar actionBar = ((AppCompatActivity) getActivity()).getSupportActionBar();
+        if (arguments != null && actionBar != null) {
+            actionBar.setTitle(arguments.getString(TITLE));
+        }
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+                             Bundle savedInstanceState) {
+        // Inflate the layout for this fragment
+        return inflater.inflate(R.layout.fragment_settings, container, false);
+    }
+
+    @Override
+    public void onViewCreated(View view, @Nullable Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+        listView = (ListView) view.findViewById(R.id.settings_list);
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        loadListViewItems();
+    }
+
+    // Loads the list of statistics
+    private void loadListViewItems() {
+        final int listPosition = listView.getFirstVisiblePosition();
+        SettingsArrayAdapter adapter = new SettingsArrayAdapter(getContext());
+
+        adapter.addTitle(R.string.Blocking_latency);
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = LatencyStats.getHistogram(stage);
+            adapter.addButton(getString(getStageTitle(stage)), getString(R.string.Latency_summary,
+                    histogram.getCount(),
+                    histogram.getMean(),
+                    histogram.getPercentile(50),
+                    histogram.getPercentile(99),
+                    histogram.getMax()), null);
+        }
+
+        adapter.addTitle(R.string.Diagnostics);
+        adapter.addButton(R.string.Export_statistics, R.string.Write_statistics_into_file,
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        // check permissions
+                        if (Permissions.notifyIfNotGranted(getContext(), Permissions.WRITE_EXTERNAL_STORAGE)) {
+                            return;
+                        }
+                        exportStatistics();
+                    }
+                });
+        adapter.addButton(R.string.Reset_statistics, R.string.Clear_collected_statistics,
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        LatencyStats.reset();
+                        loadListViewItems();
+                    }
+                });
+
+        listView.setAdapter(adapter);
+        listView.post(new Runnable() {
+            @Override
+            public void run() {
+                listView.setSelection(listPosition);
+            }
+        });
+    }
+
+    // Writes the statistics into the file in the Download folder
+    private void exportStatistics() {
+        File file = new File(Environment.getExternalStorageDirectory().getPath() +
+                "/Download/" + EXPORT_FILE_NAME);
+        if (!Utils.makeFilePath(file)) {
+            toast(R.string.Error_on_file_path_creating);
+            return;
+        }
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(file);
+            writer.write(LatencyStats.getReport());
+            writer.close();
+            writer = null;
+            Toast.makeText(getContext(), getString(R.string.Export_complete) +
+                    ": " + file.getPath(), Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            Log.w(TAG, e);
+            toast(R.string.Error_on_file_writing);
+        } finally {
+            Utils.close(writer);
+        }
+    }
+
+    // Returns the title of the blocking stage
+    @StringRes
+    private static int getStageTitle(Stage stage) {
+        switch (stage) {
+            case SMS_TOTAL:
+                return R.string.Stage_sms_total;
+            case CALL_TOTAL:
+                return R.string.Stage_call_total;
+            case PDU_EXTRACTION:
+                return R.string.Stage_pdu_extraction;
+            case SETTINGS:
+                return R.string.Stage_settings;
+            case NORMALIZATION:
+                return R.string.Stage_normalization;
+            case LIST_LOOKUP:
+                return R.string.Stage_list_lookup;
+            case PHONEBOOK_LOOKUP:
+                return R.string.Stage_phonebook_lookup;
+            case SMS_CONTENT_CHECK:
+                return R.string.Stage_sms_content_check;
+            case ABORT_SMS:
+                return R.string.Stage_abort_sms;
+            case END_CALL:
+                return R.string.Stage_end_call;
+            default:
+                return R.string.Stage_journal_write;
+        }
+    }
+
+    private void toast(@StringRes int messageId) {
+        Toast.makeText(getContext(), messageId, Toast.LENGTH_SHORT).show();
+    }
+}
@@ -384,7 +384,10 @@ public class JournalFragment extends Fragment implements FragmentArguments {
                 dialog.addItem(R.string.Copy_text, new View.OnClickListener() {
                     @Override
                     public void onClick(View v) {
-                        if (Utils.copyTextToClipboard(getContext(), record.text)) {
+                        // the record could contain the preview of the text only
+                        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(getContext());
+                        String text = (db != null ? db.getJournalRecordText(record) : record.text);
+                        if (Utils.copyTextToClipboard(getContext(), text)) {
                             Toast.makeText(getContext(), R.string.Copied_to_clipboard,
                                     Toast.LENGTH_SHORT).show();
                         }
@@ -122,16 +122,8 @@ public class SMSConversationsListFragment extends Fragment implements FragmentAr
             // SMS was written
             @Override
             public void onSMSWasWritten(String phoneNumber) {
-                ContactsAccessHelper db = ContactsAccessHelper.getInstance(getContext());
-                int threadId = db.getSMSThreadIdByNumber(getContext(), phoneNumber);
-                if (threadId >= 0 &&
-                        // refresh cached list view items
-                        cursorAdapter.invalidateCache(threadId)) {
-                    cursorAdapter.notifyDataSetChanged();
-                } else {
-                    // reload all list view items
-                    loadListViewItems(false, false);
-                }
+                // update the list view item of the thread
+                new SMSConversationUpdater(phoneNumber, -1).execute();
             }
 
             // SMS was deleted
@@ -144,9 +136,8 @@ public class SMSConversationsListFragment extends Fragment implements FragmentAr
             // SMS thread was read
             @Override
             public void onSMSThreadWasRead(int threadId) {
-                // refresh cached list view items
-                cursorAdapter.invalidateCache(threadId);
-                cursorAdapter.notifyDataSetChanged();
+                // update the list view item of the thread
+                new SMSConversationUpdater(null, threadId).execute();
             }
         };
         internalEventBroadcast.register(getContext());
@@ -384,6 +375,40 @@ public class SMSConversationsListFragment extends Fragment implements FragmentAr
 
 //----------------------------------------------------------------------
 
+    // Async task - gets the conversation of the changed thread and updates its list view
+    // item, the list is reloaded if the thread is new or is moved in the list
+    private class SMSConversationUpdater extends AsyncTask<Void, Void, SMSConversation> {
+        private final Context context;
+        private final String number;
+        private int threadId;
+
+        SMSConversationUpdater(@Nullable String number, int threadId) {
+            this.context = getContext().getApplicationContext();
+            this.number = number;
+            this.threadId = threadId;
+        }
+
+        @Override
+        protected SMSConversation doInBackground(Void... params) {
+            ContactsAccessHelper db = ContactsAccessHelper.getInstance(context);
+            if (threadId < 0 && number != null) {
+                threadId = db.getSMSThreadIdByNumber(context, number);
+            }
+            return (threadId < 0 ? null : db.getSMSConversationByThreadId(context, threadId));
+        }
+
+        @Override
+        protected void onPostExecute(SMSConversation conversation) {
+            if (!isAdded()) {
+                return;
+            }
+            if (conversation == null || !cursorAdapter.updateSMSConversation(conversation)) {
+                // reload all list view items
+                loadListViewItems(false, false);
+            }
+        }
+    }
+
     // Async task - marks all SMS are seen
     private static class SMSSeenMarker extends AsyncTask<Void, Void, Void> {
         private Context context;
@@ -23,6 +23,7 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.media.RingtoneManager;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
 import android.support.annotation.IdRes;
@@ -32,6 +33,7 @@ import android.support.v4.app.Fragment;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
 import android.telephony.SubscriptionInfo;
+import android.util.Log;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -42,12 +44,17 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.kaliturin.blacklist.R;
+import com.kaliturin.blacklist.activities.CustomFragmentActivity;
 import com.kaliturin.blacklist.activities.MainActivity;
 import com.kaliturin.blacklist.adapters.SettingsArrayAdapter;
+import com.kaliturin.blacklist.utils.ContactsImporter;
 import com.kaliturin.blacklist.utils.DatabaseAccessHelper;
 import com.kaliturin.blacklist.utils.DefaultSMSAppHelper;
 import com.kaliturin.blacklist.utils.DialogBuilder;
+import com.kaliturin.blacklist.utils.JournalCompactor;
 import com.kaliturin.blacklist.utils.Permissions;
+import com.kaliturin.blacklist.utils.PhoneNumbers;
+import com.kaliturin.blacklist.utils.ProgressDialogHolder;
 import com.kaliturin.blacklist.utils.Settings;
 import com.kaliturin.blacklist.utils.SubscriptionHelper;
 import com.kaliturin.blacklist.utils.Utils;
@@ -60,10 +67,14 @@ import java.util.List;
  * Settings fragment
  */
 public class SettingsFragment extends Fragment implements FragmentArguments {
+    private static final String TAG = SettingsFragment.class.getName();
     private static final int DEFAULT_SMS_APP = 1;
     private static final int BLOCKED_SMS = 2;
     private static final int RECEIVED_SMS = 3;
     private static final int BLOCKED_CALL = 4;
+    private static final int[] JOURNAL_MAX_AGE_DAYS = {0, 7, 30, 90, 365};
+    private static final int[] JOURNAL_MAX_RECORDS = {0, 1000, 5000, 10000, 50000};
+    private static final int[] JOURNAL_FOLD_WINDOW_MINUTES = {0, 10, 60, 1440};
     private SettingsArrayAdapter adapter = null;
     private ListView listView = null;
     private int listPosition = 0;
@@ -193,6 +204,16 @@ public class SettingsFragment extends Fragment implements FragmentArguments {
                     });
         }
 
+        // phone numbers canonicalization
+        adapter.addTitle(R.string.Phone_numbers);
+        adapter.addButton(getString(R.string.Country_code), getCurrentCountryName(),
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        showCountryCodeDialog();
+                    }
+                });
+
         if (isDefaultSmsApp) {
             // sms blocking settings
             adapter.addTitle(R.string.SMS_blocking);
@@ -268,6 +289,57 @@ public class SettingsFragment extends Fragment implements FragmentArguments {
             }
         });
 
+        // journal retention policy
+        adapter.addTitle(R.string.Journal_retention);
+        adapter.addButton(getString(R.string.Records_age),
+                getJournalLimitName(Settings.JOURNAL_MAX_AGE_DAYS,
+                        R.string.Unlimited, R.string.Not_older_than_days),
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        showJournalLimitDialog(R.string.Records_age, Settings.JOURNAL_MAX_AGE_DAYS,
+                                JOURNAL_MAX_AGE_DAYS, R.string.Unlimited, R.string.Not_older_than_days);
+                    }
+                });
+        adapter.addButton(getString(R.string.Records_count),
+                getJournalLimitName(Settings.JOURNAL_MAX_RECORDS,
+                        R.string.Unlimited, R.string.Not_more_than_records),
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        showJournalLimitDialog(R.string.Records_count, Settings.JOURNAL_MAX_RECORDS,
+                                JOURNAL_MAX_RECORDS, R.string.Unlimited, R.string.Not_more_than_records);
+                    }
+                });
+        adapter.addButton(getString(R.string.Repeated_events),
+                getJournalLimitName(Settings.JOURNAL_FOLD_WINDOW_MINUTES,
+                        R.string.Dont_fold, R.string.Fold_within_minutes),
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        showJournalLimitDialog(R.string.Repeated_events, Settings.JOURNAL_FOLD_WINDOW_MINUTES,
+                                JOURNAL_FOLD_WINDOW_MINUTES, R.string.Dont_fold, R.string.Fold_within_minutes);
+                    }
+                });
+        adapter.addCheckbox(R.string.Aggregates, R.string.Keep_counts_of_removed_records,
+                Settings.JOURNAL_KEEP_AGGREGATES);
+        adapter.addButton(R.string.Blocking_statistics, R.string.Show_blocking_statistics,
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        CustomFragmentActivity.show(getContext(),
+                                getString(R.string.Blocking_statistics),
+                                StatisticsFragment.class, null);
+                    }
+                });
+        adapter.addButton(R.string.Compact_database, R.string.Return_space_of_removed_records,
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        showCompactDatabaseDialog();
+                    }
+                });
+
         // app data export/import
         adapter.addTitle(R.string.App_data);
         // export DB file
@@ -314,6 +386,38 @@ public class SettingsFragment extends Fragment implements FragmentArguments {
                         });
                     }
                 });
+        // merge lists from file
+        adapter.addButton(R.string.Merge_lists, R.string.Add_contacts_from_external,
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        // check permissions
+                        if (Permissions.notifyIfNotGranted(getContext(), Permissions.WRITE_EXTERNAL_STORAGE)) {
+                            return;
+                        }
+                        // open the dialog for getting the importing file path
+                        showFilePathDialog(R.string.Merge_lists, new TextView.OnEditorActionListener() {
+                            @Override
+                            public boolean onEditorAction(TextView textView, int actionId, KeyEvent event) {
+                                // merge contacts from the file
+                                mergeContactsFile(textView.getText().toString());
+                                return true;
+                            }
+                        });
+                    }
+                });
+
+        // diagnostics
+        adapter.addTitle(R.string.Diagnostics);
+        adapter.addButton(R.string.Blocking_latency, R.string.Show_blocking_latency,
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        CustomFragmentActivity.show(getContext(),
+                                getString(R.string.Blocking_latency),
+                                DiagnosticsFragment.class, null);
+                    }
+                });
 
         // add adapter to the ListView and scroll list to position
         listView.setAdapter(adapter);
@@ -473,12 +577,11 @@ public class SettingsFragment extends Fragment implements FragmentArguments {
             return false;
         }
 
-        // get source file
+        // get source database
         DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(getContext());
         if (db == null) {
             return false;
         }
-        File srcFile = new File(db.getReadableDatabase().getPath());
 
         // check destination file
         File dstFile = new File(dstFilePath);
@@ -491,8 +594,8 @@ public class SettingsFragment extends Fragment implements FragmentArguments {
             toast(R.string.Error_on_file_path_creating);
             return false;
         }
-        // copy source file to destination
-        if (!Utils.copyFile(srcFile, dstFile)) {
+        // write the consistent copy of the database to destination
+        if (!db.exportDatabase(dstFile)) {
             toast(R.string.Error_on_file_writing);
             return false;
         }
@@ -540,6 +643,130 @@ public class SettingsFragment extends Fragment implements FragmentArguments {
         return true;
     }
 
+    // Merges the contacts of the lists from the passed file in background
+    private void mergeContactsFile(String srcFilePath) {
+        if (!Permissions.isGranted(getContext(), Permissions.WRITE_EXTERNAL_STORAGE)) {
+            return;
+        }
+        File srcFile = new File(srcFilePath);
+        if (!srcFile.isFile() || !srcFile.canRead()) {
+            toast(R.string.Error_file_is_not_valid);
+            return;
+        }
+        new ContactsMerger(srcFile).execute();
+    }
+
+    // Async task - merges the contacts of the lists from the file
+    private class ContactsMerger extends AsyncTask<Void, Integer, Integer> {
+        private final ProgressDialogHolder progress = new ProgressDialogHolder();
+        private final ContactsImporter importer;
+
+        ContactsMerger(File file) {
+            importer = new ContactsImporter(getContext(), file);
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            return importer.importContacts(new ContactsImporter.Callback() {
+                @Override
+                public boolean onProgress(int percent) {
+                    publishProgress(percent);
+                    return !isCancelled();
+                }
+            });
+        }
+
+        @Override
+        protected void onPreExecute() {
+            progress.show(getContext(), new DialogInterface.OnCancelListener() {
+                @Override
+                public void onCancel(DialogInterface dialog) {
+                    // the merged part is kept, importing of the same file is resumed
+                    ContactsMerger.this.cancel(false);
+                }
+            });
+            progress.setMessage(getString(R.string.Loading_) + " 0%");
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            progress.setMessage(getString(R.string.Loading_) + " " + values[0] + "%");
+        }
+
+        @Override
+        protected void onCancelled() {
+            progress.dismiss();
+        }
+
+        @Override
+        protected void onPostExecute(Integer count) {
+            progress.dismiss();
+            if (!isAdded()) {
+                return;
+            }
+            if (count < 0) {
+                toast(R.string.Error_file_is_not_valid);
+            } else {
+                Toast.makeText(getContext(), getString(R.string.Numbers_added, count),
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
+    // Shows the dialog of confirmation of the database compaction
+    private void showCompactDatabaseDialog() {
+        if (!isAdded()) return;
+        DialogBuilder dialog = new DialogBuilder(getContext());
+        dialog.setTitle(getString(R.string.Database_file_will_be_rebuilt), 3);
+        dialog.addButtonLeft(getString(R.string.CANCEL), null);
+        dialog.addButtonRight(getString(R.string.OK), new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                new DatabaseCompactor().execute();
+            }
+        });
+        dialog.show();
+    }
+
+    // Async task - returns the free pages of the database file to the file system.
+    // The database file is rebuilt once if it isn't in the incremental vacuum mode yet.
+    private class DatabaseCompactor extends AsyncTask<Void, Void, Boolean> {
+        private final ProgressDialogHolder progress = new ProgressDialogHolder();
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(getContext());
+            if (db == null) {
+                return false;
+            }
+            try {
+                if (db.isIncrementalVacuumEnabled()) {
+                    // all the free pages
+                    db.vacuumIncrementally(0);
+                } else {
+                    db.enableIncrementalVacuum();
+                }
+            } catch (Exception e) {
+                Log.w(TAG, e);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            progress.show(getContext(), R.string.Compact_database, R.string.Loading_);
+        }
+
+        @Override
+        protected void onPostExecute(Boolean done) {
+            progress.dismiss();
+            if (isAdded() && done) {
+                toast(R.string.Database_is_compacted);
+            }
+        }
+    }
+
     // Shows toast
     private void toast(@StringRes int messageId) {
         Toast.makeText(getContext(), messageId, Toast.LENGTH_SHORT).show();
@@ -594,4 +821,87 @@ public class SettingsFragment extends Fragment implements FragmentArguments {
             }
         }).show();
     }
-}
\ No newline at end of file
+
+    // Returns the description of the current country rules of phone numbers
+    private String getCurrentCountryName() {
+        PhoneNumbers.Country country = PhoneNumbers.Country.valueOf(
+                Settings.getStringValue(getContext(), Settings.COUNTRY_CODE),
+                Settings.getStringValue(getContext(), Settings.TRUNK_PREFIX));
+        if (country == null) {
+            return getString(R.string.Not_set);
+        }
+        return "+" + country.code +
+                (country.trunkPrefix.isEmpty() ? "" : " (" + country.trunkPrefix + ")");
+    }
+
+    // Shows dialog of the country code and trunk prefix definition
+    private void showCountryCodeDialog() {
+        if (!isAdded()) return;
+        String code = Settings.getStringValue(getContext(), Settings.COUNTRY_CODE);
+        String prefix = Settings.getStringValue(getContext(), Settings.TRUNK_PREFIX);
+
+        @IdRes final int codeEditId = 1;
+        @IdRes final int prefixEditId = 2;
+        // create dialog
+        DialogBuilder dialog = new DialogBuilder(getContext());
+        dialog.setTitle(R.string.Country_code);
+        dialog.addEdit(codeEditId, code == null ? "" : code, getString(R.string.Country_calling_code));
+        dialog.addEdit(prefixEditId, prefix == null ? "" : prefix, getString(R.string.Trunk_prefix));
+        dialog.addButtonLeft(getString(R.string.CANCEL), null);
+        dialog.addButtonRight(getString(R.string.OK), new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                Window window = ((Dialog) dialog).getWindow();
+                if (window == null) {
+                    return;
+                }
+                TextView codeView = (TextView) window.findViewById(codeEditId);
+                TextView prefixView = (TextView) window.findViewById(prefixEditId);
+                if (codeView == null || prefixView == null) {
+                    return;
+                }
+                String code = codeView.getText().toString().trim();
+                String prefix = prefixView.getText().toString().trim();
+                if (!code.isEmpty() && PhoneNumbers.Country.valueOf(code, prefix) == null) {
+                    toast(R.string.Error_invalid_country_code);
+                    return;
+                }
+                Settings.setStringValue(getContext(), Settings.COUNTRY_CODE, code);
+                Settings.setStringValue(getContext(), Settings.TRUNK_PREFIX, prefix);
+                reloadListViewItems();
+            }
+        });
+        dialog.show();
+    }
+
+    // Returns the description of the limit of the journal (0 is for no limit)
+    private String getJournalLimitName(String property, @StringRes int noLimitId,
+                                       @StringRes int formatId) {
+        Integer value = Settings.getIntegerValue(getContext(), property);
+        if (value == null || value <= 0) {
+            return getString(noLimitId);
+        }
+        return getString(formatId, value);
+    }
+
+    // Shows dialog of choosing the limit of the journal
+    private void showJournalLimitDialog(@StringRes int titleId, final String property, int[] values,
+                                        @StringRes int noLimitId, @StringRes int formatId) {
+        if (!isAdded()) return;
+        DialogBuilder dialog = new DialogBuilder(getContext());
+        dialog.setTitle(titleId);
+        for (int value : values) {
+            String title = (value <= 0 ? getString(noLimitId) : getString(formatId, value));
+            dialog.addItem(0, title, value, new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    Settings.setIntegerValue(getContext(), property, (Integer) v.getTag());
+                    // apply the changed policy
+                    JournalCompactor.getInstance(getContext()).schedule();
+                    reloadListViewItems();
+                }
+            });
+        }
+        dialog.show();
+    }
+}
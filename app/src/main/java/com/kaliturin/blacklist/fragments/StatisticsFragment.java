@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.fragments;
+
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+import android.support.v4.app.Fragment;
+import android.support.v7.app.ActionBar;
+import android.support.v7.app.AppCompatActivity;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ListView;
+
+import com.kaliturin.blacklist.R;
+import com.kaliturin.blacklist.adapters.SettingsArrayAdapter;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.JournalStats;
+
+import java.util.List;
+
+/**
+ * Statistics fragment - shows who and when is blocked most.
+ * The statistics are precomputed in the database, so they are shown
+ * without the journal scanning.
+ */
+public class StatisticsFragment extends Fragment implements FragmentArguments {
+    private static final int TOP_CALLERS_COUNT = 20;
+    private static final int LAST_DAYS_COUNT = 30;
+    private ListView listView = null;
+
+    public StatisticsFragment() {
+        // Required empty public constructor
+    }
+
+    @Override
+    public void onActivityCreated(@Nullable Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        // set activity title
+        Bundle arguments = getArguments();
+        ActionBar actionBar = ((AppCompatActivity) getActivity()).getSupportActionBar();
+        if (arguments != null && actionBar != null) {
+            actionBar.setTitle(arguments.getString(TITLE));
+        }
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+                             Bundle savedInstanceState) {
+        // Inflate the layout for this fragment
+        return inflater.inflate(R.layout.fragment_settings, container, false);
+    }
+
+    @Override
+    public void onViewCreated(View view, @Nullable Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+        listView = (ListView) view.findViewById(R.id.settings_list);
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        loadListViewItems();
+    }
+
+    // Loads the list of statistics
+    private void loadListViewItems() {
+        SettingsArrayAdapter adapter = new SettingsArrayAdapter(getContext());
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(getContext());
+        if (db != null) {
+            // there are 24 hours at most, so the totals are summed up from them
+            List<JournalStats> hours = db.getJournalStats(JournalStats.BY_HOUR, false, false, 0);
+            long smsCount = 0, callCount = 0;
+            for (JournalStats stats : hours) {
+                smsCount += stats.smsCount;
+                callCount += stats.callCount;
+            }
+            adapter.addTitle(R.string.Total);
+            adapter.addButton(getString(R.string.Blocked), getSummary(smsCount, callCount), null);
+
+            adapter.addTitle(R.string.Top_callers);
+            addItems(adapter, db.getJournalStats(JournalStats.BY_CALLER, true, false, TOP_CALLERS_COUNT));
+
+            adapter.addTitle(R.string.By_hour_of_day);
+            for (JournalStats stats : hours) {
+                adapter.addButton(stats.key + ":00", getSummary(stats.smsCount, stats.callCount), null);
+            }
+
+            adapter.addTitle(R.string.By_day);
+            addItems(adapter, db.getJournalStats(JournalStats.BY_DAY, false, true, LAST_DAYS_COUNT));
+        }
+
+        listView.setAdapter(adapter);
+    }
+
+    private void addItems(SettingsArrayAdapter adapter, List<JournalStats> list) {
+        for (JournalStats stats : list) {
+            adapter.addButton(stats.key, getSummary(stats.smsCount, stats.callCount), null);
+        }
+    }
+
+    private String getSummary(long smsCount, long callCount) {
+        return getString(R.string.Stats_summary, smsCount, callCount);
+    }
+}
@@ -30,15 +30,19 @@ import android.util.Log;
 import com.android.internal.telephony.ITelephony;
 import com.kaliturin.blacklist.R;
 import com.kaliturin.blacklist.services.BlockEventProcessService;
+import com.kaliturin.blacklist.utils.BlockingDataSource;
+import com.kaliturin.blacklist.utils.BlockingDecisionEngine;
+import com.kaliturin.blacklist.utils.BlockingDecisionEngine.Rule;
+import com.kaliturin.blacklist.utils.BlockingDecisionEngine.Rules;
+import com.kaliturin.blacklist.utils.BlockingDecisionEngine.Verdict;
 import com.kaliturin.blacklist.utils.Constants;
-import com.kaliturin.blacklist.utils.ContactsAccessHelper;
-import com.kaliturin.blacklist.utils.DatabaseAccessHelper;
-import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Contact;
+import com.kaliturin.blacklist.utils.DecisionExecutor;
+import com.kaliturin.blacklist.utils.LatencyStats;
+import com.kaliturin.blacklist.utils.LatencyStats.Stage;
 import com.kaliturin.blacklist.utils.Permissions;
 import com.kaliturin.blacklist.utils.Settings;
 
 import java.lang.reflect.Method;
-import java.util.List;
 
 /**
  * BroadcastReceiver for calls catching
@@ -48,6 +52,7 @@ public class CallBroadcastReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(final Context context, Intent intent) {
+        long startTime = LatencyStats.start();
         if (!Permissions.isGranted(context, Permissions.READ_PHONE_STATE) ||
                 !Permissions.isGranted(context, Permissions.CALL_PHONE)) {
             return;
@@ -78,85 +83,58 @@ public class CallBroadcastReceiver extends BroadcastReceiver {
         String number = intent.getStringExtra(TelephonyManager.EXTRA_INCOMING_NUMBER);
         Log.d(TAG, "Incoming number: " + number);
 
-        // private number detected
-        if (ContactsAccessHelper.isPrivatePhoneNumber(number)) {
-            // if block private numbers
-            if (Settings.getBooleanValue(context, Settings.BLOCK_PRIVATE_CALLS) ||
-                    // or if block all calls
-                    Settings.getBooleanValue(context, Settings.BLOCK_ALL_CALLS)) {
-                String name = context.getString(R.string.Private_number);
-                // break call and notify user
-                breakCallAndNotify(context, number, name);
-            }
-            return;
-        }
+        // make the decision in background and process the call
+        DecisionExecutor.getInstance().execute(this, new CallTask(context, number, startTime));
+    }
 
-        // normalize number
-        number = ContactsAccessHelper.normalizePhoneNumber(number);
-        if (number.isEmpty()) {
-            Log.w(TAG, "Received call address is empty");
-            return;
-        }
+    // Task of the blocking decision about the call
+    private class CallTask implements DecisionExecutor.Task {
+        private final Context context;
+        private final String number;
+        private final long startTime;
+        private volatile Rules rules = null;
 
-        // get contacts linked to the current number
-        List<Contact> contacts = getContacts(context, number);
-        if (contacts == null) {
-            return;
+        CallTask(Context context, String number, long startTime) {
+            this.context = context;
+            this.number = number;
+            this.startTime = startTime;
         }
 
-        // if contact is from the white list
-        Contact contact = findContactByType(contacts, Contact.TYPE_WHITE_LIST);
-        if (contact != null) {
-            return;
+        @Override
+        public Verdict decide() {
+            long time = LatencyStats.start();
+            rules = Settings.getCallBlockingRules(context);
+            LatencyStats.record(Stage.SETTINGS, time);
+            BlockingDecisionEngine engine = new BlockingDecisionEngine(new BlockingDataSource(context));
+            return engine.decide(number, rules);
         }
 
-        // get name of contact
-        String name = (contacts.size() > 0 ? contacts.get(0).name : null);
-
-        // if block all calls (excluding the white list)
-        if (Settings.getBooleanValue(context, Settings.BLOCK_ALL_CALLS)) {
-            // break call and notify user
-            breakCallAndNotify(context, number, name);
-            return;
+        @Override
+        public Verdict fallback() {
+            return BlockingDecisionEngine.fallback(number, rules);
         }
 
-        // if block calls from the black list
-        if (Settings.getBooleanValue(context, Settings.BLOCK_CALLS_FROM_BLACK_LIST)) {
-            contact = findContactByType(contacts, Contact.TYPE_BLACK_LIST);
-            if (contact != null) {
-                // break call and notify user
-                breakCallAndNotify(context, number, contact.name);
-                return;
-            }
-        }
-
-        boolean abort = false;
-
-        // if block numbers that are not in the contact list
-        if (Settings.getBooleanValue(context, Settings.BLOCK_CALLS_NOT_FROM_CONTACTS) &&
-                Permissions.isGranted(context, Permissions.READ_CONTACTS)) {
-            ContactsAccessHelper db = ContactsAccessHelper.getInstance(context);
-            if (db.getContact(context, number) != null) {
-                return;
-            }
-            // there is no contact - get number as name
-            name = number;
-            abort = true;
+        @Override
+        public void apply(Verdict verdict, @Nullable PendingResult result) {
+            processCall(context, verdict);
+            LatencyStats.record(Stage.CALL_TOTAL, startTime);
         }
+    }
 
-        // if block numbers that are not in the sms content list
-        if (Settings.getBooleanValue(context, Settings.BLOCK_CALLS_NOT_FROM_SMS_CONTENT) &&
-                Permissions.isGranted(context, Permissions.READ_SMS)) {
-            ContactsAccessHelper db = ContactsAccessHelper.getInstance(context);
-            if (db.containsNumberInSMSContent(context, number)) {
-                return;
-            }
-            abort = true;
+    // Processes the call by the verdict
+    private void processCall(Context context, Verdict verdict) {
+        String name = verdict.name;
+        if (verdict.isPrivate) {
+            // private number detected
+            name = context.getString(R.string.Private_number);
+        } else if (verdict.rule == Rule.EMPTY_NUMBER) {
+            Log.w(TAG, "Received call address is empty");
+            return;
         }
 
-        if (abort) {
+        if (verdict.block) {
             // break call and notify user
-            breakCallAndNotify(context, number, name);
+            breakCallAndNotify(context, verdict.number, name);
         }
     }
 
@@ -205,27 +183,12 @@ public class CallBroadcastReceiver extends BroadcastReceiver {
 
     }
 
-    // Finds contact by type
-    private Contact findContactByType(List<Contact> contacts, int contactType) {
-        for (Contact contact : contacts) {
-            if (contact.type == contactType) {
-                return contact;
-            }
-        }
-        return null;
-    }
-
-    // Finds contacts by number
-    @Nullable
-    private List<Contact> getContacts(Context context, String number) {
-        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
-        return (db == null ? null : db.getContacts(number, false));
-    }
-
     // Breaks the call and notifies the user
     private void breakCallAndNotify(Context context, String number, String name) {
         // end phone call
+        long time = LatencyStats.start();
         breakCall(context);
+        LatencyStats.record(Stage.END_CALL, time);
         // process the event of blocking in the service
         BlockEventProcessService.start(context, number, name, null);
     }
@@ -16,6 +16,7 @@
 
 package com.kaliturin.blacklist.receivers;
 
+import android.annotation.SuppressLint;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -28,15 +29,19 @@ import android.util.Log;
 import com.kaliturin.blacklist.R;
 import com.kaliturin.blacklist.services.BlockEventProcessService;
 import com.kaliturin.blacklist.services.SMSProcessService;
+import com.kaliturin.blacklist.utils.BlockingDataSource;
+import com.kaliturin.blacklist.utils.BlockingDecisionEngine;
+import com.kaliturin.blacklist.utils.BlockingDecisionEngine.Rule;
+import com.kaliturin.blacklist.utils.BlockingDecisionEngine.Rules;
+import com.kaliturin.blacklist.utils.BlockingDecisionEngine.Verdict;
 import com.kaliturin.blacklist.utils.ContactsAccessHelper;
-import com.kaliturin.blacklist.utils.DatabaseAccessHelper;
-import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Contact;
+import com.kaliturin.blacklist.utils.DecisionExecutor;
 import com.kaliturin.blacklist.utils.DefaultSMSAppHelper;
-import com.kaliturin.blacklist.utils.Permissions;
+import com.kaliturin.blacklist.utils.LatencyStats;
+import com.kaliturin.blacklist.utils.LatencyStats.Stage;
 import com.kaliturin.blacklist.utils.Settings;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -50,6 +55,7 @@ public class SMSBroadcastReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         long timeReceive = System.currentTimeMillis();
+        long startTime = LatencyStats.start();
 
         // check action
         String action = intent.getAction();
@@ -70,15 +76,60 @@ public class SMSBroadcastReceiver extends BroadcastReceiver {
         }
 
         // get message data
+        long time = LatencyStats.start();
         Map<String, String> data = extractMessageData(context, intent, timeReceive);
+        LatencyStats.record(Stage.PDU_EXTRACTION, time);
         if (data == null) {
             return;
         }
 
-        // if isn't "default SMS app" or if message isn't blocked
-        if (!isDefaultSmsApp || !processMessageData(context, data)) {
+        // if isn't "default SMS app"
+        if (!isDefaultSmsApp) {
             // process message in service
             SMSProcessService.start(context, data);
+            return;
+        }
+
+        // make the decision in background and process the message
+        DecisionExecutor.getInstance().execute(this, new MessageTask(context, data, startTime));
+    }
+
+    // Task of the blocking decision about the message
+    private class MessageTask implements DecisionExecutor.Task {
+        private final Context context;
+        private final Map<String, String> data;
+        private final long startTime;
+        private volatile Rules rules = null;
+
+        MessageTask(Context context, Map<String, String> data, long startTime) {
+            this.context = context;
+            this.data = data;
+            this.startTime = startTime;
+        }
+
+        @Override
+        public Verdict decide() {
+            long time = LatencyStats.start();
+            rules = Settings.getSMSBlockingRules(context);
+            LatencyStats.record(Stage.SETTINGS, time);
+            BlockingDecisionEngine engine = new BlockingDecisionEngine(new BlockingDataSource(context));
+            return engine.decide(data.get(ContactsAccessHelper.ADDRESS), rules);
+        }
+
+        @Override
+        public Verdict fallback() {
+            return BlockingDecisionEngine.fallback(data.get(ContactsAccessHelper.ADDRESS), rules);
+        }
+
+        @Override
+        public void apply(Verdict verdict, @Nullable PendingResult result) {
+            boolean blocked = processMessageData(context, data, verdict, result);
+            LatencyStats.record(Stage.SMS_TOTAL, startTime);
+            // if message isn't blocked
+            if (!blocked) {
+                // process message in service
+                SMSProcessService.start(context, data);
+            }
         }
     }
 
@@ -117,116 +168,30 @@ public class SMSBroadcastReceiver extends BroadcastReceiver {
         return data;
     }
 
-    // Processes message; returns true if message was blocked, false else
-    private boolean processMessageData(Context context, Map<String, String> data) {
-        String number = data.get(ContactsAccessHelper.ADDRESS);
+    // Processes message by the verdict; returns true if message was blocked, false else
+    private boolean processMessageData(Context context, Map<String, String> data,
+                                       Verdict verdict, @Nullable PendingResult result) {
         String body = data.get(ContactsAccessHelper.BODY);
 
-        // private number detected
-        if (ContactsAccessHelper.isPrivatePhoneNumber(number)) {
-            String name = context.getString(R.string.Private_number);
+        String name = verdict.name;
+        if (verdict.isPrivate) {
+            // private number detected
+            name = context.getString(R.string.Private_number);
             data.put(ContactsAccessHelper.NAME, name);
-            // if block private numbers
-            if (Settings.getBooleanValue(context, Settings.BLOCK_PRIVATE_SMS) ||
-                    // or if block all SMS
-                    Settings.getBooleanValue(context, Settings.BLOCK_ALL_SMS)) {
-                // abort broadcast and notify user
-                abortSMSAndNotify(context, number, name, body);
-                return true;
-            }
-            return false;
-        }
-
-        // normalize number
-        number = ContactsAccessHelper.normalizePhoneNumber(number);
-        if (number.isEmpty()) {
+        } else if (verdict.rule == Rule.EMPTY_NUMBER) {
             Log.w(TAG, "Received message address is empty");
             return false;
+        } else {
+            // save normalized number
+            data.put(ContactsAccessHelper.ADDRESS, verdict.number);
         }
 
-        // save normalized number
-        data.put(ContactsAccessHelper.ADDRESS, number);
-
-        // get contacts linked to the number
-        List<Contact> contacts = getContacts(context, number);
-        if (contacts == null) {
-            return false;
-        }
-
-        // if contact is from the white list
-        Contact contact = findContactByType(contacts, Contact.TYPE_WHITE_LIST);
-        if (contact != null) {
-            return false;
-        }
-
-        // get name of contact
-        String name = (contacts.size() > 0 ? contacts.get(0).name : null);
-        //data.put(ContactsAccessHelper.NAME, name);
-
-        // if block all SMS (excluding the white list)
-        if (Settings.getBooleanValue(context, Settings.BLOCK_ALL_SMS)) {
+        if (verdict.block) {
             // abort SMS and notify user
-            abortSMSAndNotify(context, number, name, body);
-            return true;
+            abortSMSAndNotify(context, verdict.number, name, body, result);
         }
 
-        // if contact is from the black list
-        if (Settings.getBooleanValue(context, Settings.BLOCK_SMS_FROM_BLACK_LIST)) {
-            contact = findContactByType(contacts, Contact.TYPE_BLACK_LIST);
-            if (contact != null) {
-                // abort SMS and notify user
-                abortSMSAndNotify(context, number, contact.name, body);
-                return true;
-            }
-        }
-
-        boolean abort = false;
-
-        // if block numbers that are not in the contact list
-        if (Settings.getBooleanValue(context, Settings.BLOCK_SMS_NOT_FROM_CONTACTS) &&
-                Permissions.isGranted(context, Permissions.READ_CONTACTS)) {
-            ContactsAccessHelper db = ContactsAccessHelper.getInstance(context);
-            if (db.getContact(context, number) != null) {
-                return false;
-            }
-            // there is no contact - get number as name
-            name = number;
-            abort = true;
-        }
-
-        // if block numbers that are not in the SMS content list
-        if (Settings.getBooleanValue(context, Settings.BLOCK_SMS_NOT_FROM_SMS_CONTENT) &&
-                Permissions.isGranted(context, Permissions.READ_SMS)) {
-            ContactsAccessHelper db = ContactsAccessHelper.getInstance(context);
-            if (db.containsNumberInSMSContent(context, number)) {
-                return false;
-            }
-            abort = true;
-        }
-
-        if (abort) {
-            // abort SMS and notify user
-            abortSMSAndNotify(context, number, name, body);
-        }
-
-        return abort;
-    }
-
-    // Finds contact by type
-    private Contact findContactByType(List<Contact> contacts, int contactType) {
-        for (Contact contact : contacts) {
-            if (contact.type == contactType) {
-                return contact;
-            }
-        }
-        return null;
-    }
-
-    // Finds contacts by number
-    @Nullable
-    private List<Contact> getContacts(Context context, String number) {
-        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
-        return (db == null ? null : db.getContacts(number, false));
+        return verdict.block;
     }
 
     // Extracts received SMS message from intent
@@ -268,9 +233,18 @@ public class SMSBroadcastReceiver extends BroadcastReceiver {
     }
 
     // Aborts broadcast (if available) and notifies the user
-    private void abortSMSAndNotify(Context context, String number, String name, String body) {
+    @SuppressLint("NewApi")
+    private void abortSMSAndNotify(Context context, String number, String name, String body,
+                                   @Nullable PendingResult result) {
         // prevent placing this SMS to the inbox
-        abortBroadcast();
+        long time = LatencyStats.start();
+        if (result != null) {
+            // the broadcast is processed asynchronously (API 11+)
+            result.abortBroadcast();
+        } else {
+            abortBroadcast();
+        }
+        LatencyStats.record(Stage.ABORT_SMS, time);
         // process the event of blocking in the service
         BlockEventProcessService.start(context, number, name, body);
     }
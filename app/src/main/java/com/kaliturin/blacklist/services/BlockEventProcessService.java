@@ -23,10 +23,9 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
-import com.kaliturin.blacklist.receivers.InternalEventBroadcast;
 import com.kaliturin.blacklist.utils.ContactsAccessHelper;
-import com.kaliturin.blacklist.utils.DatabaseAccessHelper;
 import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Contact;
+import com.kaliturin.blacklist.utils.JournalWriter;
 import com.kaliturin.blacklist.utils.Notifications;
 import com.kaliturin.blacklist.utils.Settings;
 
@@ -92,11 +91,9 @@ public class BlockEventProcessService extends IntentService {
             number = null;
         }
         long time = System.currentTimeMillis();
-        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
-        if (db != null && db.addJournalRecord(time, name, number, body) >= 0) {
-            // send broadcast message
-            InternalEventBroadcast.send(context, InternalEventBroadcast.JOURNAL_WAS_WRITTEN);
-        }
+        // the record is written in background with the others of the same batch,
+        // and then the broadcast message is sent
+        JournalWriter.getInstance(context).write(time, name, number, body);
     }
 
     // Removes passed number from the Call log
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Contact;
+
+import java.util.List;
+
+/**
+ * Source of the data for the blocking decision engine taken from the
+ * app's database and the system content providers
+ */
+public class BlockingDataSource implements BlockingDecisionEngine.DataSource {
+    private final Context context;
+
+    public BlockingDataSource(Context context) {
+        this.context = context;
+    }
+
+    @Nullable
+    @Override
+    public List<Contact> getContacts(@NonNull String number) {
+        // the image lets to avoid opening of the database in the cold process
+        BlocklistImage image = BlocklistImage.get(context);
+        if (image != null) {
+            return image.getContacts(number);
+        }
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        return (db == null ? null : db.getContacts(number, false));
+    }
+
+    @Override
+    public boolean isInContacts(@NonNull String number) {
+        ContactsAccessHelper db = ContactsAccessHelper.getInstance(context);
+        return (db.getContact(context, number) != null);
+    }
+
+    @Override
+    public boolean isInSMSContent(@NonNull String number) {
+        ContactsAccessHelper db = ContactsAccessHelper.getInstance(context);
+        return db.containsNumberInSMSContent(context, number);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Contact;
+import com.kaliturin.blacklist.utils.LatencyStats.Stage;
+
+import java.util.List;
+
+/**
+ * Decides whether an incoming call or SMS must be blocked.
+ * Is shared by the SMS and calls receivers. Doesn't depend on Android framework -
+ * all the data is taken from the passed data source and rules.
+ */
+public class BlockingDecisionEngine {
+    private final DataSource source;
+
+    public BlockingDecisionEngine(@NonNull DataSource source) {
+        this.source = source;
+    }
+
+    // Source of the data used for the decision
+    public interface DataSource {
+        // Returns contacts of the black/white lists linked to the number or null if unavailable
+        @Nullable
+        List<Contact> getContacts(@NonNull String number);
+
+        // Returns true if the number belongs to some contact of the phonebook
+        boolean isInContacts(@NonNull String number);
+
+        // Returns true if the number is met in the SMS content list
+        boolean isInSMSContent(@NonNull String number);
+    }
+
+    // Blocking rules resolved from the settings (and permissions) in advance
+    public static class Rules {
+        public final boolean blockPrivate;
+        public final boolean blockAll;
+        public final boolean blockFromBlackList;
+        public final boolean blockNotFromContacts;
+        public final boolean blockNotFromSMSContent;
+
+        public Rules(boolean blockPrivate, boolean blockAll, boolean blockFromBlackList,
+                     boolean blockNotFromContacts, boolean blockNotFromSMSContent) {
+            this.blockPrivate = blockPrivate;
+            this.blockAll = blockAll;
+            this.blockFromBlackList = blockFromBlackList;
+            this.blockNotFromContacts = blockNotFromContacts;
+            this.blockNotFromSMSContent = blockNotFromSMSContent;
+        }
+    }
+
+    // Rule which has defined the verdict
+    public enum Rule {
+        // no rule was applied
+        NONE,
+        // number is empty after normalization
+        EMPTY_NUMBER,
+        // lists of contacts are unavailable
+        NO_DATA,
+        // decision wasn't made in time
+        TIMEOUT,
+        // number is private
+        PRIVATE,
+        // number is in the white list
+        WHITE_LIST,
+        // all numbers are blocked
+        ALL,
+        // number is in the black list
+        BLACK_LIST,
+        // number is in the phonebook
+        FROM_CONTACTS,
+        // number is not in the phonebook
+        NOT_FROM_CONTACTS,
+        // number is in the SMS content list
+        FROM_SMS_CONTENT,
+        // number is not in the SMS content list
+        NOT_FROM_SMS_CONTENT
+    }
+
+    // Result of the decision
+    public static class Verdict {
+        public final boolean block;
+        public final Rule rule;
+        // normalized number (or the original one if it is private)
+        public final String number;
+        // name of the contact or null if it is unknown
+        public final String name;
+        public final boolean isPrivate;
+
+        Verdict(boolean block, @NonNull Rule rule, String number,
+                @Nullable String name, boolean isPrivate) {
+            this.block = block;
+            this.rule = rule;
+            this.number = number;
+            this.name = name;
+            this.isPrivate = isPrivate;
+        }
+    }
+
+    // Makes the decision about the passed number
+    public Verdict decide(@Nullable String number, @NonNull Rules rules) {
+        // private number detected
+        if (PhoneNumbers.isPrivate(number)) {
+            // if block private numbers or if block all
+            boolean block = (rules.blockPrivate || rules.blockAll);
+            return new Verdict(block, Rule.PRIVATE, number, null, true);
+        }
+
+        // normalize number
+        long time = LatencyStats.start();
+        number = PhoneNumbers.normalize(number);
+        LatencyStats.record(Stage.NORMALIZATION, time);
+        if (number.isEmpty()) {
+            return allow(Rule.EMPTY_NUMBER, number, null);
+        }
+
+        // get contacts linked to the number
+        time = LatencyStats.start();
+        List<Contact> contacts = source.getContacts(number);
+        LatencyStats.record(Stage.LIST_LOOKUP, time);
+        if (contacts == null) {
+            return allow(Rule.NO_DATA, number, null);
+        }
+
+        // if contact is from the white list
+        if (findContactByType(contacts, Contact.TYPE_WHITE_LIST) != null) {
+            return allow(Rule.WHITE_LIST, number, null);
+        }
+
+        // get name of contact
+        String name = (contacts.size() > 0 ? contacts.get(0).name : null);
+
+        // if block all (excluding the white list)
+        if (rules.blockAll) {
+            return block(Rule.ALL, number, name);
+        }
+
+        // if contact is from the black list
+        if (rules.blockFromBlackList) {
+            Contact contact = findContactByType(contacts, Contact.TYPE_BLACK_LIST);
+            if (contact != null) {
+                return block(Rule.BLACK_LIST, number, contact.name);
+            }
+        }
+
+        Rule rule = Rule.NONE;
+
+        // if block numbers that are not in the contact list
+        if (rules.blockNotFromContacts) {
+            time = LatencyStats.start();
+            boolean isInContacts = source.isInContacts(number);
+            LatencyStats.record(Stage.PHONEBOOK_LOOKUP, time);
+            if (isInContacts) {
+                return allow(Rule.FROM_CONTACTS, number, name);
+            }
+            // there is no contact - get number as name
+            name = number;
+            rule = Rule.NOT_FROM_CONTACTS;
+        }
+
+        // if block numbers that are not in the SMS content list
+        if (rules.blockNotFromSMSContent) {
+            time = LatencyStats.start();
+            boolean isInSMSContent = source.isInSMSContent(number);
+            LatencyStats.record(Stage.SMS_CONTENT_CHECK, time);
+            if (isInSMSContent) {
+                return allow(Rule.FROM_SMS_CONTENT, number, name);
+            }
+            rule = Rule.NOT_FROM_SMS_CONTENT;
+        }
+
+        if (rule != Rule.NONE) {
+            return block(rule, number, name);
+        }
+
+        return allow(Rule.NONE, number, name);
+    }
+
+    // Returns the verdict about the passed number made without the data source
+    // (is used if the decision can't be made in time). Only private numbers can
+    // be blocked - the rest are let through, since the white list can't be checked.
+    public static Verdict fallback(@Nullable String number, @Nullable Rules rules) {
+        if (PhoneNumbers.isPrivate(number)) {
+            boolean block = (rules != null && (rules.blockPrivate || rules.blockAll));
+            return new Verdict(block, Rule.PRIVATE, number, null, true);
+        }
+        number = PhoneNumbers.normalize(number);
+        return allow(number.isEmpty() ? Rule.EMPTY_NUMBER : Rule.TIMEOUT, number, null);
+    }
+
+    private static Verdict block(Rule rule, String number, String name) {
+        return new Verdict(true, rule, number, name, false);
+    }
+
+    private static Verdict allow(Rule rule, String number, String name) {
+        return new Verdict(false, rule, number, name, false);
+    }
+
+    // Finds contact by type
+    @Nullable
+    private static Contact findContactByType(List<Contact> contacts, int contactType) {
+        for (Contact contact : contacts) {
+            if (contact.type == contactType) {
+                return contact;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Contact;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactNumber;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary image of the contacts lists and settings, which are needed for the blocking
+ * decision. It is a cached serialized copy of the lists and of the compiled numbers
+ * matcher (its hash map, tries and Aho-Corasick links): is rewritten in background on
+ * every change of the data and is read by one sequential read, so the cold process can
+ * make the decision without opening the database and without building the matcher.
+ * The image is removed synchronously on every change of the data, so it is either
+ * current or absent. If the image is absent, stale or corrupt the database is used.
+ */
+public class BlocklistImage {
+    private static final String TAG = BlocklistImage.class.getName();
+    private static final String FILE_NAME = "blocklist.img";
+    private static final int MAGIC = 0x424c494d;
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 20;
+    private static final long BUILD_DELAY = 1000;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // the loaded image (null if it isn't loaded yet)
+    private static volatile BlocklistImage sImage = null;
+    // is incremented on every invalidation of the image
+    private static int generation = 0;
+    private static Handler handler = null;
+    private static final Object lock = new Object();
+
+    private final Map<String, String> settings;
+    private final Map<Long, Contact> contacts;
+    private final ContactNumberMatcher matcher;
+
+    private BlocklistImage(Map<String, String> settings, Map<Long, Contact> contacts,
+                           ContactNumberMatcher matcher) {
+        this.settings = settings;
+        this.contacts = contacts;
+        this.matcher = matcher;
+    }
+
+    // Returns the country rules of the numbers matcher from the settings
+    @Nullable
+    private static PhoneNumbers.Country getCountry(Map<String, String> settings) {
+        return PhoneNumbers.Country.valueOf(
+                settings.get(Settings.COUNTRY_CODE),
+                settings.get(Settings.TRUNK_PREFIX));
+    }
+
+    /**
+     * Returns the value of settings or null if there isn't any
+     */
+    @Nullable
+    public String getSettingsValue(@NonNull String name) {
+        return settings.get(name);
+    }
+
+    // Returns all the settings values
+    Map<String, String> getAllSettings() {
+        return new HashMap<>(settings);
+    }
+
+    /**
+     * Returns contacts (without numbers) having numbers matching to the passed one.
+     * The result is the same as the one of DatabaseAccessHelper.getContacts.
+     */
+    public List<Contact> getContacts(@NonNull String number) {
+        List<Contact> result = new LinkedList<>();
+        for (ContactNumber contactNumber : matcher.match(number)) {
+            Contact contact = contacts.get(contactNumber.contactId);
+            if (contact != null) {
+                result.add(new Contact(contact.id, contact.name, contact.type,
+                        new LinkedList<ContactNumber>()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the current image or null if it is unavailable
+     */
+    @Nullable
+    public static BlocklistImage get(Context context) {
+        // the data are unavailable without the permission (see DatabaseAccessHelper)
+        if (!Permissions.isGranted(context, Permissions.WRITE_EXTERNAL_STORAGE)) {
+            return null;
+        }
+        BlocklistImage image = sImage;
+        if (image == null) {
+            synchronized (lock) {
+                image = sImage;
+                if (image == null) {
+                    image = load(getFile(context));
+                    sImage = image;
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Removes the image and schedules its rebuilding.
+     * Must be called on every change of contacts, numbers or settings.
+     */
+    public static void invalidate(Context context) {
+        delete(context);
+        schedule(context, true);
+    }
+
+    /**
+     * Removes the image without rebuilding (e.g. before the database is replaced)
+     */
+    public static void delete(Context context) {
+        synchronized (lock) {
+            generation++;
+            sImage = null;
+            File file = getFile(context);
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "Unable to delete the file " + file);
+            }
+        }
+    }
+
+    /**
+     * Schedules building of the image if it doesn't exist
+     */
+    public static void build(Context context) {
+        schedule(context, false);
+    }
+
+    private static void schedule(Context context, final boolean rebuild) {
+        final Context appContext = context.getApplicationContext();
+        synchronized (lock) {
+            if (handler == null) {
+                HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                handler = new Handler(thread.getLooper());
+            }
+            handler.removeCallbacksAndMessages(null);
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (rebuild || !getFile(appContext).exists()) {
+                        write(appContext);
+                    }
+                }
+            }, BUILD_DELAY);
+        }
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    // Writes the image with the current data of the database
+    private static void write(Context context) {
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db == null) {
+            return;
+        }
+        int startGeneration;
+        synchronized (lock) {
+            startGeneration = generation;
+        }
+
+        byte[] body;
+        try {
+            Map<String, String> settings = db.getAllSettings();
+            List<ContactNumber> numbers = db.getAllContactNumbers();
+            // the matcher is compiled here, so the cold process just reads it
+            ContactNumberMatcher matcher = new ContactNumberMatcher(numbers, getCountry(settings));
+            body = serialize(settings, db.getAllContacts(), numbers, matcher);
+        } catch (Exception e) {
+            // the database could be closed or replaced
+            Log.w(TAG, e);
+            return;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        File file = getFile(context);
+        File tmpFile = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+        DataOutputStream stream = null;
+        try {
+            stream = new DataOutputStream(new FileOutputStream(tmpFile));
+            stream.writeInt(MAGIC);
+            stream.writeInt(FORMAT_VERSION);
+            stream.writeInt(DatabaseAccessHelper.DATABASE_VERSION);
+            stream.writeInt(body.length);
+            stream.writeInt((int) crc.getValue());
+            stream.write(body);
+            stream.close();
+            stream = null;
+            synchronized (lock) {
+                // data could be changed while the image was writing
+                if (startGeneration != generation || !tmpFile.renameTo(file)) {
+                    tmpFile.delete();
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, e);
+        } finally {
+            Utils.close(stream);
+        }
+    }
+
+    private static byte[] serialize(Map<String, String> settings, List<Contact> contacts,
+                                    List<ContactNumber> numbers, ContactNumberMatcher matcher)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream stream = new DataOutputStream(bytes);
+        stream.writeInt(settings.size());
+        for (Map.Entry<String, String> entry : settings.entrySet()) {
+            writeString(stream, entry.getKey());
+            writeString(stream, entry.getValue());
+        }
+        stream.writeInt(contacts.size());
+        for (Contact contact : contacts) {
+            stream.writeLong(contact.id);
+            stream.writeInt(contact.type);
+            writeString(stream, contact.name);
+        }
+        stream.writeInt(numbers.size());
+        for (ContactNumber number : numbers) {
+            stream.writeLong(number.id);
+            stream.writeLong(number.contactId);
+            stream.writeInt(number.type);
+            writeString(stream, number.number);
+        }
+        matcher.write(stream, numbers);
+        stream.close();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream stream, String string) throws IOException {
+        byte[] bytes = (string == null ? new byte[0] : string.getBytes(UTF8));
+        stream.writeInt(bytes.length);
+        stream.write(bytes);
+    }
+
+    // Reads the image file, returns null if the file is absent or invalid
+    @Nullable
+    private static BlocklistImage load(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream stream = null;
+        try {
+            long size = file.length();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (stream.readInt() != MAGIC ||
+                    stream.readInt() != FORMAT_VERSION ||
+                    stream.readInt() != DatabaseAccessHelper.DATABASE_VERSION) {
+                Log.w(TAG, "Image is stale");
+                return null;
+            }
+            int length = stream.readInt();
+            int checksum = stream.readInt();
+            if (length != size - HEADER_SIZE) {
+                Log.w(TAG, "Image is corrupt");
+                return null;
+            }
+            byte[] body = new byte[length];
+            stream.readFully(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != checksum) {
+                Log.w(TAG, "Image is corrupt");
+                return null;
+            }
+            return deserialize(ByteBuffer.wrap(body));
+        } catch (Exception e) {
+            // corrupt data could cause BufferUnderflowException and so on
+            Log.w(TAG, e);
+        } finally {
+            Utils.close(stream);
+        }
+        return null;
+    }
+
+    private static BlocklistImage deserialize(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        Map<String, String> settings = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = readString(buffer);
+            settings.put(name, readString(buffer));
+        }
+        count = buffer.getInt();
+        Map<Long, Contact> contacts = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            long id = buffer.getLong();
+            int type = buffer.getInt();
+            String name = readString(buffer);
+            contacts.put(id, new Contact(id, name, type, new LinkedList<ContactNumber>()));
+        }
+        count = buffer.getInt();
+        List<ContactNumber> numbers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long id = buffer.getLong();
+            long contactId = buffer.getLong();
+            int type = buffer.getInt();
+            numbers.add(new ContactNumber(id, readString(buffer), type, contactId));
+        }
+        ContactNumberMatcher matcher = ContactNumberMatcher.read(buffer, numbers,
+                getCountry(settings));
+        return new BlocklistImage(settings, contacts, matcher);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        String string = new String(buffer.array(), buffer.position(), length, UTF8);
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactNumber;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled in-memory index of the contact numbers. Matches a number against all
+ * the rules of the lists in time that depends on the length of the number only:
+ * TYPE_EQUALS rules are kept in a hash map, TYPE_STARTS in a prefix trie,
+ * TYPE_ENDS in a trie of reversed numbers and TYPE_CONTAINS in an Aho-Corasick
+ * automaton. The result is the same as the one of SQL "number" table scan, where
+ * '=' is case sensitive and 'LIKE' ignores the case of ASCII letters.
+ * If the country rules are passed, TYPE_EQUALS and TYPE_STARTS rules are also matched
+ * in the international form, so national and international notations of the same
+ * number are equal.
+ * The compiled structures can be written to the stream and read back as they are
+ * (see BlocklistImage), so the cold process doesn't rebuild them.
+ */
+public class ContactNumberMatcher {
+    private final Map<String, List<ContactNumber>> equalsMap;
+    private final Trie startsTrie;
+    private final Trie endsTrie;
+    private final Trie containsTrie;
+    private final int size;
+    private final PhoneNumbers.Country country;
+
+    public ContactNumberMatcher(@NonNull Collection<ContactNumber> numbers) {
+        this(numbers, null);
+    }
+
+    public ContactNumberMatcher(@NonNull Collection<ContactNumber> numbers,
+                                @Nullable PhoneNumbers.Country country) {
+        this.country = country;
+        equalsMap = new HashMap<>();
+        startsTrie = new Trie(new Node());
+        endsTrie = new Trie(new Node());
+        containsTrie = new Trie(new Node());
+        for (ContactNumber number : numbers) {
+            switch (number.type) {
+                case ContactNumber.TYPE_EQUALS: {
+                    putEquals(number.number, number);
+                    if (country != null) {
+                        String canonical = country.canonicalize(number.number);
+                        if (!canonical.equals(number.number)) {
+                            putEquals(canonical, number);
+                        }
+                    }
+                }
+                break;
+                case ContactNumber.TYPE_STARTS: {
+                    startsTrie.add(number.number, false, number);
+                    if (country != null) {
+                        String canonical = country.canonicalizePrefix(number.number);
+                        if (!canonical.equals(number.number)) {
+                            startsTrie.add(canonical, false, number);
+                        }
+                    }
+                }
+                break;
+                case ContactNumber.TYPE_ENDS:
+                    endsTrie.add(number.number, true, number);
+                    break;
+                case ContactNumber.TYPE_CONTAINS:
+                    containsTrie.add(number.number, false, number);
+                    break;
+            }
+        }
+        containsTrie.buildFailureLinks();
+        size = numbers.size();
+    }
+
+    private ContactNumberMatcher(int size, @Nullable PhoneNumbers.Country country,
+                                 Map<String, List<ContactNumber>> equalsMap,
+                                 Trie startsTrie, Trie endsTrie, Trie containsTrie) {
+        this.size = size;
+        this.country = country;
+        this.equalsMap = equalsMap;
+        this.startsTrie = startsTrie;
+        this.endsTrie = endsTrie;
+        this.containsTrie = containsTrie;
+    }
+
+    private void putEquals(String key, ContactNumber number) {
+        List<ContactNumber> list = equalsMap.get(key);
+        if (list == null) {
+            list = new ArrayList<>(1);
+            equalsMap.put(key, list);
+        }
+        list.add(number);
+    }
+
+    // Returns count of indexed contact numbers
+    public int getSize() {
+        return size;
+    }
+
+    // Returns all contact numbers matching to the passed number, ordered by id
+    public List<ContactNumber> match(@NonNull String number) {
+        List<ContactNumber> result = new LinkedList<>();
+
+        List<ContactNumber> equals = equalsMap.get(number);
+        if (equals != null) {
+            result.addAll(equals);
+        }
+        startsTrie.matchPrefixes(number, false, result);
+        endsTrie.matchPrefixes(number, true, result);
+        containsTrie.matchSubstrings(number, result);
+
+        if (country != null) {
+            // national and international forms of the number share the suffix,
+            // so only the "equals" and "starts" rules need the second lookup
+            String canonical = country.canonicalize(number);
+            if (!canonical.equals(number)) {
+                equals = equalsMap.get(canonical);
+                if (equals != null) {
+                    result.addAll(equals);
+                }
+                startsTrie.matchPrefixes(canonical, false, result);
+            }
+        }
+
+        if (result.size() > 1) {
+            Collections.sort(result, ID_COMPARATOR);
+            // the same rule can be matched more than once
+            ContactNumber previous = null;
+            for (Iterator<ContactNumber> it = result.iterator(); it.hasNext(); ) {
+                ContactNumber current = it.next();
+                if (current == previous) {
+                    it.remove();
+                }
+                previous = current;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes the compiled structures of the matcher. The contact numbers are written as
+     * their indexes in the passed list of the numbers of the matcher (the list itself is
+     * written by the caller), the country rules aren't written.
+     */
+    void write(@NonNull DataOutputStream stream, @NonNull List<ContactNumber> numbers)
+            throws IOException {
+        Map<ContactNumber, Integer> indexes = new IdentityHashMap<>();
+        for (ContactNumber number : numbers) {
+            indexes.put(number, indexes.size());
+        }
+        stream.writeInt(size);
+        stream.writeInt(equalsMap.size());
+        for (Map.Entry<String, List<ContactNumber>> entry : equalsMap.entrySet()) {
+            String key = entry.getKey();
+            stream.writeInt(key.length());
+            stream.writeChars(key);
+            writeValues(stream, entry.getValue(), indexes);
+        }
+        startsTrie.write(stream, indexes);
+        endsTrie.write(stream, indexes);
+        containsTrie.write(stream, indexes);
+    }
+
+    /**
+     * Reads the compiled structures written by write() with the same list of the numbers
+     * and country rules. Throws an unchecked exception if the data are invalid.
+     */
+    static ContactNumberMatcher read(@NonNull ByteBuffer buffer,
+                                     @NonNull List<ContactNumber> numbers,
+                                     @Nullable PhoneNumbers.Country country) {
+        // the numbers are got by their indexes
+        if (!(numbers instanceof ArrayList)) {
+            numbers = new ArrayList<>(numbers);
+        }
+        int size = buffer.getInt();
+        int count = readCount(buffer);
+        Map<String, List<ContactNumber>> equalsMap = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            char[] key = new char[readCount(buffer)];
+            for (int j = 0; j < key.length; j++) {
+                key[j] = buffer.getChar();
+            }
+            equalsMap.put(new String(key), readValues(buffer, numbers));
+        }
+        Trie startsTrie = Trie.read(buffer, numbers);
+        Trie endsTrie = Trie.read(buffer, numbers);
+        Trie containsTrie = Trie.read(buffer, numbers);
+        return new ContactNumberMatcher(size, country, equalsMap,
+                startsTrie, endsTrie, containsTrie);
+    }
+
+    // Writes the contact numbers as their indexes (-1 for null)
+    private static void writeValues(DataOutputStream stream, List<ContactNumber> values,
+                                    Map<ContactNumber, Integer> indexes) throws IOException {
+        if (values == null) {
+            stream.writeInt(-1);
+            return;
+        }
+        stream.writeInt(values.size());
+        for (ContactNumber value : values) {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                throw new IllegalArgumentException("Number isn't in the list: " + value.number);
+            }
+            stream.writeInt(index);
+        }
+    }
+
+    @Nullable
+    private static List<ContactNumber> readValues(ByteBuffer buffer, List<ContactNumber> numbers) {
+        int count = buffer.getInt();
+        if (count == -1) {
+            return null;
+        }
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid count " + count);
+        }
+        List<ContactNumber> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(numbers.get(buffer.getInt()));
+        }
+        return values;
+    }
+
+    // Reads the count of the items of the data (every item takes a byte at least)
+    private static int readCount(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid count " + count);
+        }
+        return count;
+    }
+
+    private static final Comparator<ContactNumber> ID_COMPARATOR = new Comparator<ContactNumber>() {
+        @Override
+        public int compare(ContactNumber n1, ContactNumber n2) {
+            return (n1.id < n2.id ? -1 : (n1.id == n2.id ? 0 : 1));
+        }
+    };
+
+    // Folds ASCII letters to lower case as SQLite 'LIKE' operator does
+    private static char fold(char c) {
+        return (c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+    }
+
+    // Trie node with the children sorted by their keys
+    private static class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        char[] keys = NO_KEYS;
+        Node[] children = NO_CHILDREN;
+        int count = 0;
+        // contact numbers which rule ends at this node
+        List<ContactNumber> values = null;
+        // the longest proper suffix node (Aho-Corasick failure link)
+        Node failure = null;
+        // the nearest node with values reachable by failure links
+        Node output = null;
+
+        Node getChild(char key) {
+            int low = 0, high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char c = keys[mid];
+                if (c < key) {
+                    low = mid + 1;
+                } else if (c > key) {
+                    high = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+
+        Node addChild(char key) {
+            int i = 0;
+            while (i < count && keys[i] < key) i++;
+            if (i < count && keys[i] == key) {
+                return children[i];
+            }
+            if (count == keys.length) {
+                int capacity = (count == 0 ? 2 : count * 2);
+                char[] newKeys = new char[capacity];
+                Node[] newChildren = new Node[capacity];
+                System.arraycopy(keys, 0, newKeys, 0, count);
+                System.arraycopy(children, 0, newChildren, 0, count);
+                keys = newKeys;
+                children = newChildren;
+            }
+            System.arraycopy(keys, i, keys, i + 1, count - i);
+            System.arraycopy(children, i, children, i + 1, count - i);
+            Node child = new Node();
+            keys[i] = key;
+            children[i] = child;
+            count++;
+            return child;
+        }
+    }
+
+    // Trie of the rules
+    private static class Trie {
+        private final Node root;
+
+        Trie(Node root) {
+            this.root = root;
+        }
+
+        // Adds the rule (reversed if needed)
+        void add(String rule, boolean reversed, ContactNumber number) {
+            Node node = root;
+            final int length = rule.length();
+            for (int i = 0; i < length; i++) {
+                char c = rule.charAt(reversed ? length - 1 - i : i);
+                node = node.addChild(fold(c));
+            }
+            if (node.values == null) {
+                node.values = new ArrayList<>(1);
+            }
+            node.values.add(number);
+        }
+
+        // Collects the rules which are the prefixes (or suffixes if reversed) of the number
+        void matchPrefixes(String number, boolean reversed, List<ContactNumber> result) {
+            Node node = root;
+            if (node.values != null) {
+                result.addAll(node.values);
+            }
+            final int length = number.length();
+            for (int i = 0; i < length && node != null; i++) {
+                char c = number.charAt(reversed ? length - 1 - i : i);
+                node = node.getChild(fold(c));
+                if (node != null && node.values != null) {
+                    result.addAll(node.values);
+                }
+            }
+        }
+
+        // Builds failure and output links of the Aho-Corasick automaton (breadth first)
+        void buildFailureLinks() {
+            LinkedList<Node> queue = new LinkedList<>();
+            for (int i = 0; i < root.count; i++) {
+                Node child = root.children[i];
+                child.failure = root;
+                child.output = (root.values != null ? root : null);
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                Node node = queue.removeFirst();
+                for (int i = 0; i < node.count; i++) {
+                    char key = node.keys[i];
+                    Node child = node.children[i];
+                    Node failure = node.failure;
+                    Node next = failure.getChild(key);
+                    while (next == null && failure != root) {
+                        failure = failure.failure;
+                        next = failure.getChild(key);
+                    }
+                    child.failure = (next != null ? next : root);
+                    child.output = (child.failure.values != null ?
+                            child.failure : child.failure.output);
+                    queue.add(child);
+                }
+            }
+        }
+
+        // Collects the rules which are the substrings of the number
+        void matchSubstrings(String number, List<ContactNumber> result) {
+            if (root.count == 0) {
+                if (root.values != null) {
+                    result.addAll(root.values);
+                }
+                return;
+            }
+            Node node = root;
+            collect(node, result);
+            final int length = number.length();
+            for (int i = 0; i < length; i++) {
+                char c = fold(number.charAt(i));
+                Node next = node.getChild(c);
+                while (next == null && node != root) {
+                    node = node.failure;
+                    next = node.getChild(c);
+                }
+                node = (next != null ? next : root);
+                collect(node, result);
+            }
+        }
+
+        private void collect(Node node, List<ContactNumber> result) {
+            for (Node n = (node.values != null ? node : node.output); n != null; n = n.output) {
+                result.addAll(n.values);
+            }
+        }
+
+        // Writes the nodes numbered breadth first (the root is the first one) with the
+        // children, failure and output links as the numbers of the nodes (-1 for null)
+        void write(DataOutputStream stream, Map<ContactNumber, Integer> indexes)
+                throws IOException {
+            List<Node> nodes = new ArrayList<>();
+            Map<Node, Integer> numbers = new IdentityHashMap<>();
+            nodes.add(root);
+            numbers.put(root, 0);
+            for (int i = 0; i < nodes.size(); i++) {
+                Node node = nodes.get(i);
+                for (int j = 0; j < node.count; j++) {
+                    numbers.put(node.children[j], nodes.size());
+                    nodes.add(node.children[j]);
+                }
+            }
+            stream.writeInt(nodes.size());
+            for (Node node : nodes) {
+                stream.writeInt(node.count);
+                for (int j = 0; j < node.count; j++) {
+                    stream.writeChar(node.keys[j]);
+                    stream.writeInt(numbers.get(node.children[j]));
+                }
+                writeValues(stream, node.values, indexes);
+                stream.writeInt(node.failure == null ? -1 : numbers.get(node.failure));
+                stream.writeInt(node.output == null ? -1 : numbers.get(node.output));
+            }
+        }
+
+        static Trie read(ByteBuffer buffer, List<ContactNumber> numbers) {
+            Node[] nodes = new Node[readCount(buffer)];
+            if (nodes.length == 0) {
+                throw new IllegalArgumentException("Trie without root");
+            }
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = new Node();
+            }
+            for (Node node : nodes) {
+                int count = readCount(buffer);
+                if (count > 0) {
+                    node.keys = new char[count];
+                    node.children = new Node[count];
+                    node.count = count;
+                    for (int j = 0; j < count; j++) {
+                        node.keys[j] = buffer.getChar();
+                        node.children[j] = nodes[buffer.getInt()];
+                    }
+                }
+                node.values = readValues(buffer, numbers);
+                node.failure = getNode(nodes, buffer.getInt());
+                node.output = getNode(nodes, buffer.getInt());
+            }
+            return new Trie(nodes[0]);
+        }
+
+        private static Node getNode(Node[] nodes, int number) {
+            return (number == -1 ? null : nodes[number]);
+        }
+    }
+}
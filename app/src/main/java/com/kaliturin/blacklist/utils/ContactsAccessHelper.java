@@ -31,17 +31,19 @@ import android.provider.ContactsContract.Contacts;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
+import android.util.SparseIntArray;
 
 import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Contact;
 import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactNumber;
 import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactSource;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 /**
  * Contacts/SMS/Calls list access helper
@@ -210,6 +212,12 @@ public class ContactsAccessHelper {
             return null;
         }
 
+        // use the index of the phonebook if it is loaded
+        PhonebookIndex index = PhonebookIndex.getInstance(context);
+        if (index.isLoaded()) {
+            return index.getContact(number);
+        }
+
         return getContact(number);
     }
 
@@ -318,6 +326,12 @@ public class ContactsAccessHelper {
             return false;
         }
 
+        // check the number in the index of SMS addresses if it is ready
+        Boolean contains = SMSAddressIndex.getInstance(context).contains(number);
+        if (contains != null) {
+            return contains;
+        }
+
         // We cannot select passed phone number simply by using query because some stored numbers
         // may be not normalized. So we select all the unique numbers first, normalize them,
         // and then search for our number.
@@ -598,20 +612,41 @@ public class ContactsAccessHelper {
         }
     }
 
-    // SMS conversation cursor wrapper
+    // SMS conversation cursor wrapper.
+    // Keeps the conversations which are built in bulk, so rows binding doesn't query providers.
     public class SMSConversationWrapper extends CursorWrapper {
-        private final int _THREAD_ID;
+        private final List<SMSConversation> conversations;
 
-        private SMSConversationWrapper(Cursor cursor) {
+        private SMSConversationWrapper(Cursor cursor, List<SMSConversation> conversations) {
             super(cursor);
             cursor.moveToFirst();
-            _THREAD_ID = cursor.getColumnIndex(THREAD_ID);
+            this.conversations = conversations;
         }
 
         @Nullable
-        public SMSConversation getConversation(Context context) {
-            int threadId = getInt(_THREAD_ID);
-            return getSMSConversationByThreadId(context, threadId);
+        public SMSConversation getConversation() {
+            int position = getPosition();
+            if (position < 0 || position >= conversations.size()) {
+                return null;
+            }
+            return conversations.get(position);
+        }
+
+        // Replaces the conversation of the same thread if the order of the list (by the
+        // date of the last SMS) stays the same, returns false if the list must be reloaded
+        public boolean updateConversation(@NonNull SMSConversation conversation) {
+            for (int i = 0; i < conversations.size(); i++) {
+                if (conversations.get(i).threadId == conversation.threadId) {
+                    if ((i > 0 && conversations.get(i - 1).date < conversation.date) ||
+                            (i + 1 < conversations.size() &&
+                                    conversations.get(i + 1).date > conversation.date)) {
+                        return false;
+                    }
+                    conversations.set(i, conversation);
+                    return true;
+                }
+            }
+            return false;
         }
     }
 
@@ -623,20 +658,213 @@ public class ContactsAccessHelper {
             return null;
         }
 
-        // select available conversation's data
+        List<SMSConversation> conversations = getSMSConversationsInBulk(context);
+        if (conversations == null) {
+            // provider rejected the query - get conversations one by one
+            conversations = getSMSConversationsByThreads(context);
+        }
+        if (conversations.isEmpty()) {
+            return null;
+        }
+
+        MatrixCursor cursor = new MatrixCursor(new String[]{ID, THREAD_ID});
+        for (SMSConversation conversation : conversations) {
+            cursor.addRow(new Object[]{conversation.threadId, conversation.threadId});
+        }
+
+        return new SMSConversationWrapper(cursor, conversations);
+    }
+
+    // Last SMS of the conversation
+    private static class LastSMSMessage {
+        final int threadId;
+        final long date;
+        final Long contactId;
+        final String number;
+        final String body;
+
+        LastSMSMessage(int threadId, long date, Long contactId, String number, String body) {
+            this.threadId = threadId;
+            this.date = date;
+            this.contactId = contactId;
+            this.number = number;
+            this.body = body;
+        }
+    }
+
+    // Returns SMS conversations ordered by date of the last SMS.
+    // The last SMS of all threads are selected by one query, unread SMS are counted
+    // by another one, and the persons are resolved once per contact id and number.
+    // Returns null if the provider rejected the query of the last SMS.
+    @Nullable
+    private List<SMSConversation> getSMSConversationsInBulk(Context context) {
+        Cursor cursor;
+        try {
+            // the last SMS are selected by the max date of the thread (the bare columns
+            // of GROUP BY are taken from the row of MAX() since SQLite 3.7.11 only)
+            cursor = contentResolver.query(
+                    URI_CONTENT_SMS,
+                    new String[]{THREAD_ID, DATE, ADDRESS, PERSON, BODY},
+                    // we don't support drafts yet
+                    ADDRESS + " IS NOT NULL AND " + DATE + " = " +
+                            "(SELECT MAX(s." + DATE + ") FROM sms s" +
+                            " WHERE s." + THREAD_ID + " = sms." + THREAD_ID +
+                            " AND s." + ADDRESS + " IS NOT NULL)",
+                    null,
+                    DATE + " DESC");
+        } catch (Exception e) {
+            Log.w(TAG, e);
+            return null;
+        }
+        if (cursor == null) {
+            return null;
+        }
+
+        // read the last SMS of the threads
+        List<LastSMSMessage> messages = new ArrayList<>(cursor.getCount());
+        Set<Long> contactIds = new HashSet<>();
+        Set<Integer> threadIds = new HashSet<>();
+        if (validate(cursor)) {
+            cursor.moveToFirst();
+            final int _THREAD_ID = cursor.getColumnIndex(THREAD_ID);
+            final int _DATE = cursor.getColumnIndex(DATE);
+            final int _ADDRESS = cursor.getColumnIndex(ADDRESS);
+            final int _PERSON = cursor.getColumnIndex(PERSON);
+            final int _BODY = cursor.getColumnIndex(BODY);
+            do {
+                // the SMS of the same date are skipped except of the first one
+                if (!threadIds.add(cursor.getInt(_THREAD_ID))) {
+                    continue;
+                }
+                Long contactId = null;
+                if (!cursor.isNull(_PERSON)) {
+                    contactId = cursor.getLong(_PERSON);
+                    contactIds.add(contactId);
+                }
+                String number = normalizePhoneNumber(cursor.getString(_ADDRESS));
+                messages.add(new LastSMSMessage(cursor.getInt(_THREAD_ID), cursor.getLong(_DATE),
+                        contactId, number, cursor.getString(_BODY)));
+            } while (cursor.moveToNext());
+            cursor.close();
+        }
+
+        SparseIntArray unreadCounts = getSMSMessagesUnreadCounts(context);
+        Map<Long, String> namesById = getContactsNames(contactIds);
+        Map<String, String> namesByNumber = new HashMap<>();
+
+        List<SMSConversation> conversations = new ArrayList<>(messages.size());
+        for (LastSMSMessage sms : messages) {
+            String person = null;
+            if (sms.contactId != null) {
+                person = namesById.get(sms.contactId);
+            }
+            if (person == null) {
+                // find contact by number
+                if (namesByNumber.containsKey(sms.number)) {
+                    person = namesByNumber.get(sms.number);
+                } else {
+                    Contact contact = getContact(context, sms.number);
+                    person = (contact != null ? contact.name : null);
+                    namesByNumber.put(sms.number, person);
+                }
+            }
+            conversations.add(new SMSConversation(sms.threadId, sms.date,
+                    person, sms.number, sms.body, unreadCounts.get(sms.threadId)));
+        }
+
+        return conversations;
+    }
+
+    // Returns SMS conversations getting them by thread ids one by one
+    private List<SMSConversation> getSMSConversationsByThreads(Context context) {
+        List<SMSConversation> conversations = new ArrayList<>();
         Cursor cursor = contentResolver.query(
                 URI_CONTENT_SMS_CONVERSATIONS,
                 new String[]{THREAD_ID + " as " + ID, THREAD_ID},
                 null,
                 null,
                 DATE + " DESC");
+        if (validate(cursor)) {
+            cursor.moveToFirst();
+            final int _THREAD_ID = cursor.getColumnIndex(THREAD_ID);
+            do {
+                SMSConversation conversation =
+                        getSMSConversationByThreadId(context, cursor.getInt(_THREAD_ID));
+                if (conversation != null) {
+                    conversations.add(conversation);
+                }
+            } while (cursor.moveToNext());
+            cursor.close();
+        }
+
+        return conversations;
+    }
+
+    // Returns counts of unread SMS messages by thread ids
+    private SparseIntArray getSMSMessagesUnreadCounts(Context context) {
+        SparseIntArray counts = new SparseIntArray();
+        if (!Permissions.isGranted(context, Permissions.READ_SMS)) {
+            return counts;
+        }
 
-        return (validate(cursor) ? new SMSConversationWrapper(cursor) : null);
+        // unread SMS are few, so they are counted here by one pass
+        Cursor cursor = contentResolver.query(
+                URI_CONTENT_SMS_INBOX,
+                new String[]{THREAD_ID},
+                READ + " = ? ",
+                new String[]{String.valueOf(0)},
+                null);
+
+        if (validate(cursor)) {
+            cursor.moveToFirst();
+            do {
+                int threadId = cursor.getInt(0);
+                counts.put(threadId, counts.get(threadId) + 1);
+            } while (cursor.moveToNext());
+            cursor.close();
+        }
+
+        return counts;
+    }
+
+    // Returns names of the contacts by their ids
+    private Map<Long, String> getContactsNames(Set<Long> contactIds) {
+        Map<Long, String> names = new HashMap<>();
+        if (contactIds.isEmpty()) {
+            return names;
+        }
+
+        StringBuilder ids = new StringBuilder();
+        for (Long contactId : contactIds) {
+            if (ids.length() > 0) {
+                ids.append(',');
+            }
+            ids.append(contactId);
+        }
+        Cursor cursor = contentResolver.query(
+                Contacts.CONTENT_URI,
+                new String[]{Contacts._ID, Contacts.DISPLAY_NAME},
+                Contacts.DISPLAY_NAME + " IS NOT NULL AND " +
+                        Contacts.IN_VISIBLE_GROUP + " != 0 AND " +
+                        Contacts.HAS_PHONE_NUMBER + " != 0 AND " +
+                        Contacts._ID + " IN (" + ids + ")",
+                null,
+                null);
+
+        if (validate(cursor)) {
+            cursor.moveToFirst();
+            do {
+                names.put(cursor.getLong(0), cursor.getString(1));
+            } while (cursor.moveToNext());
+            cursor.close();
+        }
+
+        return names;
     }
 
     // Returns SMS conversation by thread id
     @Nullable
-    private SMSConversation getSMSConversationByThreadId(Context context, int threadId) {
+    public SMSConversation getSMSConversationByThreadId(Context context, int threadId) {
         if (!Permissions.isGranted(context, Permissions.READ_SMS) ||
                 !Permissions.isGranted(context, Permissions.READ_CONTACTS)) {
             return null;
@@ -1095,39 +1323,19 @@ public class ContactsAccessHelper {
 
 //---------------------------------------------------------------------
 
-    // For the sake of performance we don't use comprehensive phone number pattern.
-    // We just want to detect whether a phone number is digital but not symbolic.
-    private static final Pattern digitalPhoneNumberPattern = Pattern.compile("[+]?[0-9-() ]+");
-    // Is used for normalizing a phone number, removing from it brackets, dashes and spaces.
-    private static final Pattern normalizePhoneNumberPattern = Pattern.compile("[-() ]");
-
     /**
      * If passed phone number is digital and not symbolic then normalizes
      * it, removing brackets, dashes and spaces.
      */
     public static String normalizePhoneNumber(@NonNull String number) {
-        number = number.trim();
-        if (digitalPhoneNumberPattern.matcher(number).matches()) {
-            number = normalizePhoneNumberPattern.matcher(number).replaceAll("");
-        }
-        return number;
+        return PhoneNumbers.normalize(number);
     }
 
     /**
      * Checks whether passed phone number is private
      */
     public static boolean isPrivatePhoneNumber(@Nullable String number) {
-        try {
-            if (number == null) {
-                return true;
-            }
-            number = number.trim();
-            if (number.isEmpty() || Long.valueOf(number) < 0) {
-                return true;
-            }
-        } catch (NumberFormatException ignored) {
-        }
-        return false;
+        return PhoneNumbers.isPrivate(number);
     }
 
 //---------------------------------------------------------------------
@@ -0,0 +1,555 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Contact;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactNumber;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactNumberTable;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactTable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Merges the contacts of the black/white lists from the app's data file, CSV or vCard
+ * file into the existing lists.
+ * The source is read as a stream and written by batches, each in its own transaction.
+ * The count of the written entries is kept in the state file, so the interrupted
+ * importing of the same file is resumed after the last written batch.
+ * CSV lines are "name,number[,list]", where list is "black" (by default) or "white".
+ * vCard contacts are added to the black list. The numbers of CSV and vCard are
+ * normalized as the ones added by the user.
+ */
+public class ContactsImporter {
+    private static final String TAG = ContactsImporter.class.getName();
+    private static final String STATE_FILE_NAME = "import.state";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BATCH_SIZE = 1000;
+
+    private final Context context;
+    private final File file;
+    // keys of the read numbers, are used for skipping of the repeated ones
+    private final Set<String> numberKeys = new HashSet<>();
+
+    /**
+     * Importing progress callback
+     */
+    public interface Callback {
+        // Is called after each written batch, returns false to stop importing
+        boolean onProgress(int percent);
+    }
+
+    public ContactsImporter(Context context, @NonNull File file) {
+        this.context = context;
+        this.file = file;
+    }
+
+    /**
+     * Imports the contacts, returns count of the added numbers or -1 on error
+     */
+    public int importContacts(@NonNull Callback callback) {
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db == null) {
+            return -1;
+        }
+        Source source = null;
+        try {
+            source = openSource();
+            // skip the entries written before the interruption
+            long position = 0;
+            long written = readState();
+            int count = 0;
+            List<Contact> batch = new ArrayList<>();
+            int batchSize = 0;
+            Entry entry;
+            do {
+                entry = source.next();
+                if (entry != null) {
+                    position++;
+                    if (position <= written || !numberKeys.add(entry.getNumberKey())) {
+                        continue;
+                    }
+                    addEntry(batch, entry);
+                    batchSize++;
+                }
+                if (batchSize >= BATCH_SIZE || (entry == null && batchSize > 0)) {
+                    int added = db.mergeContacts(batch);
+                    if (added < 0) {
+                        return -1;
+                    }
+                    count += added;
+                    batch.clear();
+                    batchSize = 0;
+                    writeState(position);
+                    if (!callback.onProgress(source.getProgress())) {
+                        return count;
+                    }
+                }
+            } while (entry != null);
+
+            // importing is complete
+            deleteState();
+            return count;
+        } catch (Exception e) {
+            // the source could be damaged
+            Log.w(TAG, e);
+            return -1;
+        } finally {
+            if (source != null) {
+                source.close();
+            }
+        }
+    }
+
+    // Adds the entry to the last contact of the batch or to a new one
+    private void addEntry(List<Contact> batch, Entry entry) {
+        ContactNumber number = new ContactNumber(0, entry.number, entry.numberType, 0);
+        if (!batch.isEmpty()) {
+            Contact contact = batch.get(batch.size() - 1);
+            if (contact.type == entry.type && contact.name.equals(entry.name)) {
+                contact.numbers.add(number);
+                return;
+            }
+        }
+        List<ContactNumber> numbers = new LinkedList<>();
+        numbers.add(number);
+        batch.add(new Contact(0, entry.name, entry.type, numbers));
+    }
+
+    // Opens the source by the format of the file
+    private Source openSource() throws IOException {
+        if (DatabaseAccessHelper.isSQLiteFile(file.getPath())) {
+            return new DatabaseSource(file);
+        }
+        TextSource source = new TextSource(file);
+        String line;
+        try {
+            line = source.peekLine();
+        } catch (IOException e) {
+            source.close();
+            throw e;
+        }
+        if (line != null && line.trim().equalsIgnoreCase("BEGIN:VCARD")) {
+            return new VCardSource(source);
+        }
+        return new CsvSource(source);
+    }
+
+    private File getStateFile() {
+        return new File(context.getFilesDir(), STATE_FILE_NAME);
+    }
+
+    // Returns count of the entries written from the same file before or 0
+    private long readState() {
+        File stateFile = getStateFile();
+        if (!stateFile.exists()) {
+            return 0;
+        }
+        Properties state = new Properties();
+        FileInputStream stream = null;
+        try {
+            stream = new FileInputStream(stateFile);
+            state.load(stream);
+            if (file.getAbsolutePath().equals(state.getProperty("path")) &&
+                    String.valueOf(file.length()).equals(state.getProperty("length")) &&
+                    String.valueOf(file.lastModified()).equals(state.getProperty("modified"))) {
+                return Long.parseLong(state.getProperty("written", "0"));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, e);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, e);
+        } finally {
+            Utils.close(stream);
+        }
+        return 0;
+    }
+
+    // Keeps count of the written entries of the file
+    private void writeState(long written) {
+        Properties state = new Properties();
+        state.setProperty("path", file.getAbsolutePath());
+        state.setProperty("length", String.valueOf(file.length()));
+        state.setProperty("modified", String.valueOf(file.lastModified()));
+        state.setProperty("written", String.valueOf(written));
+        FileOutputStream stream = null;
+        try {
+            stream = new FileOutputStream(getStateFile());
+            state.store(stream, null);
+        } catch (IOException e) {
+            Log.w(TAG, e);
+        } finally {
+            Utils.close(stream);
+        }
+    }
+
+    private void deleteState() {
+        File stateFile = getStateFile();
+        if (stateFile.exists() && !stateFile.delete()) {
+            Log.w(TAG, "Unable to delete the file " + stateFile);
+        }
+    }
+
+    // Number of the list's contact read from the source
+    private static class Entry {
+        final int type;
+        final String name;
+        final String number;
+        // type of the number matching (ContactNumber.TYPE_*)
+        final int numberType;
+
+        Entry(int type, String name, String number) {
+            this(type, name, number, ContactNumber.TYPE_EQUALS);
+        }
+
+        Entry(int type, String name, String number, int numberType) {
+            this.type = type;
+            this.name = name;
+            this.number = number;
+            this.numberType = numberType;
+        }
+
+        String getNumberKey() {
+            return type + ":" + numberType + ":" + number;
+        }
+    }
+
+    // Source of the entries
+    private interface Source {
+        // Returns the next entry or null if there are no more entries
+        @Nullable
+        Entry next() throws IOException;
+
+        // Returns the percent of the read source
+        int getProgress();
+
+        void close();
+    }
+
+    // Source of the app's data file
+    private static class DatabaseSource implements Source {
+        private static final String SELECT_NUMBERS =
+                "SELECT " +
+                        "c." + ContactTable.Column.TYPE + ", " +
+                        "c." + ContactTable.Column.NAME + ", " +
+                        "n." + ContactNumberTable.Column.NUMBER + ", " +
+                        "n." + ContactNumberTable.Column.TYPE +
+                        " FROM " + ContactTable.NAME + " c" +
+                        " JOIN " + ContactNumberTable.NAME + " n" +
+                        " ON n." + ContactNumberTable.Column.CONTACT_ID +
+                        " = c." + ContactTable.Column.ID +
+                        " ORDER BY c." + ContactTable.Column.ID;
+
+        private final SQLiteDatabase db;
+        private final Cursor cursor;
+        private final int count;
+
+        DatabaseSource(File file) {
+            db = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            Cursor cursor = null;
+            try {
+                cursor = db.rawQuery(SELECT_NUMBERS, null);
+                count = cursor.getCount();
+            } catch (RuntimeException e) {
+                if (cursor != null) cursor.close();
+                db.close();
+                throw e;
+            }
+            this.cursor = cursor;
+        }
+
+        @Nullable
+        @Override
+        public Entry next() {
+            while (cursor.moveToNext()) {
+                int type = cursor.getInt(0);
+                String name = cursor.getString(1);
+                String number = cursor.getString(2);
+                int numberType = cursor.getInt(3);
+                if (isListType(type) && isNumberType(numberType) &&
+                        number != null && !number.isEmpty()) {
+                    return new Entry(type, (name != null ? name : number), number, numberType);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public int getProgress() {
+            return (count > 0 ? (int) (Math.min(cursor.getPosition() + 1, count) * 100L / count) : 100);
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+            db.close();
+        }
+    }
+
+    // Source of the text file lines
+    private static class TextSource {
+        private final FileInputStream stream;
+        private final BufferedReader reader;
+        private final long length;
+        private String peekedLine = null;
+
+        TextSource(File file) throws IOException {
+            stream = new FileInputStream(file);
+            reader = new BufferedReader(new InputStreamReader(stream, UTF8));
+            length = file.length();
+        }
+
+        @Nullable
+        String readLine() throws IOException {
+            String line = peekLine();
+            peekedLine = null;
+            return line;
+        }
+
+        @Nullable
+        String peekLine() throws IOException {
+            if (peekedLine == null) {
+                peekedLine = reader.readLine();
+                // skip the byte order mark
+                if (peekedLine != null && peekedLine.startsWith("\uFEFF")) {
+                    peekedLine = peekedLine.substring(1);
+                }
+            }
+            return peekedLine;
+        }
+
+        int getProgress() {
+            try {
+                FileChannel channel = stream.getChannel();
+                return (length > 0 ? (int) (Math.min(channel.position(), length) * 100 / length) : 100);
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        void close() {
+            Utils.close(reader);
+        }
+    }
+
+    // Source of CSV file
+    private static class CsvSource implements Source {
+        private final TextSource source;
+
+        CsvSource(TextSource source) {
+            this.source = source;
+        }
+
+        @Nullable
+        @Override
+        public Entry next() throws IOException {
+            String line;
+            while ((line = source.readLine()) != null) {
+                List<String> fields = parseLine(line);
+                if (fields.size() < 2) {
+                    continue;
+                }
+                String number = fields.get(1);
+                // skip the header and the lines without number
+                if (!hasDigit(number)) {
+                    continue;
+                }
+                number = ContactsAccessHelper.normalizePhoneNumber(number);
+                String name = fields.get(0).trim();
+                int type = Contact.TYPE_BLACK_LIST;
+                if (fields.size() > 2 && fields.get(2).trim().equalsIgnoreCase("white")) {
+                    type = Contact.TYPE_WHITE_LIST;
+                }
+                return new Entry(type, (name.isEmpty() ? number : name), number);
+            }
+            return null;
+        }
+
+        // Splits the line to the fields (the quoted ones can contain commas and "" quotes)
+        private List<String> parseLine(String line) {
+            List<String> fields = new ArrayList<>(3);
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append(c);
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',' || c == ';') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+
+        @Override
+        public int getProgress() {
+            return source.getProgress();
+        }
+
+        @Override
+        public void close() {
+            source.close();
+        }
+    }
+
+    // Source of vCard file
+    private static class VCardSource implements Source {
+        private final TextSource source;
+        private final List<String> numbers = new LinkedList<>();
+        private String name = null;
+
+        VCardSource(TextSource source) {
+            this.source = source;
+        }
+
+        @Nullable
+        @Override
+        public Entry next() throws IOException {
+            while (numbers.isEmpty()) {
+                if (!readCard()) {
+                    return null;
+                }
+            }
+            String number = numbers.remove(0);
+            return new Entry(Contact.TYPE_BLACK_LIST, (name != null ? name : number), number);
+        }
+
+        // Reads the name and the numbers of the next card, returns false at the end of file
+        private boolean readCard() throws IOException {
+            name = null;
+            String formattedName = null;
+            String line;
+            while ((line = readProperty()) != null) {
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                // the property's name without the parameters and the group
+                String property = line.substring(0, colon);
+                int semicolon = property.indexOf(';');
+                if (semicolon >= 0) {
+                    property = property.substring(0, semicolon);
+                }
+                int dot = property.lastIndexOf('.');
+                if (dot >= 0) {
+                    property = property.substring(dot + 1);
+                }
+                String value = line.substring(colon + 1).trim();
+                if (property.equalsIgnoreCase("FN")) {
+                    formattedName = unescape(value);
+                } else if (property.equalsIgnoreCase("N") && name == null) {
+                    name = unescape(value.replace(';', ' ')).trim();
+                } else if (property.equalsIgnoreCase("TEL")) {
+                    if (value.regionMatches(true, 0, "tel:", 0, 4)) {
+                        value = value.substring(4);
+                    }
+                    if (hasDigit(value)) {
+                        numbers.add(ContactsAccessHelper.normalizePhoneNumber(value));
+                    }
+                } else if (property.equalsIgnoreCase("END") && value.equalsIgnoreCase("VCARD")) {
+                    break;
+                }
+            }
+            if (formattedName != null && !formattedName.isEmpty()) {
+                name = formattedName;
+            } else if (name != null && name.isEmpty()) {
+                name = null;
+            }
+            return (line != null || !numbers.isEmpty());
+        }
+
+        // Reads the property joining the folded lines
+        @Nullable
+        private String readProperty() throws IOException {
+            String line = source.readLine();
+            if (line == null) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder(line);
+            String next;
+            while ((next = source.peekLine()) != null &&
+                    (next.startsWith(" ") || next.startsWith("\t"))) {
+                sb.append(next, 1, next.length());
+                source.readLine();
+            }
+            return sb.toString();
+        }
+
+        private String unescape(String value) {
+            return value.replace("\\,", ",").replace("\\;", ";").replace("\\\\", "\\");
+        }
+
+        @Override
+        public int getProgress() {
+            return source.getProgress();
+        }
+
+        @Override
+        public void close() {
+            source.close();
+        }
+    }
+
+    private static boolean isListType(int type) {
+        return (type == Contact.TYPE_BLACK_LIST || type == Contact.TYPE_WHITE_LIST);
+    }
+
+    private static boolean isNumberType(int type) {
+        return (type >= ContactNumber.TYPE_EQUALS && type <= ContactNumber.TYPE_ENDS);
+    }
+
+    private static boolean hasDigit(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.isDigit(value.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -21,7 +21,10 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.CursorWrapper;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
@@ -29,10 +32,17 @@ import android.util.Log;
 
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -41,8 +51,20 @@ import java.util.TreeSet;
 public class DatabaseAccessHelper extends SQLiteOpenHelper {
     private static final String TAG = DatabaseAccessHelper.class.getName();
     public static final String DATABASE_NAME = "blacklist.db";
-    private static final int DATABASE_VERSION = 1;
+    static final int DATABASE_VERSION = 9;
+    // max count of the ranges of identifiers in one delete statement
+    private static final int DELETE_RANGES_CHUNK_SIZE = 100;
+    // max count of the numbers values in one select statement
+    private static final int SELECT_NUMBERS_CHUNK_SIZE = 500;
+    // attempts to copy the database file not changed by the concurrent commits
+    private static final int EXPORT_COPY_ATTEMPTS = 5;
+    private static final long EXPORT_COPY_RETRY_DELAY = 200;
     private static volatile DatabaseAccessHelper sInstance = null;
+    private final Context context;
+    // the database file was created by the current helper
+    private boolean created;
+    private volatile ContactNumberMatcher numberMatcher = null;
+    private final AtomicInteger numbersVersion = new AtomicInteger();
 
     @Nullable
     public static DatabaseAccessHelper getInstance(Context context) {
@@ -62,6 +84,8 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
         if (sInstance != null) {
             synchronized (DatabaseAccessHelper.class) {
                 if (sInstance != null) {
+                    // the database file is going to be replaced
+                    BlocklistImage.delete(sInstance.context);
                     sInstance.close();
                     sInstance = null;
                 }
@@ -71,28 +95,139 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
 
     private DatabaseAccessHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.context = context;
         // helper won't create the database file until we first open it
         SQLiteDatabase db = getWritableDatabase();
         // onConfigure isn't calling in android 2.3
         db.execSQL("PRAGMA foreign_keys=ON");
+        if (created) {
+            // the new database is empty, so it's rebuilt in the incremental vacuum mode at once
+            enableIncrementalVacuum();
+            created = false;
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        created = true;
+        // create the scheme of the first version and migrate it to the current one,
+        // so new and upgraded databases have the same scheme
         db.execSQL(JournalTable.Statement.CREATE);
         db.execSQL(ContactTable.Statement.CREATE);
         db.execSQL(ContactNumberTable.Statement.CREATE);
         db.execSQL(SettingsTable.Statement.CREATE);
+        migrate(db, 1, DATABASE_VERSION);
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase db, int i, int i1) {
-        if (i != i1) {
-            db.execSQL("DROP TABLE IF EXISTS " + SettingsTable.NAME);
-            db.execSQL("DROP TABLE IF EXISTS " + ContactNumberTable.NAME);
-            db.execSQL("DROP TABLE IF EXISTS " + ContactTable.NAME);
-            db.execSQL("DROP TABLE IF EXISTS " + JournalTable.NAME);
-            onCreate(db);
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // is called in the transaction, so the failed migration changes nothing
+        migrate(db, oldVersion, newVersion);
+    }
+
+    // Applies the migrations of the scheme one by one keeping the data
+    private static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            for (String statement : Migrations.get(version)) {
+                db.execSQL(statement);
+            }
+        }
+    }
+
+    /**
+     * Migrations of the database scheme. Every version of the scheme is made by the
+     * statements of its migration applied to the previous version. The statements
+     * must not lose the data, the tables are never dropped.
+     */
+    static class Migrations {
+        // Indexes of the lookups and sorting of the contacts, numbers and journal
+        private static final String[] VERSION_2 = {
+                ContactNumberTable.Statement.CREATE_INDEX_BY_CONTACT_ID,
+                ContactNumberTable.Statement.CREATE_INDEX_BY_TYPE_AND_NUMBER,
+                ContactTable.Statement.CREATE_INDEX_BY_TYPE_AND_NAME,
+                JournalTable.Statement.CREATE_INDEX_BY_TIME,
+        };
+
+        // Index of the journal pages selection replaces the index by time
+        private static final String[] VERSION_3 = {
+                JournalTable.Statement.DROP_INDEX_BY_TIME,
+                JournalTable.Statement.CREATE_INDEX_BY_KEY,
+        };
+
+        // Full-text index of the journal search
+        private static final String[] VERSION_4 = {
+                JournalTable.Statement.CREATE_FTS,
+                JournalTable.Statement.FILL_FTS,
+                JournalTable.Statement.CREATE_FTS_INSERT_TRIGGER,
+                JournalTable.Statement.CREATE_FTS_DELETE_TRIGGER,
+                JournalTable.Statement.CREATE_FTS_UPDATE_TRIGGER,
+        };
+
+        // Aggregates of the journal records removed by the retention policy
+        private static final String[] VERSION_5 = {
+                JournalAggregateTable.Statement.CREATE,
+                JournalAggregateTable.Statement.CREATE_MOVING,
+        };
+
+        // Statistics of the journal kept current by the triggers
+        private static final String[] VERSION_6 = {
+                JournalStatsTable.Statement.CREATE,
+                JournalStatsTable.Statement.FILL_BY_CALLER,
+                JournalStatsTable.Statement.FILL_BY_HOUR,
+                JournalStatsTable.Statement.FILL_BY_DAY,
+                JournalStatsTable.Statement.CREATE_INSERT_TRIGGER,
+                JournalStatsTable.Statement.CREATE_DELETE_TRIGGER,
+        };
+
+        // Folding of the repeated events into the counted journal records
+        private static final String[] VERSION_7 = {
+                JournalTable.Statement.ADD_COUNT,
+                JournalTable.Statement.ADD_FIRST_TIME,
+                JournalTable.Statement.CREATE_INDEX_BY_CALLER,
+                JournalStatsTable.Statement.DROP_INSERT_TRIGGER,
+                JournalStatsTable.Statement.DROP_DELETE_TRIGGER,
+                JournalStatsTable.Statement.CREATE_COUNTED_INSERT_TRIGGER,
+                JournalStatsTable.Statement.CREATE_COUNTED_DELETE_TRIGGER,
+                JournalStatsTable.Statement.CREATE_COUNTED_UPDATE_TRIGGER,
+        };
+
+        // Compressed bodies of the long texts of the journal
+        private static final String[] VERSION_8 = {
+                JournalBodyTable.Statement.CREATE,
+                JournalBodyTable.Statement.CREATE_PENDING,
+                JournalBodyTable.Statement.FILL_PENDING,
+                JournalTable.Statement.ADD_BODY_ID,
+                JournalBodyTable.Statement.CREATE_INSERT_TRIGGER,
+                JournalBodyTable.Statement.CREATE_DELETE_TRIGGER,
+                JournalBodyTable.Statement.CREATE_UPDATE_TRIGGER,
+        };
+
+        // Marker of the journal records committed by the group commit
+        private static final String[] VERSION_9 = {
+                JournalCommitTable.Statement.CREATE,
+        };
+
+        // Returns the statements making the passed version of the scheme
+        static String[] get(int version) {
+            switch (version) {
+                case 2:
+                    return VERSION_2;
+                case 3:
+                    return VERSION_3;
+                case 4:
+                    return VERSION_4;
+                case 5:
+                    return VERSION_5;
+                case 6:
+                    return VERSION_6;
+                case 7:
+                    return VERSION_7;
+                case 8:
+                    return VERSION_8;
+                case 9:
+                    return VERSION_9;
+            }
+            throw new IllegalArgumentException("Unknown database version " + version);
         }
     }
 
@@ -127,6 +262,123 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
         return false;
     }
 
+    // Writes the consistent copy of the database to the passed file, returns false on error.
+    // The copy is made on the separate read-only connection, so the journal writer and the
+    // lookups of the blocking decisions aren't waiting for the end of copying. If SQLite
+    // supports VACUUM INTO the snapshot is written by it in its own read transaction,
+    // otherwise the file is copied as is and the copy is taken only if no commit has been
+    // made while copying. The copy is verified by the checksum before it replaces the
+    // passed file.
+    public boolean exportDatabase(@NonNull File dstFile) {
+        File srcFile = new File(getReadableDatabase().getPath());
+        File tmpFile = new File(dstFile.getPath() + ".tmp");
+        long checksum = -1;
+        SQLiteDatabase db = null;
+        try {
+            db = SQLiteDatabase.openDatabase(srcFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            if (isVacuumIntoSupported(db)) {
+                File snapshotFile = new File(srcFile.getPath() + ".export");
+                if (!snapshotFile.exists() || snapshotFile.delete()) {
+                    db.execSQL("VACUUM INTO ?", new Object[]{snapshotFile.getPath()});
+                    checksum = Utils.copyFileWithChecksum(snapshotFile, tmpFile);
+                }
+                if (snapshotFile.exists() && !snapshotFile.delete()) {
+                    Log.w(TAG, "Unable to delete the file " + snapshotFile);
+                }
+            } else {
+                for (int i = 0; i < EXPORT_COPY_ATTEMPTS && checksum == -1; i++) {
+                    if (i > 0) {
+                        SystemClock.sleep(EXPORT_COPY_RETRY_DELAY);
+                    }
+                    checksum = copyUnchangedFile(srcFile, tmpFile);
+                }
+            }
+        } catch (SQLiteException e) {
+            Log.w(TAG, e);
+        } finally {
+            if (db != null) {
+                db.close();
+            }
+        }
+
+        if (checksum == -1 ||
+                checksum != Utils.getFileChecksum(tmpFile) ||
+                !isSQLiteFile(tmpFile.getPath())) {
+            Log.w(TAG, "Database copy is not valid: " + tmpFile);
+            if (tmpFile.exists() && !tmpFile.delete()) {
+                Log.w(TAG, "Unable to delete the file " + tmpFile);
+            }
+            return false;
+        }
+        if (dstFile.exists() && !dstFile.delete()) {
+            Log.w(TAG, "Unable to delete the file " + dstFile);
+            return false;
+        }
+        return tmpFile.renameTo(dstFile);
+    }
+
+    // Returns true if VACUUM INTO is supported by SQLite of the connection (since 3.27)
+    private static boolean isVacuumIntoSupported(SQLiteDatabase db) {
+        String version = null;
+        Cursor cursor = db.rawQuery("SELECT sqlite_version()", null);
+        try {
+            if (cursor.moveToFirst()) {
+                version = cursor.getString(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (version == null) {
+            return false;
+        }
+        String[] parts = version.split("\\.");
+        try {
+            int major = Integer.parseInt(parts[0]);
+            int minor = (parts.length > 1 ? Integer.parseInt(parts[1]) : 0);
+            return (major > 3 || (major == 3 && minor >= 27));
+        } catch (NumberFormatException e) {
+            Log.w(TAG, e);
+            return false;
+        }
+    }
+
+    // Copies the database file, returns the checksum of the copy or -1 if the file has been
+    // changed while copying. Every commit increments the change counter in the header of
+    // the file and keeps the rollback journal (or the write-ahead log) not empty until its
+    // pages are written, so the copy is consistent if the counter is the same before and
+    // after copying and there are no pending pages around it.
+    private static long copyUnchangedFile(File srcFile, File dstFile) {
+        File journalFile = new File(srcFile.getPath() + "-journal");
+        File walFile = new File(srcFile.getPath() + "-wal");
+        long counter = getChangeCounter(srcFile);
+        if (counter == -1 || journalFile.length() > 0 || walFile.length() > 0) {
+            return -1;
+        }
+        long checksum = Utils.copyFileWithChecksum(srcFile, dstFile);
+        if (checksum == -1 ||
+                getChangeCounter(srcFile) != counter ||
+                journalFile.length() > 0 || walFile.length() > 0 ||
+                getChangeCounter(dstFile) != counter) {
+            return -1;
+        }
+        return checksum;
+    }
+
+    // Returns the change counter from the header of the database file or -1 on error
+    private static long getChangeCounter(File file) {
+        RandomAccessFile stream = null;
+        try {
+            stream = new RandomAccessFile(file, "r");
+            stream.seek(24);
+            return (stream.readInt() & 0xffffffffL);
+        } catch (IOException e) {
+            Log.w(TAG, e);
+            return -1;
+        } finally {
+            Utils.close(stream);
+        }
+    }
+
     // Closes cursor if it is empty and returns false
     private boolean validate(Cursor cursor) {
         if (cursor == null || cursor.isClosed()) return false;
@@ -161,6 +413,20 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
             return column + " IN ( " + args + " ) ";
         }
 
+        /**
+         * Creates 'BETWEEN part' of 'WHERE' clause with the passed count of ranges.
+         * The bounds of the ranges are passed as arguments, so the statement
+         * is the same for the same count of ranges.
+         */
+        static String getRangesClause(String column, int count) {
+            StringBuilder sb = new StringBuilder("(");
+            for (int i = 0; i < count; i++) {
+                if (i > 0) sb.append(" OR ");
+                sb.append(column).append(" BETWEEN ? AND ?");
+            }
+            return sb.append(")").toString();
+        }
+
         /**
          * Creates 'LIKE part' of 'WHERE' clause
          */
@@ -200,8 +466,33 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
     }
 
     // Journal table scheme
-    private static class JournalTable {
+    static class JournalTable {
         static final String NAME = "journal";
+        // max length of the text kept in the record and selected to the list (one SMS part),
+        // the longer texts are kept in the compressed bodies and are loaded on demand
+        static final int TEXT_PREVIEW_LENGTH = 160;
+        // count of the records selected to the list at once
+        static final int PAGE_SIZE = 200;
+
+        /**
+         * Returns the bounds [min, max) of the time of the record the event of the passed
+         * time can be folded into. The events are folded within one hour only (both in UTC
+         * and in the local time zone), so all the events of the record belong to the hour
+         * and the day of its time in the statistics and in the aggregates.
+         */
+        static long[] getFoldTimeBounds(long time, long foldWindow) {
+            long hour = JournalAggregateTable.HOUR_MILLIS;
+            long offset = TimeZone.getDefault().getOffset(time);
+            long utcStart = time - (time % hour + hour) % hour;
+            long localStart = time - ((time + offset) % hour + hour) % hour;
+            long min = Math.max(time - foldWindow, Math.max(utcStart, localStart));
+            long max = Math.min(utcStart, localStart) + hour;
+            return new long[]{min, max};
+        }
+
+        // full-text index of caller, number and text (is kept in sync by the triggers,
+        // the rows have docid equal to _id of the records)
+        static final String FTS_NAME = "journal_fts";
 
         static class Column {
             static final String ID = "_id";
@@ -209,6 +500,15 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
             static final String CALLER = "caller";
             static final String NUMBER = "number";
             static final String TEXT = "text";
+            // count of the folded repeated events and the time of the first one
+            // (the time of the last one is in TIME, FIRST_TIME is null if COUNT is 1)
+            static final String COUNT = "count";
+            static final String FIRST_TIME = "first_time";
+            // id of the compressed body of the text if it is longer than the preview,
+            // the text contains the preview then
+            static final String BODY_ID = "body_id";
+            // is selected only: whether the text is longer than the selected preview
+            static final String TEXT_TRUNCATED = "text_truncated";
         }
 
         static class Statement {
@@ -222,29 +522,359 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
                             Column.TEXT + " TEXT " +
                             ")";
 
-            static final String SELECT_FIRST_PART =
+            // the records are shown from the newest ones
+            static final String CREATE_INDEX_BY_TIME =
+                    "CREATE INDEX IF NOT EXISTS " + JournalTable.NAME + "_time" +
+                            " ON " + JournalTable.NAME +
+                            "(" + Column.TIME + " DESC)";
+
+            static final String DROP_INDEX_BY_TIME =
+                    "DROP INDEX IF EXISTS " + JournalTable.NAME + "_time";
+
+            // is used by the pages selection ordered by the key (time, _id)
+            static final String CREATE_INDEX_BY_KEY =
+                    "CREATE INDEX IF NOT EXISTS " + JournalTable.NAME + "_time_id" +
+                            " ON " + JournalTable.NAME +
+                            "(" + Column.TIME + " DESC, " + Column.ID + " DESC)";
+
+            static final String ADD_COUNT =
+                    "ALTER TABLE " + JournalTable.NAME +
+                            " ADD COLUMN " + Column.COUNT + " INTEGER NOT NULL DEFAULT 1";
+
+            static final String ADD_FIRST_TIME =
+                    "ALTER TABLE " + JournalTable.NAME +
+                            " ADD COLUMN " + Column.FIRST_TIME + " INTEGER";
+
+            static final String ADD_BODY_ID =
+                    "ALTER TABLE " + JournalTable.NAME +
+                            " ADD COLUMN " + Column.BODY_ID + " INTEGER";
+
+            // is used by the lookup of the last event from the caller
+            static final String CREATE_INDEX_BY_CALLER =
+                    "CREATE INDEX IF NOT EXISTS " + JournalTable.NAME + "_caller_time" +
+                            " ON " + JournalTable.NAME +
+                            "(" + Column.CALLER + ", " + Column.TIME + ")";
+
+            // complete rows of the list with the preview of the text
+            static final String LIST_PROJECTION =
                     "SELECT " +
                             Column.ID + ", " +
-                            Column.TIME +
-                            " FROM " + JournalTable.NAME +
-                            " ORDER BY " + Column.TIME +
-                            " DESC";
-
-            static final String SELECT_LAST_PART_BY_ID =
-                    "SELECT " +
+                            Column.TIME + ", " +
+                            Column.CALLER + ", " +
+                            Column.NUMBER + ", " +
+                            Column.COUNT + ", " +
+                            Column.FIRST_TIME + ", " +
+                            "substr(" + Column.TEXT + ", 1, " + TEXT_PREVIEW_LENGTH + ") " +
+                            "AS " + Column.TEXT + ", " +
+                            "(" + Column.BODY_ID + " IS NOT NULL" +
+                            " OR length(" + Column.TEXT + ") > " + TEXT_PREVIEW_LENGTH + ") " +
+                            "AS " + Column.TEXT_TRUNCATED +
+                            " FROM " + JournalTable.NAME;
+
+            // the records are ordered by the unique key (time, _id), so the pages
+            // can be selected after the key of the previous one (see JournalPagedCursor)
+            static final String ORDER_BY_KEY =
+                    " ORDER BY " + Column.TIME + " DESC, " +
+                            Column.ID + " DESC";
+
+            static final String AFTER_KEY_CLAUSE =
+                    Column.TIME + " <= ? " +
+                            " AND (" + Column.TIME + " < ? " +
+                            " OR " + Column.ID + " < ?) ";
+
+            static final String ORDER_BY_KEY_REVERSED =
+                    " ORDER BY " + Column.TIME + " ASC, " +
+                            Column.ID + " ASC";
+
+            static final String BEFORE_KEY_CLAUSE =
+                    Column.TIME + " >= ? " +
+                            " AND (" + Column.TIME + " > ? " +
+                            " OR " + Column.ID + " > ?) ";
+
+            static final String LIKE_CLAUSE =
+                    "(" + Column.CALLER + " LIKE ? " +
+                            " OR " + Column.TEXT + " LIKE ?) ";
+
+            static final String MATCH_CLAUSE =
+                    Column.ID + " IN (SELECT docid FROM " + FTS_NAME +
+                            " WHERE " + FTS_NAME + " MATCH ?) ";
+
+            // the tokens of the index can't be searched by the inner digits of the numbers
+            static final String MATCH_OR_NUMBER_LIKE_CLAUSE =
+                    "(" + MATCH_CLAUSE +
+                            " OR " + Column.CALLER + " LIKE ? " +
+                            " OR " + Column.NUMBER + " LIKE ?) ";
+
+            static final String CREATE_FTS =
+                    "CREATE VIRTUAL TABLE IF NOT EXISTS " + FTS_NAME +
+                            " USING fts3(" +
                             Column.CALLER + ", " +
                             Column.NUMBER + ", " +
                             Column.TEXT +
+                            ")";
+
+            static final String FILL_FTS =
+                    "INSERT INTO " + FTS_NAME +
+                            "(docid, " + Column.CALLER + ", " + Column.NUMBER + ", " + Column.TEXT + ")" +
+                            " SELECT " +
+                            Column.ID + ", " + Column.CALLER + ", " + Column.NUMBER + ", " + Column.TEXT +
+                            " FROM " + JournalTable.NAME;
+
+            private static final String FTS_INSERT_NEW =
+                    "INSERT INTO " + FTS_NAME +
+                            "(docid, " + Column.CALLER + ", " + Column.NUMBER + ", " + Column.TEXT + ")" +
+                            " VALUES (new." + Column.ID + ", new." + Column.CALLER +
+                            ", new." + Column.NUMBER + ", new." + Column.TEXT + "); ";
+
+            private static final String FTS_DELETE_OLD =
+                    "DELETE FROM " + FTS_NAME + " WHERE docid = old." + Column.ID + "; ";
+
+            // the full text of the compressed body is indexed instead of the preview
+            static final String UPDATE_FTS_TEXT =
+                    "UPDATE " + FTS_NAME +
+                            " SET " + Column.TEXT + " = ? " +
+                            " WHERE docid = ? ";
+
+            static final String CREATE_FTS_INSERT_TRIGGER =
+                    "CREATE TRIGGER IF NOT EXISTS " + FTS_NAME + "_insert" +
+                            " AFTER INSERT ON " + JournalTable.NAME +
+                            " BEGIN " + FTS_INSERT_NEW + "END";
+
+            static final String CREATE_FTS_DELETE_TRIGGER =
+                    "CREATE TRIGGER IF NOT EXISTS " + FTS_NAME + "_delete" +
+                            " AFTER DELETE ON " + JournalTable.NAME +
+                            " BEGIN " + FTS_DELETE_OLD + "END";
+
+            static final String CREATE_FTS_UPDATE_TRIGGER =
+                    "CREATE TRIGGER IF NOT EXISTS " + FTS_NAME + "_update" +
+                            " AFTER UPDATE OF " +
+                            Column.CALLER + ", " + Column.NUMBER + ", " + Column.TEXT +
+                            " ON " + JournalTable.NAME +
+                            " BEGIN " + FTS_DELETE_OLD + FTS_INSERT_NEW + "END";
+
+            /**
+             * Returns the statement selecting the page of records filtered by the passed
+             * clause (if it isn't null). The page follows the record with the passed key
+             * (time, _id) if "after" is true, else it is the first page.
+             */
+            static String getSelectPage(@Nullable String filterClause, boolean after) {
+                StringBuilder sb = new StringBuilder(LIST_PROJECTION);
+                if (filterClause != null || after) {
+                    sb.append(" WHERE ");
+                }
+                if (filterClause != null) {
+                    sb.append(filterClause);
+                }
+                if (after) {
+                    if (filterClause != null) {
+                        sb.append(" AND ");
+                    }
+                    sb.append(AFTER_KEY_CLAUSE);
+                }
+                sb.append(ORDER_BY_KEY);
+                sb.append(" LIMIT ").append(JournalTable.PAGE_SIZE);
+                return sb.toString();
+            }
+
+            // Returns the statement selecting the key (time, _id) of the record at the
+            // offset from the passed key (or from the newest record) in the order of the
+            // list, or backwards from the passed key (or from the oldest record) if reversed
+            static String getSelectKey(@Nullable String filterClause, boolean fromKey,
+                                       boolean reversed, int offset) {
+                StringBuilder sb = new StringBuilder("SELECT ")
+                        .append(Column.TIME).append(", ")
+                        .append(Column.ID)
+                        .append(" FROM ").append(JournalTable.NAME);
+                if (filterClause != null || fromKey) {
+                    sb.append(" WHERE ");
+                }
+                if (filterClause != null) {
+                    sb.append(filterClause);
+                }
+                if (fromKey) {
+                    if (filterClause != null) {
+                        sb.append(" AND ");
+                    }
+                    sb.append(reversed ? BEFORE_KEY_CLAUSE : AFTER_KEY_CLAUSE);
+                }
+                sb.append(reversed ? ORDER_BY_KEY_REVERSED : ORDER_BY_KEY);
+                sb.append(" LIMIT 1 OFFSET ").append(offset);
+                return sb.toString();
+            }
+
+            static final String SELECT_TEXT_BY_ID =
+                    "SELECT " +
+                            "j." + Column.TEXT + ", " +
+                            "b." + JournalBodyTable.Column.DATA +
+                            " FROM " + JournalTable.NAME + " j" +
+                            " LEFT JOIN " + JournalBodyTable.NAME + " b" +
+                            " ON b." + JournalBodyTable.Column.ID + " = j." + Column.BODY_ID +
+                            " WHERE j." + Column.ID + " = ? ";
+
+            static final String UPDATE_TEXT_BY_ID =
+                    "UPDATE " + JournalTable.NAME +
+                            " SET " + Column.TEXT + " = ?, " +
+                            Column.BODY_ID + " = ? " +
+                            " WHERE " + Column.ID + " = ? ";
+
+            // the last call (or SMS with the same text) from the caller since the time
+            private static final String SELECT_LAST_REPEATED =
+                    "SELECT " +
+                            Column.ID +
                             " FROM " + JournalTable.NAME +
-                            " WHERE _id = ? ";
+                            " WHERE " + Column.CALLER + " = ? " +
+                            " AND IFNULL(" + Column.NUMBER + ", '') = ? " +
+                            " AND " + Column.TIME + " >= ? " +
+                            " AND " + Column.TIME + " < ? ";
+
+            private static final String ORDER_BY_TIME_DESC =
+                    " ORDER BY " + Column.TIME + " DESC LIMIT 1";
+
+            static final String SELECT_LAST_REPEATED_CALL =
+                    SELECT_LAST_REPEATED +
+                            " AND " + Column.TEXT + " IS NULL " +
+                            ORDER_BY_TIME_DESC;
+
+            // the long texts are compared by the preview and the body
+            static final String SELECT_LAST_REPEATED_SMS =
+                    SELECT_LAST_REPEATED +
+                            " AND " + Column.TEXT + " = ? " +
+                            " AND IFNULL(" + Column.BODY_ID + ", 0) = ? " +
+                            ORDER_BY_TIME_DESC;
+
+            // folds one more event into the record
+            static final String FOLD_REPEATED =
+                    "UPDATE " + JournalTable.NAME +
+                            " SET " + Column.COUNT + " = " + Column.COUNT + " + 1, " +
+                            Column.FIRST_TIME + " = IFNULL(" + Column.FIRST_TIME + ", " + Column.TIME + "), " +
+                            Column.TIME + " = MAX(" + Column.TIME + ", ?) " +
+                            " WHERE " + Column.ID + " = ? ";
 
-            static final String SELECT_FIRST_PART_BY_FILTER =
-                    "SELECT * " +
+            // the key of the record at the passed position from the newest one
+            static final String SELECT_KEY_AT_OFFSET =
+                    "SELECT " +
+                            Column.TIME + ", " +
+                            Column.ID +
                             " FROM " + JournalTable.NAME +
-                            " WHERE " + Column.CALLER + " LIKE ? " +
-                            " OR " + Column.TEXT + " LIKE ? " +
-                            " ORDER BY " + Column.TIME +
-                            " DESC";
+                            ORDER_BY_KEY +
+                            " LIMIT 1 OFFSET ? ";
+
+            static final String BEFORE_TIME_CLAUSE =
+                    Column.TIME + " < ? ";
+
+            static final String NOT_AFTER_KEY_CLAUSE =
+                    "(" + Column.TIME + " < ? " +
+                            " OR (" + Column.TIME + " = ? " +
+                            " AND " + Column.ID + " <= ?)) ";
+
+            // Returns the statement selecting ids of the oldest records filtered by the clause
+            static String getSelectOldestIds(String filterClause, int limit) {
+                return "SELECT " +
+                        Column.ID +
+                        " FROM " + JournalTable.NAME +
+                        " WHERE " + filterClause +
+                        " ORDER BY " + Column.TIME + " ASC, " +
+                        Column.ID + " ASC" +
+                        " LIMIT " + limit;
+            }
+
+            // Returns the statement selecting the counts of SMS (with text) and calls
+            // (without text) per hour and caller of the records filtered by the clause
+            // (all the folded events of the record are in the hour of its time)
+            static String getSelectCounts(String filterClause) {
+                return "SELECT " +
+                        Column.TIME + " / " + JournalAggregateTable.HOUR_MILLIS + " AS " +
+                        JournalAggregateTable.Column.HOUR + ", " +
+                        Column.CALLER + ", " +
+                        "SUM(" + Column.COUNT + " * (" + Column.TEXT + " IS NOT NULL)) AS " +
+                        JournalAggregateTable.Column.SMS_COUNT + ", " +
+                        "SUM(" + Column.COUNT + " * (" + Column.TEXT + " IS NULL)) AS " +
+                        JournalAggregateTable.Column.CALL_COUNT +
+                        " FROM " + JournalTable.NAME +
+                        " WHERE " + filterClause +
+                        " GROUP BY " + JournalAggregateTable.Column.HOUR + ", " + Column.CALLER;
+            }
+        }
+
+        /**
+         * Filter of the records by the search query. The words of the query are searched
+         * as prefixes of the words of caller, number and text in the full-text index.
+         * If the query looks like a part of a phone number it is also searched as a
+         * substring of caller and number. If the query doesn't contain any words it is
+         * searched as a substring.
+         */
+        static class Filter {
+            final String clause;
+            final String[] args;
+
+            private Filter(String clause, String... args) {
+                this.clause = clause;
+                this.args = args;
+            }
+
+            @Nullable
+            static Filter valueOf(@Nullable String query) {
+                if (query == null) {
+                    return null;
+                }
+                String match = getMatchQuery(query);
+                if (match == null) {
+                    String like = "%" + query + "%";
+                    return new Filter(Statement.LIKE_CLAUSE, like, like);
+                }
+                if (isNumberPart(query)) {
+                    String like = "%" + PhoneNumbers.normalize(query) + "%";
+                    return new Filter(Statement.MATCH_OR_NUMBER_LIKE_CLAUSE, match, like, like);
+                }
+                return new Filter(Statement.MATCH_CLAUSE, match);
+            }
+
+            // Is the query a part of a phone number (digits with the optional
+            // leading plus and separators)
+            static boolean isNumberPart(String query) {
+                query = query.trim();
+                boolean digits = false;
+                for (int i = 0; i < query.length(); i++) {
+                    char c = query.charAt(i);
+                    if (c >= '0' && c <= '9') {
+                        digits = true;
+                    } else if (!(c == '+' && i == 0) &&
+                            c != '-' && c != '(' && c != ')' && c != ' ') {
+                        return false;
+                    }
+                }
+                return digits;
+            }
+
+            // Returns FTS query of the words prefixes (like "word1* word2*")
+            // or null if there are no words
+            @Nullable
+            static String getMatchQuery(String query) {
+                StringBuilder sb = new StringBuilder();
+                int start = -1;
+                for (int i = 0; i <= query.length(); i++) {
+                    if (i < query.length() && isTokenChar(query.charAt(i))) {
+                        if (start < 0) {
+                            start = i;
+                        }
+                    } else if (start >= 0) {
+                        if (sb.length() > 0) {
+                            sb.append(' ');
+                        }
+                        sb.append(query, start, i).append('*');
+                        start = -1;
+                    }
+                }
+                return (sb.length() > 0 ? sb.toString() : null);
+            }
+
+            // Is the char a part of a word (as "simple" tokenizer of FTS considers)
+            private static boolean isTokenChar(char c) {
+                return (c >= 128 ||
+                        (c >= '0' && c <= '9') ||
+                        (c >= 'a' && c <= 'z') ||
+                        (c >= 'A' && c <= 'Z'));
+            }
         }
     }
 
@@ -255,14 +885,29 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
         public final String caller;
         public final String number;
         public final String text;
+        // if true the text is a preview, the full one is returned by getJournalRecordText
+        public final boolean textTruncated;
+        // count of the folded repeated events, the time of the first one
+        // (the time of the last one is in "time")
+        public final int count;
+        public final long firstTime;
 
         JournalRecord(long id, long time, @NonNull String caller,
                       String number, String text) {
+            this(id, time, caller, number, text, false, 1, time);
+        }
+
+        JournalRecord(long id, long time, @NonNull String caller,
+                      String number, String text, boolean textTruncated,
+                      int count, long firstTime) {
             this.id = id;
             this.time = time;
             this.caller = caller;
             this.number = number;
             this.text = text;
+            this.textTruncated = textTruncated;
+            this.count = count;
+            this.firstTime = firstTime;
         }
     }
 
@@ -270,19 +915,36 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
     public class JournalRecordCursorWrapper extends CursorWrapper {
         private final int ID;
         private final int TIME;
+        private final int CALLER;
+        private final int NUMBER;
+        private final int TEXT;
+        private final int TEXT_TRUNCATED;
+        private final int COUNT;
+        private final int FIRST_TIME;
 
         JournalRecordCursorWrapper(Cursor cursor) {
             super(cursor);
             cursor.moveToFirst();
             ID = cursor.getColumnIndex(JournalTable.Column.ID);
             TIME = cursor.getColumnIndex(JournalTable.Column.TIME);
+            CALLER = cursor.getColumnIndex(JournalTable.Column.CALLER);
+            NUMBER = cursor.getColumnIndex(JournalTable.Column.NUMBER);
+            TEXT = cursor.getColumnIndex(JournalTable.Column.TEXT);
+            TEXT_TRUNCATED = cursor.getColumnIndex(JournalTable.Column.TEXT_TRUNCATED);
+            COUNT = cursor.getColumnIndex(JournalTable.Column.COUNT);
+            FIRST_TIME = cursor.getColumnIndex(JournalTable.Column.FIRST_TIME);
         }
 
         public JournalRecord getJournalRecord() {
             long id = getLong(ID);
             long time = getLong(TIME);
-            String[] parts = getJournalRecordPartsById(id);
-            return new JournalRecord(id, time, parts[0], parts[1], parts[2]);
+            String caller = getString(CALLER);
+            String number = getString(NUMBER);
+            String text = getString(TEXT);
+            boolean textTruncated = (getInt(TEXT_TRUNCATED) != 0);
+            int count = getInt(COUNT);
+            long firstTime = (isNull(FIRST_TIME) ? time : getLong(FIRST_TIME));
+            return new JournalRecord(id, time, caller, number, text, textTruncated, count, firstTime);
         }
 
         public long getTime(int position) {
@@ -298,48 +960,37 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
         }
     }
 
-    // Selects journal record's parts by id
-    private String[] getJournalRecordPartsById(long id) {
+    // Selects the full text of journal record by id (the list contains the preview only)
+    @Nullable
+    public String getJournalRecordText(long id) {
         SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.rawQuery(JournalTable.Statement.SELECT_LAST_PART_BY_ID,
+        Cursor cursor = db.rawQuery(JournalTable.Statement.SELECT_TEXT_BY_ID,
                 new String[]{String.valueOf(id)});
 
-        String[] parts;
+        String text = null;
         if (validate(cursor)) {
             cursor.moveToFirst();
-            final int CALLER = cursor.getColumnIndex(JournalTable.Column.CALLER);
-            final int NUMBER = cursor.getColumnIndex(JournalTable.Column.NUMBER);
-            final int TEXT = cursor.getColumnIndex(JournalTable.Column.TEXT);
-            parts = new String[]{
-                    cursor.getString(CALLER),
-                    cursor.getString(NUMBER),
-                    cursor.getString(TEXT)};
+            // the long text is decompressed from the body
+            text = (cursor.isNull(1) ? cursor.getString(0) : JournalBody.getText(cursor.getBlob(1)));
             cursor.close();
-        } else {
-            parts = new String[]{"?", "?", "?"};
         }
 
-        return parts;
+        return text;
     }
 
-    // Selects all journal records
+    // Returns the full text of the journal record
     @Nullable
-    private JournalRecordCursorWrapper getJournalRecords() {
-        SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.rawQuery(JournalTable.Statement.SELECT_FIRST_PART, null);
-
-        return (validate(cursor) ? new JournalRecordCursorWrapper(cursor) : null);
+    public String getJournalRecordText(@NonNull JournalRecord record) {
+        String text = (record.textTruncated ? getJournalRecordText(record.id) : null);
+        return (text != null ? text : record.text);
     }
 
-    // Selects journal records filtered with passed filter
+    // Selects journal records filtered with passed filter (if it isn't null).
+    // The records are loaded by pages on demand.
     @Nullable
     public JournalRecordCursorWrapper getJournalRecords(@Nullable String filter) {
-        if (filter == null) {
-            return getJournalRecords();
-        }
         SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.rawQuery(JournalTable.Statement.SELECT_FIRST_PART_BY_FILTER,
-                new String[]{"%" + filter + "%", "%" + filter + "%"});
+        Cursor cursor = new JournalPagedCursor(db, JournalTable.Filter.valueOf(filter));
 
         return (validate(cursor) ? new JournalRecordCursorWrapper(cursor) : null);
     }
@@ -348,18 +999,56 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
     public int deleteJournalRecords(IdentifiersContainer contactIds, @Nullable String filter) {
         if (contactIds.isEmpty()) return 0;
 
-        boolean all = contactIds.isAll();
-        List<String> ids = contactIds.getIdentifiers(new LinkedList<String>());
+        long[] ranges = contactIds.getRanges();
 
-        // build 'WHERE' clause
-        String clause = Common.concatClauses(new String[]{
-                Common.getLikeClause(JournalTable.Column.CALLER, filter),
-                Common.getInClause(JournalTable.Column.ID, all, ids)
-        });
+        // the filter is the same as the list's one
+        JournalTable.Filter journalFilter = JournalTable.Filter.valueOf(filter);
 
         // delete records
         SQLiteDatabase db = getWritableDatabase();
-        return db.delete(JournalTable.NAME, clause, null);
+        return deleteByRanges(db, JournalTable.NAME, JournalTable.Column.ID,
+                (journalFilter != null ? journalFilter.clause : null),
+                (journalFilter != null ? journalFilter.args : null), ranges);
+    }
+
+    // Deletes the rows fit to the clause and to the ranges of identifiers.
+    // The rows are deleted by chunks of ranges in one transaction, so the
+    // statement stays short and compiled once for all full chunks.
+    private int deleteByRanges(SQLiteDatabase db, String table, String idColumn,
+                               @Nullable String clause, @Nullable String[] clauseArgs,
+                               long[] ranges) {
+        int rangesCount = ranges.length / 2;
+        if (rangesCount == 0) {
+            return 0;
+        }
+        int argsCount = (clauseArgs != null ? clauseArgs.length : 0);
+        int chunkSize = Math.min(rangesCount, DELETE_RANGES_CHUNK_SIZE);
+        String where = Common.concatClauses(new String[]{
+                clause,
+                Common.getRangesClause(idColumn, chunkSize)
+        });
+        String[] args = new String[argsCount + chunkSize * 2];
+        if (argsCount > 0) {
+            System.arraycopy(clauseArgs, 0, args, 0, argsCount);
+        }
+
+        int count = 0;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < rangesCount; i += chunkSize) {
+                for (int j = 0; j < chunkSize; j++) {
+                    // the last chunk is completed by the repeated last range
+                    int range = Math.min(i + j, rangesCount - 1);
+                    args[argsCount + j * 2] = String.valueOf(ranges[range * 2]);
+                    args[argsCount + j * 2 + 1] = String.valueOf(ranges[range * 2 + 1]);
+                }
+                count += db.delete(table, where, args);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return count;
     }
 
     // Deletes record by specified id
@@ -371,22 +1060,757 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
     // Writes journal record
     public long addJournalRecord(long time, @NonNull String caller,
                                  String number, String text) {
+        SQLiteDatabase db = getWritableDatabase();
+        return insertJournalRecord(db, time, caller, number, text);
+    }
+
+    private long insertJournalRecord(SQLiteDatabase db, long time, @NonNull String caller,
+                                     String number, String text) {
         if (number != null && number.equals(caller)) {
             number = null;
         }
-        SQLiteDatabase db = getWritableDatabase();
         ContentValues values = new ContentValues();
+        String fullText = null;
+        if (text != null && text.length() > JournalTable.TEXT_PREVIEW_LENGTH) {
+            // the long text is kept in the compressed body
+            long bodyId = addJournalBody(db, text);
+            if (bodyId < 0) {
+                return -1;
+            }
+            values.put(JournalTable.Column.BODY_ID, bodyId);
+            fullText = text;
+            text = JournalBody.getPreview(text, JournalTable.TEXT_PREVIEW_LENGTH);
+        }
         values.put(JournalTable.Column.TIME, time);
         values.put(JournalTable.Column.CALLER, caller);
         values.put(JournalTable.Column.NUMBER, number);
         values.put(JournalTable.Column.TEXT, text);
-        return db.insert(JournalTable.NAME, null, values);
+        long id = db.insert(JournalTable.NAME, null, values);
+        if (id >= 0 && fullText != null) {
+            // the whole text is searched
+            db.execSQL(JournalTable.Statement.UPDATE_FTS_TEXT, new Object[]{fullText, id});
+        }
+        return id;
+    }
+
+    // Writes journal records in one transaction, returns false on error.
+    // If foldWindow is greater than 0 - the record repeating the last one from the
+    // same caller not earlier than foldWindow milliseconds ago is folded into it.
+    // The passed marker of the committed records is written in the same transaction
+    // (see JournalWriter).
+    boolean addJournalRecords(@NonNull List<JournalRecord> records,
+                              long foldWindow, long commitMarker) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (JournalRecord record : records) {
+                if (foldWindow > 0 && foldJournalRecord(db, record, foldWindow)) {
+                    continue;
+                }
+                if (insertJournalRecord(db, record.time, record.caller,
+                        record.number, record.text) < 0) {
+                    return false;
+                }
+            }
+            db.execSQL(JournalCommitTable.Statement.REPLACE_MARKER, new Object[]{commitMarker});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return true;
+    }
+
+    // Returns the marker of the last committed journal records or 0 if there isn't any
+    long getJournalCommitMarker() {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery(JournalCommitTable.Statement.SELECT_MARKER, null);
+
+        long marker = 0;
+        if (validate(cursor)) {
+            cursor.moveToFirst();
+            marker = cursor.getLong(0);
+            cursor.close();
+        }
+
+        return marker;
+    }
+
+    // Folds the record into the last repeated one if it exists
+    private boolean foldJournalRecord(SQLiteDatabase db, JournalRecord record, long foldWindow) {
+        String number = record.number;
+        if (number == null || number.equals(record.caller)) {
+            number = "";
+        }
+        long[] bounds = JournalTable.getFoldTimeBounds(record.time, foldWindow);
+        String minTime = String.valueOf(bounds[0]);
+        String maxTime = String.valueOf(bounds[1]);
+        Cursor cursor;
+        if (record.text == null) {
+            cursor = db.rawQuery(JournalTable.Statement.SELECT_LAST_REPEATED_CALL,
+                    new String[]{record.caller, number, minTime, maxTime});
+        } else {
+            String text = record.text;
+            long bodyId = 0;
+            if (text.length() > JournalTable.TEXT_PREVIEW_LENGTH) {
+                // there is no repeated record if there is no body of the text yet
+                bodyId = getJournalBodyId(db, JournalBody.getHash(text));
+                if (bodyId < 0) {
+                    return false;
+                }
+                text = JournalBody.getPreview(text, JournalTable.TEXT_PREVIEW_LENGTH);
+            }
+            cursor = db.rawQuery(JournalTable.Statement.SELECT_LAST_REPEATED_SMS,
+                    new String[]{record.caller, number, minTime, maxTime, text,
+                            String.valueOf(bodyId)});
+        }
+        if (!validate(cursor)) {
+            return false;
+        }
+        cursor.moveToFirst();
+        long id = cursor.getLong(0);
+        cursor.close();
+        db.execSQL(JournalTable.Statement.FOLD_REPEATED, new Object[]{record.time, id});
+        return true;
+    }
+
+    // Returns id of the body of the text (adds it if it doesn't exist) or -1 on error.
+    // The references to the body are counted by the triggers.
+    private long addJournalBody(SQLiteDatabase db, String text) {
+        JournalBody body = JournalBody.valueOf(text);
+        long id = getJournalBodyId(db, body.hash);
+        if (id < 0) {
+            ContentValues values = new ContentValues();
+            values.put(JournalBodyTable.Column.HASH, body.hash);
+            values.put(JournalBodyTable.Column.DATA, body.data);
+            id = db.insert(JournalBodyTable.NAME, null, values);
+        }
+        return id;
+    }
+
+    // Returns id of the body with the passed hash or -1 if it doesn't exist
+    private long getJournalBodyId(SQLiteDatabase db, String hash) {
+        long id = -1;
+        Cursor cursor = db.rawQuery(JournalBodyTable.Statement.SELECT_ID_BY_HASH,
+                new String[]{hash});
+        if (validate(cursor)) {
+            cursor.moveToFirst();
+            id = cursor.getLong(0);
+            cursor.close();
+        }
+        return id;
+    }
+
+    /**
+     * Moves the long texts of the journal records written before the texts compression
+     * to the compressed bodies and indexes their full texts, not more than limit records
+     * at once.
+     * Returns the count of the processed records.
+     */
+    int compressJournalTexts(int limit) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            List<String> ids = new LinkedList<>();
+            Cursor cursor = db.rawQuery(JournalBodyTable.Statement.SELECT_PENDING + limit, null);
+            if (validate(cursor)) {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getString(0));
+                }
+                cursor.close();
+            }
+            if (ids.isEmpty()) {
+                return 0;
+            }
+            for (String id : ids) {
+                cursor = db.rawQuery(JournalTable.Statement.SELECT_TEXT_BY_ID, new String[]{id});
+                if (validate(cursor)) {
+                    cursor.moveToFirst();
+                    String text = cursor.getString(0);
+                    boolean compressed = !cursor.isNull(1);
+                    cursor.close();
+                    if (!compressed && text != null &&
+                            text.length() > JournalTable.TEXT_PREVIEW_LENGTH) {
+                        long bodyId = addJournalBody(db, text);
+                        if (bodyId < 0) {
+                            return 0;
+                        }
+                        db.execSQL(JournalTable.Statement.UPDATE_TEXT_BY_ID, new Object[]{
+                                JournalBody.getPreview(text, JournalTable.TEXT_PREVIEW_LENGTH),
+                                bodyId, id});
+                        db.execSQL(JournalTable.Statement.UPDATE_FTS_TEXT, new Object[]{text, id});
+                    }
+                }
+            }
+            db.delete(JournalBodyTable.PENDING_NAME,
+                    Common.getInClause(JournalBodyTable.Column.ID, false, ids), null);
+            db.setTransactionSuccessful();
+            return ids.size();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Removes the oldest journal records which are older than minTime (if it isn't 0)
+     * or are beyond the newest maxRows ones (if it isn't 0), but not more than limit
+     * records at once. If keepAggregates is true the counts of the removed records are
+     * added to the aggregates. Returns the count of the removed records.
+     */
+    int removeOldJournalRecords(long minTime, int maxRows, boolean keepAggregates, int limit) {
+        List<String> clauses = new LinkedList<>();
+        List<String> args = new LinkedList<>();
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            if (minTime > 0) {
+                clauses.add(JournalTable.Statement.BEFORE_TIME_CLAUSE);
+                args.add(String.valueOf(minTime));
+            }
+            if (maxRows > 0) {
+                // the records from the first one beyond the limit are removed
+                Cursor cursor = db.rawQuery(JournalTable.Statement.SELECT_KEY_AT_OFFSET,
+                        new String[]{String.valueOf(maxRows)});
+                if (validate(cursor)) {
+                    cursor.moveToFirst();
+                    String time = cursor.getString(0);
+                    clauses.add(JournalTable.Statement.NOT_AFTER_KEY_CLAUSE);
+                    args.add(time);
+                    args.add(time);
+                    args.add(cursor.getString(1));
+                    cursor.close();
+                }
+            }
+            if (clauses.isEmpty()) {
+                return 0;
+            }
+
+            // select ids of the oldest records
+            String clause = "(" + Common.joinStrings(clauses, " OR ") + ")";
+            List<String> ids = new LinkedList<>();
+            Cursor cursor = db.rawQuery(JournalTable.Statement.getSelectOldestIds(clause, limit),
+                    args.toArray(new String[args.size()]));
+            if (validate(cursor)) {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getString(0));
+                }
+                cursor.close();
+            }
+            if (ids.isEmpty()) {
+                return 0;
+            }
+
+            String idsClause = Common.getInClause(JournalTable.Column.ID, false, ids);
+            if (keepAggregates) {
+                addJournalAggregates(db, idsClause);
+                // the counts of the moved records aren't subtracted from the statistics
+                db.execSQL(JournalAggregateTable.Statement.getFillMoving(idsClause));
+            }
+            int count = db.delete(JournalTable.NAME, idsClause, null);
+            db.delete(JournalAggregateTable.MOVING_NAME, null, null);
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Adds the counts of the journal records filtered by the clause to the aggregates
+    private void addJournalAggregates(SQLiteDatabase db, String filterClause) {
+        Cursor cursor = db.rawQuery(JournalTable.Statement.getSelectCounts(filterClause), null);
+        if (!validate(cursor)) {
+            return;
+        }
+        while (cursor.moveToNext()) {
+            String hour = cursor.getString(0);
+            String caller = cursor.getString(1);
+            db.execSQL(JournalAggregateTable.Statement.INSERT_EMPTY,
+                    new String[]{hour, caller});
+            db.execSQL(JournalAggregateTable.Statement.ADD_COUNTS,
+                    new String[]{cursor.getString(2), cursor.getString(3), hour, caller});
+        }
+        cursor.close();
+    }
+
+//----------------------------------------------------------------
+
+    // Journal body table scheme: the compressed long texts of the journal
+    // records addressed by the hash of the content, so the repeated texts
+    // are stored once
+    static class JournalBodyTable {
+        static final String NAME = "journal_body";
+        // ids of the journal records written before the texts compression
+        static final String PENDING_NAME = "journal_uncompressed";
+
+        static class Column {
+            static final String ID = "_id";
+            // SHA-1 of the text
+            static final String HASH = "hash";
+            // deflated UTF-8 of the text
+            static final String DATA = "data";
+            // count of the journal records referencing the body
+            static final String REFS = "refs";
+        }
+
+        static class Statement {
+            static final String CREATE =
+                    "CREATE TABLE IF NOT EXISTS " + JournalBodyTable.NAME +
+                            "(" +
+                            Column.ID + " INTEGER PRIMARY KEY NOT NULL, " +
+                            Column.HASH + " TEXT NOT NULL UNIQUE, " +
+                            Column.DATA + " BLOB NOT NULL, " +
+                            Column.REFS + " INTEGER NOT NULL DEFAULT 0" +
+                            ")";
+
+            static final String CREATE_PENDING =
+                    "CREATE TABLE IF NOT EXISTS " + JournalBodyTable.PENDING_NAME +
+                            "(" + Column.ID + " INTEGER PRIMARY KEY NOT NULL)";
+
+            static final String FILL_PENDING =
+                    "INSERT INTO " + JournalBodyTable.PENDING_NAME +
+                            " SELECT " + JournalTable.Column.ID +
+                            " FROM " + JournalTable.NAME +
+                            " WHERE length(" + JournalTable.Column.TEXT + ") > " +
+                            JournalTable.TEXT_PREVIEW_LENGTH;
+
+            static final String SELECT_PENDING =
+                    "SELECT " + Column.ID +
+                            " FROM " + JournalBodyTable.PENDING_NAME +
+                            " LIMIT ";
+
+            static final String SELECT_ID_BY_HASH =
+                    "SELECT " + Column.ID +
+                            " FROM " + JournalBodyTable.NAME +
+                            " WHERE " + Column.HASH + " = ? ";
+
+            private static String getAddRef(String bodyId) {
+                return "UPDATE " + JournalBodyTable.NAME +
+                        " SET " + Column.REFS + " = " + Column.REFS + " + 1" +
+                        " WHERE " + Column.ID + " = " + bodyId + "; ";
+            }
+
+            // the body without references is deleted
+            private static String getRemoveRef(String bodyId) {
+                return "UPDATE " + JournalBodyTable.NAME +
+                        " SET " + Column.REFS + " = " + Column.REFS + " - 1" +
+                        " WHERE " + Column.ID + " = " + bodyId + "; " +
+                        "DELETE FROM " + JournalBodyTable.NAME +
+                        " WHERE " + Column.ID + " = " + bodyId +
+                        " AND " + Column.REFS + " <= 0; ";
+            }
+
+            static final String CREATE_INSERT_TRIGGER =
+                    "CREATE TRIGGER IF NOT EXISTS " + JournalBodyTable.NAME + "_insert" +
+                            " AFTER INSERT ON " + JournalTable.NAME +
+                            " WHEN new." + JournalTable.Column.BODY_ID + " IS NOT NULL" +
+                            " BEGIN " + getAddRef("new." + JournalTable.Column.BODY_ID) + "END";
+
+            static final String CREATE_DELETE_TRIGGER =
+                    "CREATE TRIGGER IF NOT EXISTS " + JournalBodyTable.NAME + "_delete" +
+                            " AFTER DELETE ON " + JournalTable.NAME +
+                            " WHEN old." + JournalTable.Column.BODY_ID + " IS NOT NULL" +
+                            " BEGIN " + getRemoveRef("old." + JournalTable.Column.BODY_ID) + "END";
+
+            static final String CREATE_UPDATE_TRIGGER =
+                    "CREATE TRIGGER IF NOT EXISTS " + JournalBodyTable.NAME + "_update" +
+                            " AFTER UPDATE OF " + JournalTable.Column.BODY_ID +
+                            " ON " + JournalTable.NAME +
+                            " BEGIN " +
+                            getAddRef("new." + JournalTable.Column.BODY_ID) +
+                            getRemoveRef("old." + JournalTable.Column.BODY_ID) +
+                            "END";
+        }
+    }
+
+//----------------------------------------------------------------
+
+    // Journal commit table scheme: the marker of the last journal records
+    // committed by JournalWriter (the only row)
+    static class JournalCommitTable {
+        static final String NAME = "journal_commit";
+
+        static class Column {
+            static final String ID = "_id";
+            // count and checksum of the committed records
+            static final String MARKER = "marker";
+        }
+
+        static class Statement {
+            static final String CREATE =
+                    "CREATE TABLE IF NOT EXISTS " + JournalCommitTable.NAME +
+                            "(" +
+                            Column.ID + " INTEGER PRIMARY KEY NOT NULL, " +
+                            Column.MARKER + " INTEGER NOT NULL" +
+                            ")";
+
+            static final String SELECT_MARKER =
+                    "SELECT " + Column.MARKER +
+                            " FROM " + JournalCommitTable.NAME;
+
+            static final String REPLACE_MARKER =
+                    "INSERT OR REPLACE INTO " + JournalCommitTable.NAME +
+                            "(" + Column.ID + ", " + Column.MARKER + ")" +
+                            " VALUES (1, ?)";
+        }
+    }
+
+//----------------------------------------------------------------
+
+    // Journal aggregate table scheme: the counts of SMS and calls per hour
+    // and caller of the journal records removed by the retention policy
+    static class JournalAggregateTable {
+        static final String NAME = "journal_aggregate";
+        // ids of the journal records being moved to the aggregates
+        static final String MOVING_NAME = "journal_aggregating";
+        static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+        static class Column {
+            static final String ID = "_id";
+            // hours since the epoch (UTC)
+            static final String HOUR = "hour";
+            static final String CALLER = "caller";
+            static final String SMS_COUNT = "sms_count";
+            static final String CALL_COUNT = "call_count";
+        }
+
+        static class Statement {
+            static final String CREATE =
+                    "CREATE TABLE IF NOT EXISTS " + JournalAggregateTable.NAME +
+                            "(" +
+                            Column.HOUR + " INTEGER NOT NULL, " +
+                            Column.CALLER + " TEXT NOT NULL, " +
+                            Column.SMS_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                            Column.CALL_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                            "PRIMARY KEY(" + Column.HOUR + ", " + Column.CALLER + ")" +
+                            ")";
+
+            static final String INSERT_EMPTY =
+                    "INSERT OR IGNORE INTO " + JournalAggregateTable.NAME +
+                            "(" + Column.HOUR + ", " + Column.CALLER + ")" +
+                            " VALUES (?, ?) ";
+
+            static final String ADD_COUNTS =
+                    "UPDATE " + JournalAggregateTable.NAME +
+                            " SET " + Column.SMS_COUNT + " = " + Column.SMS_COUNT + " + ?, " +
+                            Column.CALL_COUNT + " = " + Column.CALL_COUNT + " + ? " +
+                            " WHERE " + Column.HOUR + " = ? " +
+                            " AND " + Column.CALLER + " = ? ";
+
+            static final String CREATE_MOVING =
+                    "CREATE TABLE IF NOT EXISTS " + JournalAggregateTable.MOVING_NAME +
+                            "(" + Column.ID + " INTEGER PRIMARY KEY NOT NULL)";
+
+            static String getFillMoving(String filterClause) {
+                return "INSERT INTO " + JournalAggregateTable.MOVING_NAME +
+                        " SELECT " + JournalTable.Column.ID +
+                        " FROM " + JournalTable.NAME +
+                        " WHERE " + filterClause;
+            }
+        }
+    }
+
+//----------------------------------------------------------------
+
+    // Journal statistics table scheme: the counts of SMS and calls per caller,
+    // per hour of day and per day of the journal records and their aggregates.
+    // Is updated by the triggers on every change of the journal, so the
+    // statistics are selected without the journal scanning.
+    static class JournalStatsTable {
+        static final String NAME = "journal_stats";
+
+        static class Column {
+            static final String KIND = "kind";
+            static final String KEY = "key";
+            static final String SMS_COUNT = "sms_count";
+            static final String CALL_COUNT = "call_count";
+        }
+
+        static class Statement {
+            static final String CREATE =
+                    "CREATE TABLE IF NOT EXISTS " + JournalStatsTable.NAME +
+                            "(" +
+                            Column.KIND + " INTEGER NOT NULL, " +
+                            Column.KEY + " TEXT NOT NULL, " +
+                            Column.SMS_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                            Column.CALL_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                            "PRIMARY KEY(" + Column.KIND + ", " + Column.KEY + ")" +
+                            ")";
+
+            // the keys of the statistics by the time in milliseconds (in the local time zone)
+            private static String getHourKey(String time) {
+                return "strftime('%H', " + time + " / 1000, 'unixepoch', 'localtime')";
+            }
+
+            private static String getDayKey(String time) {
+                return "strftime('%Y-%m-%d', " + time + " / 1000, 'unixepoch', 'localtime')";
+            }
+
+            // counts of the journal records and of their aggregates
+            private static final String COUNTS =
+                    "(SELECT " +
+                            JournalTable.Column.TIME + " AS time, " +
+                            JournalTable.Column.CALLER + " AS caller, " +
+                            JournalTable.Column.TEXT + " IS NOT NULL AS sms, " +
+                            JournalTable.Column.TEXT + " IS NULL AS calls" +
+                            " FROM " + JournalTable.NAME +
+                            " UNION ALL SELECT " +
+                            JournalAggregateTable.Column.HOUR + " * " +
+                            JournalAggregateTable.HOUR_MILLIS + ", " +
+                            JournalAggregateTable.Column.CALLER + ", " +
+                            JournalAggregateTable.Column.SMS_COUNT + ", " +
+                            JournalAggregateTable.Column.CALL_COUNT +
+                            " FROM " + JournalAggregateTable.NAME + ")";
+
+            private static String getFill(int kind, String key) {
+                return "INSERT INTO " + JournalStatsTable.NAME +
+                        "(" + Column.KIND + ", " + Column.KEY + ", " +
+                        Column.SMS_COUNT + ", " + Column.CALL_COUNT + ")" +
+                        " SELECT " + kind + ", " + key + " AS k, SUM(sms), SUM(calls)" +
+                        " FROM " + COUNTS +
+                        " GROUP BY k";
+            }
+
+            static final String FILL_BY_CALLER =
+                    getFill(JournalStats.BY_CALLER, "caller");
+
+            static final String FILL_BY_HOUR =
+                    getFill(JournalStats.BY_HOUR, getHourKey("time"));
+
+            static final String FILL_BY_DAY =
+                    getFill(JournalStats.BY_DAY, getDayKey("time"));
+
+            // Returns the statements of the trigger adding the counts of all kinds
+            private static String getAdd(String time, String caller, String sms, String calls) {
+                return getAdd(JournalStats.BY_CALLER, caller, sms, calls) +
+                        getAdd(JournalStats.BY_HOUR, getHourKey(time), sms, calls) +
+                        getAdd(JournalStats.BY_DAY, getDayKey(time), sms, calls);
+            }
+
+            private static String getAdd(int kind, String key, String sms, String calls) {
+                return "INSERT OR IGNORE INTO " + JournalStatsTable.NAME +
+                        "(" + Column.KIND + ", " + Column.KEY + ")" +
+                        " VALUES (" + kind + ", " + key + "); " +
+                        "UPDATE " + JournalStatsTable.NAME +
+                        " SET " + Column.SMS_COUNT + " = " + Column.SMS_COUNT + " + (" + sms + "), " +
+                        Column.CALL_COUNT + " = " + Column.CALL_COUNT + " + (" + calls + ")" +
+                        " WHERE " + Column.KIND + " = " + kind +
+                        " AND " + Column.KEY + " = " + key + "; ";
+            }
+
+            // Returns the statements of the trigger subtracting the counts of all kinds
+            private static String getSubtract(String time, String caller, String sms, String calls) {
+                return getSubtract(JournalStats.BY_CALLER, caller, sms, calls) +
+                        getSubtract(JournalStats.BY_HOUR, getHourKey(time), sms, calls) +
+                        getSubtract(JournalStats.BY_DAY, getDayKey(time), sms, calls);
+            }
+
+            private static String getSubtract(int kind, String key, String sms, String calls) {
+                String where = " WHERE " + Column.KIND + " = " + kind +
+                        " AND " + Column.KEY + " = " + key;
+                // the counts could be added in another time zone, so they are kept not negative
+                return "UPDATE " + JournalStatsTable.NAME +
+                        " SET " + Column.SMS_COUNT + " = MAX(" + Column.SMS_COUNT + " - (" + sms + "), 0), " +
+                        Column.CALL_COUNT + " = MAX(" + Column.CALL_COUNT + " - (" + calls + "), 0)" +
+                        where + "; " +
+                        "DELETE FROM " + JournalStatsTable.NAME + where +
+                        " AND " + Column.SMS_COUNT + " = 0" +
+                        " AND " + Column.CALL_COUNT + " = 0; ";
+            }
+
+            // the counts of the records moved to the aggregates stay in the statistics
+            // as they are (under the same local hour and day), so the move is neutral
+            private static final String WHEN_NOT_MOVED =
+                    " WHEN NOT EXISTS (SELECT 1" +
+                            " FROM " + JournalAggregateTable.MOVING_NAME +
+                            " WHERE " + JournalAggregateTable.Column.ID +
+                            " = old." + JournalTable.Column.ID + ")";
+
+            static final String CREATE_INSERT_TRIGGER =
+                    "CREATE TRIGGER IF NOT EXISTS " + JournalStatsTable.NAME + "_insert" +
+                            " AFTER INSERT ON " + JournalTable.NAME +
+                            " BEGIN " +
+                            getAdd("new." + JournalTable.Column.TIME,
+                                    "new." + JournalTable.Column.CALLER,
+                                    "new." + JournalTable.Column.TEXT + " IS NOT NULL",
+                                    "new." + JournalTable.Column.TEXT + " IS NULL") +
+                            "END";
+
+            static final String CREATE_DELETE_TRIGGER =
+                    "CREATE TRIGGER IF NOT EXISTS " + JournalStatsTable.NAME + "_delete" +
+                            " AFTER DELETE ON " + JournalTable.NAME + WHEN_NOT_MOVED +
+                            " BEGIN " +
+                            getSubtract("old." + JournalTable.Column.TIME,
+                                    "old." + JournalTable.Column.CALLER,
+                                    "old." + JournalTable.Column.TEXT + " IS NOT NULL",
+                                    "old." + JournalTable.Column.TEXT + " IS NULL") +
+                            "END";
+
+            static final String DROP_INSERT_TRIGGER =
+                    "DROP TRIGGER IF EXISTS " + JournalStatsTable.NAME + "_insert";
+
+            static final String DROP_DELETE_TRIGGER =
+                    "DROP TRIGGER IF EXISTS " + JournalStatsTable.NAME + "_delete";
+
+            // Returns the expressions of the counts of SMS and calls of the journal
+            // record with the folded repeated events
+            private static String getSmsCount(String record) {
+                return "(" + record + "." + JournalTable.Column.TEXT + " IS NOT NULL) * " +
+                        record + "." + JournalTable.Column.COUNT;
+            }
+
+            private static String getCallCount(String record) {
+                return "(" + record + "." + JournalTable.Column.TEXT + " IS NULL) * " +
+                        record + "." + JournalTable.Column.COUNT;
+            }
+
+            private static String getAdd(String record) {
+                return getAdd(record + "." + JournalTable.Column.TIME,
+                        record + "." + JournalTable.Column.CALLER,
+                        getSmsCount(record), getCallCount(record));
+            }
+
+            private static String getSubtract(String record) {
+                return getSubtract(record + "." + JournalTable.Column.TIME,
+                        record + "." + JournalTable.Column.CALLER,
+                        getSmsCount(record), getCallCount(record));
+            }
+
+            static final String CREATE_COUNTED_INSERT_TRIGGER =
+                    "CREATE TRIGGER IF NOT EXISTS " + JournalStatsTable.NAME + "_insert" +
+                            " AFTER INSERT ON " + JournalTable.NAME +
+                            " BEGIN " + getAdd("new") + "END";
+
+            static final String CREATE_COUNTED_DELETE_TRIGGER =
+                    "CREATE TRIGGER IF NOT EXISTS " + JournalStatsTable.NAME + "_delete" +
+                            " AFTER DELETE ON " + JournalTable.NAME + WHEN_NOT_MOVED +
+                            " BEGIN " + getSubtract("old") + "END";
+
+            // the folded event changes the count and the time of the record, only the
+            // event is added under its time, the earlier ones stay in their hours and days
+            static final String CREATE_COUNTED_UPDATE_TRIGGER =
+                    "CREATE TRIGGER IF NOT EXISTS " + JournalStatsTable.NAME + "_update" +
+                            " AFTER UPDATE OF " +
+                            JournalTable.Column.TIME + ", " + JournalTable.Column.COUNT +
+                            " ON " + JournalTable.NAME +
+                            " BEGIN " +
+                            getAdd("new." + JournalTable.Column.TIME,
+                                    "new." + JournalTable.Column.CALLER,
+                                    getSmsCount("new") + " - " + getSmsCount("old"),
+                                    getCallCount("new") + " - " + getCallCount("old")) +
+                            "END";
+
+            static final String SELECT_BY_KIND =
+                    "SELECT * " +
+                            " FROM " + JournalStatsTable.NAME +
+                            " WHERE " + Column.KIND + " = ? ";
+
+            static final String ORDER_BY_KEY =
+                    " ORDER BY " + Column.KEY;
+
+            static final String ORDER_BY_TOTAL =
+                    " ORDER BY " + Column.SMS_COUNT + " + " + Column.CALL_COUNT + " DESC, " +
+                            Column.KEY;
+        }
+    }
+
+    // Journal statistics item: the counts of SMS and calls by the key of the kind
+    public static class JournalStats {
+        // key is the caller
+        public static final int BY_CALLER = 0;
+        // key is the hour of day ("00" - "23")
+        public static final int BY_HOUR = 1;
+        // key is the day ("yyyy-MM-dd")
+        public static final int BY_DAY = 2;
+
+        public final int kind;
+        public final String key;
+        public final long smsCount;
+        public final long callCount;
+
+        JournalStats(int kind, String key, long smsCount, long callCount) {
+            this.kind = kind;
+            this.key = key;
+            this.smsCount = smsCount;
+            this.callCount = callCount;
+        }
+    }
+
+    /**
+     * Selects the journal statistics of the passed kind ordered by the total count
+     * descending (if byTotal is true) or by the key (ascending or descending).
+     * If limit is greater than 0 not more items are selected.
+     */
+    public List<JournalStats> getJournalStats(int kind, boolean byTotal, boolean descending, int limit) {
+        String query = JournalStatsTable.Statement.SELECT_BY_KIND +
+                (byTotal ? JournalStatsTable.Statement.ORDER_BY_TOTAL :
+                        JournalStatsTable.Statement.ORDER_BY_KEY + (descending ? " DESC" : " ASC")) +
+                (limit > 0 ? " LIMIT " + limit : "");
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery(query, new String[]{String.valueOf(kind)});
+
+        List<JournalStats> list = new LinkedList<>();
+        if (validate(cursor)) {
+            final int KEY = cursor.getColumnIndex(JournalStatsTable.Column.KEY);
+            final int SMS_COUNT = cursor.getColumnIndex(JournalStatsTable.Column.SMS_COUNT);
+            final int CALL_COUNT = cursor.getColumnIndex(JournalStatsTable.Column.CALL_COUNT);
+            while (cursor.moveToNext()) {
+                list.add(new JournalStats(kind, cursor.getString(KEY),
+                        cursor.getLong(SMS_COUNT), cursor.getLong(CALL_COUNT)));
+            }
+            cursor.close();
+        }
+
+        return list;
+    }
+
+//----------------------------------------------------------------
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // Returns true if the freed pages of the database file can be returned incrementally
+    public boolean isIncrementalVacuumEnabled() {
+        return getPragmaValue(getWritableDatabase(), "auto_vacuum") == AUTO_VACUUM_INCREMENTAL;
+    }
+
+    // Turns on the incremental vacuum mode of the database if it is off.
+    // The existing database file is rebuilt once for that and is locked for the whole
+    // rebuild, so the filled database is switched on the user's request only.
+    // Mustn't be called inside of the transaction.
+    public void enableIncrementalVacuum() {
+        SQLiteDatabase db = getWritableDatabase();
+        if (getPragmaValue(db, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        }
+    }
+
+    // Returns up to the passed count of the free pages of the database file
+    // to the file system. Returns the count of the remaining free pages.
+    public int vacuumIncrementally(int pages) {
+        SQLiteDatabase db = getWritableDatabase();
+        // every step of the statement frees one page, so all the steps are made
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + pages + ")", null);
+        if (cursor != null) {
+            cursor.getCount();
+            cursor.close();
+        }
+        return getPragmaValue(db, "freelist_count");
+    }
+
+    private int getPragmaValue(SQLiteDatabase db, String name) {
+        int value = -1;
+        Cursor cursor = db.rawQuery("PRAGMA " + name, null);
+        if (validate(cursor)) {
+            cursor.moveToFirst();
+            value = cursor.getInt(0);
+            cursor.close();
+        }
+        return value;
     }
 
 //----------------------------------------------------------------
 
     // Contact number table scheme
-    private static class ContactNumberTable {
+    static class ContactNumberTable {
         static final String NAME = "number";
 
         static class Column {
@@ -409,6 +1833,18 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
                             " ON DELETE CASCADE " +
                             ")";
 
+            // is used by the numbers of contact selection (in sorted order)
+            // and by the cascade deletion of contact
+            static final String CREATE_INDEX_BY_CONTACT_ID =
+                    "CREATE INDEX IF NOT EXISTS " + ContactNumberTable.NAME + "_contact_id" +
+                            " ON " + ContactNumberTable.NAME +
+                            "(" + Column.CONTACT_ID + ", " + Column.NUMBER + ")";
+
+            static final String CREATE_INDEX_BY_TYPE_AND_NUMBER =
+                    "CREATE INDEX IF NOT EXISTS " + ContactNumberTable.NAME + "_type_number" +
+                            " ON " + ContactNumberTable.NAME +
+                            "(" + Column.TYPE + ", " + Column.NUMBER + ")";
+
             static final String SELECT_BY_CONTACT_ID =
                     "SELECT * " +
                             " FROM " + ContactNumberTable.NAME +
@@ -422,18 +1858,41 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
                             " WHERE " + Column.TYPE + " = ? " +
                             " AND " + Column.NUMBER + " = ? ";
 
-            static final String SELECT_BY_NUMBER =
-                    "SELECT * " +
+            static final String DELETE_BY_ID =
+                    "DELETE FROM " + ContactNumberTable.NAME +
+                            " WHERE " + Column.ID + " = ? ";
+
+            // Returns the statement selecting ids of the numbers of the type
+            // with the passed count of numbers values
+            static String getSelectByTypeAndNumbers(int count) {
+                StringBuilder sb = new StringBuilder(
+                        "SELECT " + Column.ID + ", " + Column.CONTACT_ID +
+                                " FROM " + ContactNumberTable.NAME +
+                                " WHERE " + Column.TYPE + " = ? " +
+                                " AND " + Column.NUMBER + " IN (");
+                for (int i = 0; i < count; i++) {
+                    sb.append(i > 0 ? ", ?" : "?");
+                }
+                return sb.append(")").toString();
+            }
+
+            // returns -1 if the number isn't found
+            static final String SELECT_ID_BY_TYPE_AND_NUMBER =
+                    "SELECT IFNULL((" +
+                            "SELECT " + Column.ID +
                             " FROM " + ContactNumberTable.NAME +
-                            " WHERE (" +
-                            Column.TYPE + " = " + ContactNumber.TYPE_EQUALS + " AND " +
-                            " ? = " + Column.NUMBER + ") OR (" +
-                            Column.TYPE + " = " + ContactNumber.TYPE_STARTS + " AND " +
-                            " ? LIKE " + Column.NUMBER + "||'%') OR (" +
-                            Column.TYPE + " = " + ContactNumber.TYPE_ENDS + " AND " +
-                            " ? LIKE '%'||" + Column.NUMBER + ") OR (" +
-                            Column.TYPE + " = " + ContactNumber.TYPE_CONTAINS + " AND " +
-                            " ? LIKE '%'||" + Column.NUMBER + "||'%')";
+                            " WHERE " + Column.TYPE + " = ? " +
+                            " AND " + Column.NUMBER + " = ? " +
+                            " LIMIT 1), -1)";
+
+            static final String INSERT =
+                    "INSERT INTO " + ContactNumberTable.NAME +
+                            "(" + Column.NUMBER + ", " + Column.TYPE + ", " + Column.CONTACT_ID + ")" +
+                            " VALUES (?, ?, ?)";
+
+            static final String SELECT_ALL =
+                    "SELECT * " +
+                            " FROM " + ContactNumberTable.NAME;
         }
     }
 
@@ -486,14 +1945,6 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
         }
     }
 
-    // Deletes contact number by id
-    private int deleteContactNumber(long id) {
-        SQLiteDatabase db = getWritableDatabase();
-        return db.delete(ContactNumberTable.NAME,
-                ContactNumberTable.Column.ID + " = " + id,
-                null);
-    }
-
     // Selects contact numbers by contact id
     @Nullable
     private ContactNumberCursorWrapper getContactNumbersByContactId(long contactId) {
@@ -506,62 +1957,64 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
     }
 
     // Searches contact numbers by number value
-    @Nullable
-    private ContactNumberCursorWrapper getContactNumbersByNumber(String number) {
-        SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.rawQuery(
-                ContactNumberTable.Statement.SELECT_BY_NUMBER,
-                new String[]{number, number, number, number});
-
-        return (validate(cursor) ? new ContactNumberCursorWrapper(cursor) : null);
-    }
-
-    // Searches contact numbers by type and value
-    @Nullable
-    private ContactNumberCursorWrapper getContactNumbersByTypeAndNumber(int numberType, String number) {
-        SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.rawQuery(
-                ContactNumberTable.Statement.SELECT_BY_TYPE_AND_NUMBER,
-                new String[]{String.valueOf(numberType), number});
-
-        return (validate(cursor) ? new ContactNumberCursorWrapper(cursor) : null);
+    private List<ContactNumber> getContactNumbers(String number) {
+        return getContactNumberMatcher().match(number);
     }
 
-    // Searches contact numbers by number value
-    private List<ContactNumber> getContactNumbers(String number) {
+    // Selects all contact numbers
+    List<ContactNumber> getAllContactNumbers() {
         List<ContactNumber> list = new LinkedList<>();
-        ContactNumberCursorWrapper cursor = getContactNumbersByNumber(number);
-        if (cursor != null) {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery(ContactNumberTable.Statement.SELECT_ALL, null);
+        if (validate(cursor)) {
+            ContactNumberCursorWrapper wrapper = new ContactNumberCursorWrapper(cursor);
             do {
-                list.add(cursor.getNumber());
-            } while (cursor.moveToNext());
-            cursor.close();
+                list.add(wrapper.getNumber());
+            } while (wrapper.moveToNext());
+            wrapper.close();
         }
 
         return list;
     }
 
-    // Searches contact numbers by numbers types and values
-    // This method is mainly needed for retrieving actual ContactNumber.id and/or ContactNumber.contactId
-    private List<ContactNumber> getContactNumbers(List<ContactNumber> numbers) {
-        List<ContactNumber> list = new LinkedList<>();
-        for (ContactNumber number : numbers) {
-            ContactNumberCursorWrapper cursor =
-                    getContactNumbersByTypeAndNumber(number.type, number.number);
-            if (cursor != null) {
-                do {
-                    list.add(cursor.getNumber());
-                } while (cursor.moveToNext());
-                cursor.close();
+    // Returns the compiled matcher of contact numbers, builds it at the first call
+    private ContactNumberMatcher getContactNumberMatcher() {
+        ContactNumberMatcher matcher = numberMatcher;
+        if (matcher == null) {
+            synchronized (this) {
+                matcher = numberMatcher;
+                if (matcher == null) {
+                    int version = numbersVersion.get();
+                    PhoneNumbers.Country country = PhoneNumbers.Country.valueOf(
+                            getSettingsValue(Settings.COUNTRY_CODE),
+                            getSettingsValue(Settings.TRUNK_PREFIX));
+                    matcher = new ContactNumberMatcher(getAllContactNumbers(), country);
+                    // numbers could be changed while the matcher was building
+                    if (version == numbersVersion.get()) {
+                        numberMatcher = matcher;
+                        // the invalidation could happen between the check and the assignment
+                        if (version != numbersVersion.get()) {
+                            numberMatcher = null;
+                        }
+                    }
+                }
             }
         }
+        return matcher;
+    }
 
-        return list;
+    // Drops the compiled matcher of contact numbers. Must be called after every
+    // change of the contact/number tables and of the country settings is written.
+    private void invalidateContactNumberMatcher() {
+        numbersVersion.incrementAndGet();
+        numberMatcher = null;
+        BlocklistImage.invalidate(context);
     }
+
 //----------------------------------------------------------------
 
     // Table of contacts (black/white lists)
-    private static class ContactTable {
+    static class ContactTable {
         static final String NAME = "contact";
 
         static class Column {
@@ -579,6 +2032,17 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
                             Column.TYPE + " INTEGER NOT NULL DEFAULT 0 " +
                             ")";
 
+            // is used by the contacts list selection (in sorted order)
+            // and by the contact of type and name searching
+            static final String CREATE_INDEX_BY_TYPE_AND_NAME =
+                    "CREATE INDEX IF NOT EXISTS " + ContactTable.NAME + "_type_name" +
+                            " ON " + ContactTable.NAME +
+                            "(" + Column.TYPE + ", " + Column.NAME + ")";
+
+            static final String SELECT_ALL =
+                    "SELECT * " +
+                            " FROM " + ContactTable.NAME;
+
             static final String SELECT_BY_TYPE =
                     "SELECT * " +
                             " FROM " + ContactTable.NAME +
@@ -597,6 +2061,28 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
                             " WHERE " + Column.TYPE + " = ? " +
                             " AND " + Column.NAME + " = ? ";
 
+            // returns -1 if the contact isn't found
+            static final String SELECT_ID_BY_TYPE_AND_NAME =
+                    "SELECT IFNULL((" +
+                            "SELECT " + Column.ID +
+                            " FROM " + ContactTable.NAME +
+                            " WHERE " + Column.TYPE + " = ? " +
+                            " AND " + Column.NAME + " = ? " +
+                            " LIMIT 1), -1)";
+
+            static final String DELETE_BY_ID_IF_EMPTY =
+                    "DELETE FROM " + ContactTable.NAME +
+                            " WHERE " + Column.ID + " = ? " +
+                            " AND NOT EXISTS (" +
+                            "SELECT 1 FROM " + ContactNumberTable.NAME +
+                            " WHERE " + ContactNumberTable.NAME + "." + ContactNumberTable.Column.CONTACT_ID +
+                            " = " + ContactTable.NAME + "." + Column.ID + ")";
+
+            static final String INSERT =
+                    "INSERT INTO " + ContactTable.NAME +
+                            "(" + Column.NAME + ", " + Column.TYPE + ")" +
+                            " VALUES (?, ?)";
+
             static final String SELECT_BY_ID =
                     "SELECT * " +
                             " FROM " + ContactTable.NAME +
@@ -622,7 +2108,7 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
         public final int type;
         public final List<ContactNumber> numbers;
 
-        Contact(long id, @NonNull String name, int type, @NonNull List<ContactNumber> numbers) {
+        public Contact(long id, @NonNull String name, int type, @NonNull List<ContactNumber> numbers) {
             this.id = id;
             this.name = name;
             this.type = type;
@@ -674,6 +2160,22 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
         }
     }
 
+    // Selects all contacts (without numbers)
+    List<Contact> getAllContacts() {
+        List<Contact> list = new LinkedList<>();
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery(ContactTable.Statement.SELECT_ALL, null);
+        if (validate(cursor)) {
+            ContactCursorWrapper wrapper = new ContactCursorWrapper(cursor);
+            do {
+                list.add(wrapper.getContact(false));
+            } while (wrapper.moveToNext());
+            wrapper.close();
+        }
+
+        return list;
+    }
+
     // Searches all contacts by type
     @Nullable
     private ContactCursorWrapper getContacts(int contactType) {
@@ -710,17 +2212,6 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
         return (validate(cursor) ? new ContactCursorWrapper(cursor) : null);
     }
 
-    // Searches contact by type and name
-    @Nullable
-    private ContactCursorWrapper getContact(int contactType, String contactName) {
-        SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.rawQuery(
-                ContactTable.Statement.SELECT_BY_TYPE_AND_NAME,
-                new String[]{String.valueOf(contactType), contactName});
-
-        return (validate(cursor) ? new ContactCursorWrapper(cursor) : null);
-    }
-
     // Searches contact by id
     @Nullable
     public ContactCursorWrapper getContact(long contactId) {
@@ -732,86 +2223,204 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
         return (validate(cursor) ? new ContactCursorWrapper(cursor) : null);
     }
 
-    // Adds a new contact and returns contact id or -1 on error
-    private long addContact(int contactType, @NonNull String contactName) {
-        SQLiteDatabase db = getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(ContactTable.Column.NAME, contactName);
-        values.put(ContactTable.Column.TYPE, contactType);
-        return db.insert(ContactTable.NAME, null, values);
-    }
-
     // Adds a contact with numbers and returns contact id or -1 on error.
     // If adding numbers already belong to some contacts - removes them at first.
     public long addContact(int contactType, @NonNull String contactName, @NonNull List<ContactNumber> numbers) {
-        if (numbers.size() == 0) return -1;
+        List<Contact> contacts = new LinkedList<>();
+        contacts.add(new Contact(0, contactName, contactType, numbers));
+        return writeContacts(contactType, contacts);
+    }
+
+    // Adds the contacts with numbers to the list of the type in one transaction,
+    // returns false on error. If adding numbers already belong to some contacts -
+    // removes them at first (the number of several passed contacts is added to the last one).
+    public boolean addContacts(int contactType, @NonNull List<Contact> contacts) {
+        return (writeContacts(contactType, contacts) >= 0);
+    }
+
+    // Writes the contacts with numbers and returns id of the last written contact or -1 on error.
+    // The existing numbers are selected by chunks of values, then the compiled statements
+    // are used for each number, so the count of the statements doesn't depend on the
+    // count of the existing contacts.
+    private long writeContacts(int contactType, @NonNull List<Contact> contacts) {
+        // the contacts which the numbers are added to
+        Map<String, Contact> owners = new HashMap<>();
+        Map<Integer, List<String>> numbersByType = new HashMap<>();
+        for (Contact contact : contacts) {
+            for (ContactNumber number : contact.numbers) {
+                if (owners.put(getNumberKey(number), contact) == null) {
+                    List<String> numbers = numbersByType.get(number.type);
+                    if (numbers == null) {
+                        numbers = new ArrayList<>();
+                        numbersByType.put(number.type, numbers);
+                    }
+                    numbers.add(number.number);
+                }
+            }
+        }
+        if (owners.isEmpty()) return -1;
 
         long contactId = -1;
         SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement deleteNumber = db.compileStatement(ContactNumberTable.Statement.DELETE_BY_ID);
+        SQLiteStatement insertNumber = db.compileStatement(ContactNumberTable.Statement.INSERT);
+        SQLiteStatement selectContactId = db.compileStatement(
+                ContactTable.Statement.SELECT_ID_BY_TYPE_AND_NAME);
+        SQLiteStatement insertContact = db.compileStatement(ContactTable.Statement.INSERT);
+        SQLiteStatement deleteContact = db.compileStatement(
+                ContactTable.Statement.DELETE_BY_ID_IF_EMPTY);
         db.beginTransaction();
         try {
             // delete existing numbers from contacts
-            deleteContactNumbers(numbers);
-
-            // try to find existing contact with the same name and type
-            ContactCursorWrapper cursor = getContact(contactType, contactName);
-            if (cursor != null) {
-                Contact contact = cursor.getContact(false);
-                contactId = contact.id;
-                cursor.close();
-            }
-
-            // contact was not found
-            if (contactId < 0) {
-                // add a new one
-                contactId = addContact(contactType, contactName);
+            Set<Long> contactIds = new HashSet<>();
+            for (Map.Entry<Integer, List<String>> entry : numbersByType.entrySet()) {
+                List<long[]> ids = getContactNumberIds(db, entry.getKey(), entry.getValue());
+                for (long[] id : ids) {
+                    deleteNumber.bindLong(1, id[0]);
+                    deleteNumber.execute();
+                    contactIds.add(id[1]);
+                }
             }
 
-            // add numbers to the contact
-            if (contactId >= 0) {
-                for (ContactNumber number : numbers) {
-                    ContentValues values = new ContentValues();
-                    values.put(ContactNumberTable.Column.NUMBER, number.number);
-                    values.put(ContactNumberTable.Column.TYPE, number.type);
-                    values.put(ContactNumberTable.Column.CONTACT_ID, contactId);
-                    if (db.insert(ContactNumberTable.NAME, null, values) < 0) {
+            // add numbers to the contacts
+            for (Contact contact : contacts) {
+                long id = -1;
+                for (ContactNumber number : contact.numbers) {
+                    // skip the number which is added to another contact or is added already
+                    String key = getNumberKey(number);
+                    if (owners.get(key) != contact) {
+                        continue;
+                    }
+                    owners.remove(key);
+                    if (id < 0) {
+                        id = getContactId(selectContactId, insertContact, contactType, contact.name);
+                        if (id < 0) {
+                            return -1;
+                        }
+                    }
+                    if (insertNumber(insertNumber, id, number) < 0) {
                         return -1;
                     }
                 }
-                db.setTransactionSuccessful();
+                if (id >= 0) {
+                    contactId = id;
+                }
+            }
+
+            // delete the contacts which numbers were moved
+            for (Long id : contactIds) {
+                deleteContact.bindLong(1, id);
+                deleteContact.execute();
             }
+            db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
+            deleteNumber.close();
+            insertNumber.close();
+            selectContactId.close();
+            insertContact.close();
+            deleteContact.close();
+            invalidateContactNumberMatcher();
         }
 
         return contactId;
     }
 
-    // Deletes contact numbers if they exist.
-    // After that deletes parent contacts if they are empty.
-    private void deleteContactNumbers(List<ContactNumber> numbers) {
-        // get full initialized contact numbers by type and value
-        List<ContactNumber> contactNumbers = getContactNumbers(numbers);
-
-        // delete found numbers and collect ids of parent contacts
-        Set<Long> contactIds = new TreeSet<>();
-        for (ContactNumber number : contactNumbers) {
-            if (deleteContactNumber(number.id) > 0) {
-                contactIds.add(number.contactId);
+    // Selects ids of the contact numbers of the type and their contacts by chunks of the values
+    private List<long[]> getContactNumberIds(SQLiteDatabase db, int numberType, List<String> numbers) {
+        List<long[]> list = new ArrayList<>();
+        int chunkSize = Math.min(numbers.size(), SELECT_NUMBERS_CHUNK_SIZE);
+        String statement = ContactNumberTable.Statement.getSelectByTypeAndNumbers(chunkSize);
+        String[] args = new String[chunkSize + 1];
+        args[0] = String.valueOf(numberType);
+        for (int i = 0; i < numbers.size(); i += chunkSize) {
+            for (int j = 0; j < chunkSize; j++) {
+                // the last chunk is completed by the repeated last number
+                args[j + 1] = numbers.get(Math.min(i + j, numbers.size() - 1));
             }
+            Cursor cursor = db.rawQuery(statement, args);
+            while (cursor.moveToNext()) {
+                list.add(new long[]{cursor.getLong(0), cursor.getLong(1)});
+            }
+            cursor.close();
         }
+        return list;
+    }
 
-        // check contacts consistency
-        for (Long contactId : contactIds) {
-            // if contact does not have any number
-            ContactNumberCursorWrapper cursor = getContactNumbersByContactId(contactId);
-            if (cursor == null) {
-                // delete it
-                deleteContact(contactId);
-            } else {
-                cursor.close();
+    // Returns id of the contact with the type and name, adds the contact if it isn't found
+    private long getContactId(SQLiteStatement selectContactId, SQLiteStatement insertContact,
+                              int contactType, String contactName) {
+        selectContactId.bindLong(1, contactType);
+        selectContactId.bindString(2, contactName);
+        long contactId = selectContactId.simpleQueryForLong();
+        if (contactId < 0) {
+            insertContact.bindString(1, contactName);
+            insertContact.bindLong(2, contactType);
+            contactId = insertContact.executeInsert();
+        }
+        return contactId;
+    }
+
+    private long insertNumber(SQLiteStatement insertNumber, long contactId, ContactNumber number) {
+        insertNumber.bindString(1, number.number);
+        insertNumber.bindLong(2, number.type);
+        insertNumber.bindLong(3, contactId);
+        return insertNumber.executeInsert();
+    }
+
+    private static String getNumberKey(ContactNumber number) {
+        return number.type + ":" + number.number;
+    }
+
+    // Merges the contacts into the lists in one transaction and returns count of the added
+    // numbers or -1 on error. The numbers which are already in the lists are skipped,
+    // the numbers of the contacts with the same type and name are added to one contact.
+    public int mergeContacts(@NonNull List<Contact> contacts) {
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement selectNumberId = db.compileStatement(
+                ContactNumberTable.Statement.SELECT_ID_BY_TYPE_AND_NUMBER);
+        SQLiteStatement selectContactId = db.compileStatement(
+                ContactTable.Statement.SELECT_ID_BY_TYPE_AND_NAME);
+        SQLiteStatement insertNumber = db.compileStatement(ContactNumberTable.Statement.INSERT);
+        SQLiteStatement insertContact = db.compileStatement(ContactTable.Statement.INSERT);
+        int count = 0;
+        db.beginTransaction();
+        try {
+            for (Contact contact : contacts) {
+                long contactId = -1;
+                for (ContactNumber number : contact.numbers) {
+                    selectNumberId.bindLong(1, number.type);
+                    selectNumberId.bindString(2, number.number);
+                    if (selectNumberId.simpleQueryForLong() >= 0) {
+                        continue;
+                    }
+                    if (contactId < 0) {
+                        // find or add the contact at the first added number
+                        contactId = getContactId(selectContactId, insertContact,
+                                contact.type, contact.name);
+                        if (contactId < 0) {
+                            return -1;
+                        }
+                    }
+                    if (insertNumber(insertNumber, contactId, number) < 0) {
+                        return -1;
+                    }
+                    count++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            selectNumberId.close();
+            selectContactId.close();
+            insertNumber.close();
+            insertContact.close();
+            if (count > 0) {
+                invalidateContactNumberMatcher();
             }
         }
+
+        return count;
     }
 
     // Adds contact with single number
@@ -835,27 +2444,30 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
     public int deleteContacts(int contactType, IdentifiersContainer contactIds, @Nullable String filter) {
         if (contactIds.isEmpty()) return 0;
 
-        boolean all = contactIds.isAll();
-        List<String> ids = contactIds.getIdentifiers(new LinkedList<String>());
+        long[] ranges = contactIds.getRanges();
 
         // build 'WHERE' clause
         String clause = Common.concatClauses(new String[]{
                 ContactTable.Column.TYPE + " = " + contactType,
-                Common.getLikeClause(ContactTable.Column.NAME, filter),
-                Common.getInClause(ContactTable.Column.ID, all, ids)
+                Common.getLikeClause(ContactTable.Column.NAME, filter)
         });
 
         // delete contacts
         SQLiteDatabase db = getWritableDatabase();
-        return db.delete(ContactTable.NAME, clause, null);
+        int count = deleteByRanges(db, ContactTable.NAME, ContactTable.Column.ID,
+                clause, null, ranges);
+        invalidateContactNumberMatcher();
+        return count;
     }
 
     // Deletes contact by id
     public int deleteContact(long contactId) {
         SQLiteDatabase db = getWritableDatabase();
-        return db.delete(ContactTable.NAME,
+        int count = db.delete(ContactTable.NAME,
                 ContactTable.Column.ID + " = " + contactId,
                 null);
+        invalidateContactNumberMatcher();
+        return count;
     }
 
     // Searches contacts by contact numbers (retrieving them by ContactNumber.contactId)
@@ -905,7 +2517,7 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
 //----------------------------------------------------------------
 
     // Table of settings
-    private static class SettingsTable {
+    static class SettingsTable {
         static final String NAME = "settings";
 
         static class Column {
@@ -927,6 +2539,10 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
                     "SELECT * " +
                             " FROM " + SettingsTable.NAME +
                             " WHERE " + Column.NAME + " = ? ";
+
+            static final String SELECT_ALL =
+                    "SELECT * " +
+                            " FROM " + SettingsTable.NAME;
         }
     }
 
@@ -998,12 +2614,40 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
                 values,
                 SettingsTable.Column.NAME + " = ? ",
                 new String[]{name});
+        boolean result = true;
         if (n == 0) {
             // try to add name/value
             values.put(SettingsTable.Column.NAME, name);
-            return db.insert(SettingsTable.NAME, null, values) >= 0;
+            result = db.insert(SettingsTable.NAME, null, values) >= 0;
+        }
+        // the caches are invalidated after the value is written, so the ones built
+        // concurrently from the previous value are discarded by their version checks
+        if (result) {
+            if (name.equals(Settings.COUNTRY_CODE) || name.equals(Settings.TRUNK_PREFIX)) {
+                // matcher depends on the country rules (the image is invalidated too)
+                invalidateContactNumberMatcher();
+            } else {
+                BlocklistImage.invalidate(context);
+            }
         }
 
-        return true;
+        return result;
+    }
+
+    // Selects all settings
+    Map<String, String> getAllSettings() {
+        Map<String, String> map = new HashMap<>();
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery(SettingsTable.Statement.SELECT_ALL, null);
+        if (validate(cursor)) {
+            SettingsItemCursorWrapper wrapper = new SettingsItemCursorWrapper(cursor);
+            do {
+                SettingsItem item = wrapper.getSettings();
+                map.put(item.name, item.value);
+            } while (wrapper.moveToNext());
+            wrapper.close();
+        }
+
+        return map;
     }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.kaliturin.blacklist.utils.BlockingDecisionEngine.Verdict;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Executes blocking decisions of the broadcast receivers in the own warm background
+ * thread, so the main thread isn't busy with database and content providers queries.
+ * The receiver's broadcast is kept alive by goAsync() until the verdict is applied.
+ * If the decision isn't made in time, the fallback verdict is applied before the
+ * broadcast deadline expires. Before API 11 the decision is made synchronously.
+ */
+public class DecisionExecutor {
+    private static final String TAG = DecisionExecutor.class.getName();
+    // the broadcast is considered as hung after 10 sec, so leave some margin
+    private static final long DECISION_TIMEOUT = 5000;
+    private static volatile DecisionExecutor sInstance = null;
+
+    private final Handler handler;
+    private final Handler timeoutHandler;
+
+    /**
+     * Decision task of the receiver
+     */
+    public interface Task {
+        // Makes the decision (is called in the decision thread)
+        Verdict decide();
+
+        // Returns the verdict to apply if the decision wasn't made in time
+        Verdict fallback();
+
+        // Applies the verdict; the pending result is null in synchronous mode,
+        // else it should be used instead of the receiver's methods
+        void apply(Verdict verdict, @Nullable BroadcastReceiver.PendingResult result);
+    }
+
+    public static DecisionExecutor getInstance() {
+        if (sInstance == null) {
+            synchronized (DecisionExecutor.class) {
+                if (sInstance == null) {
+                    sInstance = new DecisionExecutor();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    private DecisionExecutor() {
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_FOREGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        // the main thread is free while the decision is made
+        timeoutHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Executes the task of the receiver. Must be called from onReceive.
+     */
+    public void execute(@NonNull BroadcastReceiver receiver, @NonNull Task task) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            task.apply(task.decide(), null);
+        } else {
+            executeAsync(receiver, task);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void executeAsync(BroadcastReceiver receiver, final Task task) {
+        final BroadcastReceiver.PendingResult result = receiver.goAsync();
+        // the verdict must be applied only once
+        final AtomicBoolean applied = new AtomicBoolean(false);
+
+        final Runnable timeoutTask = new Runnable() {
+            @Override
+            public void run() {
+                if (applied.compareAndSet(false, true)) {
+                    Log.w(TAG, "Decision timed out - fallback verdict is applied");
+                    apply(task, task.fallback(), result);
+                }
+            }
+        };
+        timeoutHandler.postDelayed(timeoutTask, DECISION_TIMEOUT);
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Verdict verdict = null;
+                try {
+                    verdict = task.decide();
+                } catch (Exception e) {
+                    Log.w(TAG, e);
+                }
+                if (applied.compareAndSet(false, true)) {
+                    timeoutHandler.removeCallbacks(timeoutTask);
+                    apply(task, (verdict != null ? verdict : task.fallback()), result);
+                }
+            }
+        });
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void apply(Task task, Verdict verdict, BroadcastReceiver.PendingResult result) {
+        try {
+            task.apply(verdict, result);
+        } catch (Exception e) {
+            Log.w(TAG, e);
+        } finally {
+            result.finish();
+        }
+    }
+}
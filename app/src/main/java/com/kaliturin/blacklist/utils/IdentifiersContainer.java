@@ -16,15 +16,23 @@
 
 package com.kaliturin.blacklist.utils;
 
-import android.util.SparseBooleanArray;
-
-import java.util.List;
+import java.util.Arrays;
 
 /**
- * Identifiers container
+ * Identifiers container.
+ * Keeps the identifiers which differ from the 'all' flag as the sorted runs
+ * [first, last] of contiguous identifiers, so adding all, inverting and adding
+ * of a range don't depend on the count of identifiers and don't create objects
+ * per identifier.
  */
 public class IdentifiersContainer implements Cloneable {
-    private SparseBooleanArray ids = new SparseBooleanArray();
+    private static final int INITIAL_RUNS_COUNT = 16;
+    // sorted disjoint and not adjacent runs
+    private long[] firsts = new long[INITIAL_RUNS_COUNT];
+    private long[] lasts = new long[INITIAL_RUNS_COUNT];
+    private int runsCount = 0;
+    // count of the identifiers in the runs
+    private long runsSize = 0;
     private boolean all = false;
     private int capacity;
 
@@ -35,17 +43,19 @@ public class IdentifiersContainer implements Cloneable {
 
     // Returns true if container is full
     public boolean isFull() {
-        return (all && ids.size() == 0);
+        return (all && runsCount == 0);
     }
 
     // Returns true if container is empty
     public boolean isEmpty() {
-        return (capacity == 0 || (!all && ids.size() == 0));
+        return (capacity == 0 || (!all && runsCount == 0));
     }
 
     // Returns true if contains the identifier
-    public boolean contains(int id) {
-        return (all != ids.get(id));
+    public boolean contains(long id) {
+        int i = getFirstRunNotBefore(id);
+        boolean inRun = (i < runsCount && firsts[i] <= id);
+        return (all != inRun);
     }
 
     // Adds all identifiers
@@ -54,7 +64,7 @@ public class IdentifiersContainer implements Cloneable {
             return false;
         }
         all = true;
-        ids.clear();
+        clearRuns();
         return true;
     }
 
@@ -64,7 +74,7 @@ public class IdentifiersContainer implements Cloneable {
             return false;
         }
         all = false;
-        ids.clear();
+        clearRuns();
         return true;
     }
 
@@ -73,30 +83,25 @@ public class IdentifiersContainer implements Cloneable {
         return (all ? addAll() : removeAll());
     }
 
-    // Adds the identifier
-    public void add(int id) {
+    // Inverts the container: the containing identifiers are removed and others are added
+    public void invert() {
         if (capacity == 0) return;
-        if (all) {
-            ids.delete(id);
-        } else {
-            ids.append(id, true);
-        }
+        all = !all;
         validate();
     }
 
+    // Adds the identifier
+    public void add(long id) {
+        addRange(id, id);
+    }
+
     // Removes the identifier
-    public void remove(int id) {
-        if (capacity == 0) return;
-        if (all) {
-            ids.append(id, true);
-        } else {
-            ids.delete(id);
-        }
-        validate();
+    public void remove(long id) {
+        removeRange(id, id);
     }
 
     // Sets specified identifier added/removed
-    public void set(int id, boolean added) {
+    public void set(long id, boolean added) {
         if (added) {
             add(id);
         } else {
@@ -104,12 +109,43 @@ public class IdentifiersContainer implements Cloneable {
         }
     }
 
-    // Returns count of containing identifiers
-    public int getSize() {
+    // Adds the identifiers from first to last inclusive
+    public void addRange(long first, long last) {
+        if (capacity == 0 || first > last) return;
+        if (first == Long.MIN_VALUE && last == Long.MAX_VALUE) {
+            // the size of the whole range doesn't fit in long
+            setAll(true);
+            return;
+        }
         if (all) {
-            return capacity - ids.size();
+            excludeRun(first, last);
+        } else {
+            includeRun(first, last);
+        }
+        validate();
+    }
+
+    // Removes the identifiers from first to last inclusive
+    public void removeRange(long first, long last) {
+        if (capacity == 0 || first > last) return;
+        if (first == Long.MIN_VALUE && last == Long.MAX_VALUE) {
+            // the size of the whole range doesn't fit in long
+            setAll(false);
+            return;
         }
-        return ids.size();
+        if (all) {
+            includeRun(first, last);
+        } else {
+            excludeRun(first, last);
+        }
+        validate();
+    }
+
+    // Returns count of containing identifiers
+    // (the identifiers are supposed to be from the capacity)
+    public int getSize() {
+        long size = (all ? capacity - runsSize : runsSize);
+        return (int) Math.max(0, Math.min(size, capacity));
     }
 
     // Returns 'all' flag of container
@@ -117,26 +153,150 @@ public class IdentifiersContainer implements Cloneable {
         return all;
     }
 
-    // Returns the list of identifiers
-    public List<String> getIdentifiers(List<String> list) {
-        for (int i = 0; i < ids.size(); i++) {
-            int id = ids.keyAt(i);
-            list.add(String.valueOf(id));
+    // Returns the ranges of the containing identifiers in ascending order as
+    // the pairs {first0, last0, first1, last1, ...}. Contiguous identifiers are
+    // joined into one range. If the 'all' flag is set - the ranges are between
+    // the excluded identifiers, so the first and the last ones are open.
+    public long[] getRanges() {
+        if (isEmpty()) {
+            return new long[0];
+        }
+        if (!all) {
+            long[] ranges = new long[runsCount * 2];
+            for (int i = 0; i < runsCount; i++) {
+                ranges[i * 2] = firsts[i];
+                ranges[i * 2 + 1] = lasts[i];
+            }
+            return ranges;
         }
-        return list;
+        long[] ranges = new long[(runsCount + 1) * 2];
+        int size = 0;
+        long next = Long.MIN_VALUE;
+        for (int i = 0; i < runsCount; i++) {
+            if (firsts[i] > next) {
+                ranges[size++] = next;
+                ranges[size++] = firsts[i] - 1;
+            }
+            if (lasts[i] == Long.MAX_VALUE) {
+                return Arrays.copyOf(ranges, size);
+            }
+            next = lasts[i] + 1;
+        }
+        ranges[size++] = next;
+        ranges[size++] = Long.MAX_VALUE;
+        return Arrays.copyOf(ranges, size);
     }
 
     private void validate() {
-        if (capacity == ids.size()) {
+        if (capacity == runsSize) {
             all = !all;
-            ids.clear();
+            clearRuns();
+        }
+    }
+
+    private void clearRuns() {
+        runsCount = 0;
+        runsSize = 0;
+    }
+
+    // Adds the run to the runs merging it with the overlapping and adjacent ones
+    private void includeRun(long first, long last) {
+        int i = (first == Long.MIN_VALUE ? 0 : getFirstRunNotBefore(first - 1));
+        int j = (last == Long.MAX_VALUE ? runsCount - 1 : getLastRunNotAfter(last + 1));
+        if (i <= j) {
+            first = Math.min(first, firsts[i]);
+            last = Math.max(last, lasts[j]);
+        }
+        runsSize -= getRunsSize(i, j);
+        replaceRuns(i, j, 1);
+        firsts[i] = first;
+        lasts[i] = last;
+        runsSize += last - first + 1;
+    }
+
+    // Removes the run from the runs cutting the overlapping ones
+    private void excludeRun(long first, long last) {
+        int i = getFirstRunNotBefore(first);
+        int j = getLastRunNotAfter(last);
+        if (i > j) {
+            return;
+        }
+        boolean head = (firsts[i] < first);
+        boolean tail = (lasts[j] > last);
+        long headFirst = firsts[i];
+        long tailLast = lasts[j];
+        runsSize -= getRunsSize(i, j);
+        replaceRuns(i, j, (head ? 1 : 0) + (tail ? 1 : 0));
+        if (head) {
+            firsts[i] = headFirst;
+            lasts[i] = first - 1;
+            runsSize += first - headFirst;
+            i++;
+        }
+        if (tail) {
+            firsts[i] = last + 1;
+            lasts[i] = tailLast;
+            runsSize += tailLast - last;
+        }
+    }
+
+    // Returns index of the first run which isn't before the identifier
+    private int getFirstRunNotBefore(long id) {
+        int low = 0, high = runsCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (lasts[middle] < id) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Returns index of the last run which isn't after the identifier
+    private int getLastRunNotAfter(long id) {
+        int low = 0, high = runsCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (firsts[middle] <= id) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low - 1;
+    }
+
+    private long getRunsSize(int from, int to) {
+        long size = 0;
+        for (int i = from; i <= to; i++) {
+            size += lasts[i] - firsts[i] + 1;
+        }
+        return size;
+    }
+
+    // Replaces the runs from 'from' to 'to' inclusive with 'count' runs to be set
+    private void replaceRuns(int from, int to, int count) {
+        int tail = runsCount - to - 1;
+        int newCount = from + count + tail;
+        if (newCount > firsts.length) {
+            int length = Math.max(newCount, firsts.length * 2);
+            firsts = Arrays.copyOf(firsts, length);
+            lasts = Arrays.copyOf(lasts, length);
         }
+        System.arraycopy(firsts, to + 1, firsts, from + count, tail);
+        System.arraycopy(lasts, to + 1, lasts, from + count, tail);
+        runsCount = newCount;
     }
 
     @Override
     public IdentifiersContainer clone() {
         try {
-            return (IdentifiersContainer) super.clone();
+            IdentifiersContainer container = (IdentifiersContainer) super.clone();
+            container.firsts = firsts.clone();
+            container.lasts = lasts.clone();
+            return container;
         } catch (CloneNotSupportedException ignored) {
         }
         return null;
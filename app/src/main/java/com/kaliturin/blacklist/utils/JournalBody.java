@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed text of the journal record stored in the body table
+ * and addressed by the hash of the content.
+ * Doesn't depend on Android framework.
+ */
+class JournalBody {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    final String hash;
+    final byte[] data;
+
+    private JournalBody(String hash, byte[] data) {
+        this.hash = hash;
+        this.data = data;
+    }
+
+    // Compresses the text
+    static JournalBody valueOf(@NonNull String text) {
+        byte[] bytes = text.getBytes(UTF8);
+        return new JournalBody(getHash(bytes), deflate(bytes));
+    }
+
+    // Returns the hash of the text content
+    static String getHash(@NonNull String text) {
+        return getHash(text.getBytes(UTF8));
+    }
+
+    // Decompresses the text, returns null if the data are invalid
+    @Nullable
+    static String getText(@NonNull byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                stream.write(buffer, 0, n);
+            }
+            return new String(stream.toByteArray(), UTF8);
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // Returns the preview of the text not longer than the passed length
+    static String getPreview(@NonNull String text, int length) {
+        if (text.length() <= length) {
+            return text;
+        }
+        // don't split the surrogate pair
+        if (Character.isHighSurrogate(text.charAt(length - 1))) {
+            length--;
+        }
+        return text.substring(0, length);
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                stream.write(buffer, 0, n);
+            }
+            return stream.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String getHash(byte[] bytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is always available
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(bytes);
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX[hash[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.kaliturin.blacklist.receivers.InternalEventBroadcast;
+
+/**
+ * Applies the retention policy of the journal (see Settings.JOURNAL_*) in background.
+ * The old records are removed by small batches, each in its own transaction, with
+ * pauses between them, so the writers of the database are never blocked for long.
+ * The long texts written before the texts compression are compressed the same way.
+ * Then the freed pages of the database file are returned by the incremental vacuum
+ * (if the database is in the incremental vacuum mode, see Settings).
+ */
+public class JournalCompactor {
+    private static final String TAG = JournalCompactor.class.getName();
+    private static final long START_DELAY = 10000;
+    private static final long STEP_DELAY = 200;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+    private static final int BATCH_SIZE = 500;
+    private static final int COMPRESS_BATCH_SIZE = 50;
+    private static final int VACUUM_PAGES = 128;
+    private static volatile JournalCompactor sInstance = null;
+
+    private final Context context;
+    private final Handler handler;
+    // count of the removed and compressed records,
+    // are accessed from the handler's thread only
+    private int removedCount = 0;
+
+    public static JournalCompactor getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (JournalCompactor.class) {
+                if (sInstance == null) {
+                    sInstance = new JournalCompactor(context.getApplicationContext());
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    private JournalCompactor(Context context) {
+        this.context = context;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Schedules the compaction (collapses the bursts of calls)
+     */
+    public void schedule() {
+        handler.removeCallbacks(compactTask);
+        handler.removeCallbacks(vacuumTask);
+        handler.postDelayed(compactTask, START_DELAY);
+    }
+
+    private final Runnable compactTask = new Runnable() {
+        @Override
+        public void run() {
+            compact();
+        }
+    };
+
+    private final Runnable vacuumTask = new Runnable() {
+        @Override
+        public void run() {
+            vacuum();
+        }
+    };
+
+    // Removes the next batch of the old records (or compresses the next batch
+    // of the texts written before the texts compression)
+    private void compact() {
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db == null) {
+            return;
+        }
+        Settings.Snapshot settings = Settings.getSnapshot(context);
+        int maxDays = parseInt(settings.getStringValue(Settings.JOURNAL_MAX_AGE_DAYS));
+        int maxRecords = parseInt(settings.getStringValue(Settings.JOURNAL_MAX_RECORDS));
+        long minTime = (maxDays > 0 ? System.currentTimeMillis() - maxDays * DAY_MILLIS : 0);
+        boolean keepAggregates = settings.getBooleanValue(Settings.JOURNAL_KEEP_AGGREGATES);
+
+        try {
+            // if the journal is unlimited nothing is removed
+            int count = db.removeOldJournalRecords(minTime, maxRecords, keepAggregates, BATCH_SIZE);
+            removedCount += count;
+            if (count >= BATCH_SIZE) {
+                // there could be more old records
+                handler.postDelayed(compactTask, STEP_DELAY);
+                return;
+            }
+            count = db.compressJournalTexts(COMPRESS_BATCH_SIZE);
+            removedCount += count;
+            if (count >= COMPRESS_BATCH_SIZE) {
+                handler.postDelayed(compactTask, STEP_DELAY);
+                return;
+            }
+        } catch (Exception e) {
+            // the database could be closed or replaced
+            Log.w(TAG, e);
+            return;
+        }
+
+        if (removedCount > 0) {
+            removedCount = 0;
+            // send broadcast message
+            InternalEventBroadcast.send(context, InternalEventBroadcast.JOURNAL_WAS_WRITTEN);
+            handler.postDelayed(vacuumTask, STEP_DELAY);
+        }
+    }
+
+    // Returns the next part of the free pages to the file system
+    private void vacuum() {
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db == null) {
+            return;
+        }
+        try {
+            // the full rebuild of the database file is never made here
+            if (db.isIncrementalVacuumEnabled() &&
+                    db.vacuumIncrementally(VACUUM_PAGES) > 0) {
+                handler.postDelayed(vacuumTask, STEP_DELAY);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, e);
+        }
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return (value != null ? Integer.parseInt(value) : 0);
+        } catch (NumberFormatException ignored) {
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.JournalTable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cursor of the journal records loading them by pages on demand.
+ * The pages are selected by the key (time, _id) of the last record of the previous
+ * page instead of an offset, so the next page is selected by the index in the same time
+ * however large the journal is. If the key of the previous page isn't known (a jump on
+ * the fast scrolling) it is selected by the offset from the nearest known key or from
+ * the nearest end of the journal. The offset skips the records one by one, so the jump
+ * takes the time proportional to that distance. Only a few last used pages are kept
+ * in memory.
+ * The count of records is selected once at the creation, so records written after
+ * that aren't shown until the cursor is recreated.
+ */
+class JournalPagedCursor extends AbstractCursor {
+    private static final String TAG = JournalPagedCursor.class.getName();
+    private static final int PAGE_SIZE = JournalTable.PAGE_SIZE;
+    private static final int MAX_CACHED_PAGES = 4;
+
+    // the same order as in JournalTable.Statement.LIST_PROJECTION
+    private static final String[] COLUMNS = {
+            JournalTable.Column.ID,
+            JournalTable.Column.TIME,
+            JournalTable.Column.CALLER,
+            JournalTable.Column.NUMBER,
+            JournalTable.Column.COUNT,
+            JournalTable.Column.FIRST_TIME,
+            JournalTable.Column.TEXT,
+            JournalTable.Column.TEXT_TRUNCATED
+    };
+    private static final int ID = 0;
+    private static final int TIME = 1;
+    private static final int CALLER = 2;
+    private static final int NUMBER = 3;
+    private static final int COUNT = 4;
+    private static final int FIRST_TIME = 5;
+    private static final int TEXT = 6;
+    private static final int TEXT_TRUNCATED = 7;
+
+    private final SQLiteDatabase db;
+    private final String filterClause;
+    private final String[] filterArgs;
+    private final int count;
+    // keys of the last records of the pages (if they are known)
+    private final long[] lastTimes;
+    private final long[] lastIds;
+    private final boolean[] lastKnown;
+    // the last used pages
+    private final Map<Integer, Page> pages = new LinkedHashMap<Integer, Page>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+    private Page page = null;
+
+    // Records of the page
+    private static class Page {
+        final int size;
+        final long[] ids;
+        final long[] times;
+        final String[] callers;
+        final String[] numbers;
+        final int[] counts;
+        // 0 if the first time isn't set
+        final long[] firstTimes;
+        final String[] texts;
+        final boolean[] truncated;
+
+        Page(int size) {
+            this.size = size;
+            ids = new long[size];
+            times = new long[size];
+            callers = new String[size];
+            numbers = new String[size];
+            counts = new int[size];
+            firstTimes = new long[size];
+            texts = new String[size];
+            truncated = new boolean[size];
+        }
+    }
+
+    /**
+     * Creates the cursor of the records ordered by time (from the newest ones).
+     * If the filter isn't null - selects the records fitting to it only.
+     */
+    JournalPagedCursor(@NonNull SQLiteDatabase db, @Nullable JournalTable.Filter filter) {
+        this.db = db;
+        this.filterClause = (filter == null ? null : filter.clause);
+        this.filterArgs = (filter == null ? null : filter.args);
+        count = selectCount();
+        int pagesCount = (count + PAGE_SIZE - 1) / PAGE_SIZE;
+        lastTimes = new long[pagesCount];
+        lastIds = new long[pagesCount];
+        lastKnown = new boolean[pagesCount];
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return COLUMNS;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        page = getPage(newPosition / PAGE_SIZE);
+        return (page != null);
+    }
+
+    // Returns the page by index, loads it if it isn't cached
+    @Nullable
+    private Page getPage(int index) {
+        Page page = pages.get(index);
+        if (page == null) {
+            page = loadPage(index);
+            if (page != null) {
+                pages.put(index, page);
+            }
+        }
+        return page;
+    }
+
+    private Page loadPage(int index) {
+        String[] args = filterArgs;
+        if (index > 0) {
+            // key of the last record of the previous page
+            if (!lastKnown[index - 1] && !selectKey(index - 1)) {
+                return null;
+            }
+            args = concat(filterArgs,
+                    String.valueOf(lastTimes[index - 1]),
+                    String.valueOf(lastTimes[index - 1]),
+                    String.valueOf(lastIds[index - 1]));
+        }
+        String sql = JournalTable.Statement.getSelectPage(filterClause, index > 0);
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(sql, args);
+            Page page = new Page(cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                page.ids[i] = cursor.getLong(ID);
+                page.times[i] = cursor.getLong(TIME);
+                page.callers[i] = cursor.getString(CALLER);
+                page.numbers[i] = cursor.getString(NUMBER);
+                page.counts[i] = cursor.getInt(COUNT);
+                page.firstTimes[i] = (cursor.isNull(FIRST_TIME) ? 0 : cursor.getLong(FIRST_TIME));
+                page.texts[i] = cursor.getString(TEXT);
+                page.truncated[i] = (cursor.getInt(TEXT_TRUNCATED) != 0);
+            }
+            if (page.size > 0 && index < lastKnown.length) {
+                lastTimes[index] = page.times[page.size - 1];
+                lastIds[index] = page.ids[page.size - 1];
+                lastKnown[index] = true;
+            }
+            return page;
+        } catch (Exception e) {
+            // the database could be closed or replaced
+            Log.w(TAG, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return null;
+    }
+
+    // Selects the key of the last record of the page (if the previous pages weren't
+    // loaded, e.g. on the list fast scrolling). The record is selected by the offset from
+    // the nearest known key before or after it, or from the nearest end of the journal.
+    private boolean selectKey(int index) {
+        int position = getKeyPosition(index);
+        // the nearest known key before (or the newest record) and after (or the oldest one)
+        int before = index - 1;
+        while (before >= 0 && !lastKnown[before]) before--;
+        int after = index + 1;
+        while (after < lastKnown.length && !lastKnown[after]) after++;
+        int beforePosition = (before >= 0 ? getKeyPosition(before) : -1);
+        int afterPosition = (after < lastKnown.length ? getKeyPosition(after) : count);
+
+        boolean reversed = (afterPosition - position < position - beforePosition);
+        int from = (reversed ? after : before);
+        boolean fromKey = (from >= 0 && from < lastKnown.length);
+        int offset = (reversed ? afterPosition - position : position - beforePosition) - 1;
+        String sql = JournalTable.Statement.getSelectKey(filterClause, fromKey, reversed, offset);
+        String[] args = filterArgs;
+        if (fromKey) {
+            args = concat(filterArgs,
+                    String.valueOf(lastTimes[from]),
+                    String.valueOf(lastTimes[from]),
+                    String.valueOf(lastIds[from]));
+        }
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(sql, args);
+            if (cursor.moveToFirst()) {
+                lastTimes[index] = cursor.getLong(0);
+                lastIds[index] = cursor.getLong(1);
+                lastKnown[index] = true;
+                return true;
+            }
+        } catch (Exception e) {
+            Log.w(TAG, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return false;
+    }
+
+    // Returns the position of the last record of the page
+    private int getKeyPosition(int index) {
+        return Math.min((index + 1) * PAGE_SIZE, count) - 1;
+    }
+
+    private int selectCount() {
+        String sql = "SELECT COUNT(*) FROM " + JournalTable.NAME +
+                (filterClause != null ? " WHERE " + filterClause : "");
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(sql, filterArgs);
+            if (cursor.moveToFirst()) {
+                return cursor.getInt(0);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return 0;
+    }
+
+    private static String[] concat(@Nullable String[] args, String... more) {
+        if (args == null) {
+            return more;
+        }
+        String[] result = new String[args.length + more.length];
+        System.arraycopy(args, 0, result, 0, args.length);
+        System.arraycopy(more, 0, result, args.length, more.length);
+        return result;
+    }
+
+    // Returns the index of the current record in the page or -1 if it
+    // is absent (records could be deleted after the count was selected)
+    private int getIndex() {
+        int index = getPosition() % PAGE_SIZE;
+        return (page != null && index < page.size ? index : -1);
+    }
+
+    @Override
+    public String getString(int column) {
+        int i = getIndex();
+        if (i < 0) {
+            return null;
+        }
+        switch (column) {
+            case ID:
+                return String.valueOf(page.ids[i]);
+            case TIME:
+                return String.valueOf(page.times[i]);
+            case CALLER:
+                return page.callers[i];
+            case NUMBER:
+                return page.numbers[i];
+            case COUNT:
+                return String.valueOf(page.counts[i]);
+            case FIRST_TIME:
+                return (page.firstTimes[i] == 0 ? null : String.valueOf(page.firstTimes[i]));
+            case TEXT:
+                return page.texts[i];
+            case TEXT_TRUNCATED:
+                return (page.truncated[i] ? "1" : "0");
+        }
+        throw new IllegalArgumentException("Invalid column " + column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        int i = getIndex();
+        if (i < 0) {
+            return 0;
+        }
+        switch (column) {
+            case ID:
+                return page.ids[i];
+            case TIME:
+                return page.times[i];
+            case COUNT:
+                return page.counts[i];
+            case FIRST_TIME:
+                return page.firstTimes[i];
+            case TEXT_TRUNCATED:
+                return (page.truncated[i] ? 1 : 0);
+        }
+        String value = getString(column);
+        return (value == null ? 0 : Long.parseLong(value));
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return (getString(column) == null);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        pages.clear();
+        page = null;
+    }
+}
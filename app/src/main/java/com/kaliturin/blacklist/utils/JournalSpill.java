@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.JournalRecord;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Queue of the journal records which aren't committed yet, kept in the append-only
+ * spill file too. The records left in the file since the previous run are read back
+ * into the queue by the constructor, before any new record is appended, so every
+ * record of the file is queued once. Isn't thread-safe (see JournalWriter).
+ */
+class JournalSpill {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private List<JournalRecord> queue;
+    private DataOutputStream stream = null;
+
+    JournalSpill(File file) {
+        this.file = file;
+        queue = readFile(file);
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    // Queues the record and appends it to the file.
+    // If the appending failed the record is still queued.
+    void add(JournalRecord record) throws IOException {
+        queue.add(record);
+        try {
+            if (stream == null) {
+                stream = new DataOutputStream(new FileOutputStream(file, true));
+            }
+            append(stream, record);
+        } catch (IOException e) {
+            Utils.close(stream);
+            stream = null;
+            throw e;
+        }
+    }
+
+    // Removes all the queued records and returns them (they are kept in the file)
+    List<JournalRecord> takeAll() {
+        List<JournalRecord> records = queue;
+        queue = new ArrayList<>();
+        return records;
+    }
+
+    // Returns the taken records to the head of the queue
+    void putBack(List<JournalRecord> records) {
+        records.addAll(queue);
+        queue = records;
+    }
+
+    // Rewrites the file with the queued records only
+    void rewrite() throws IOException {
+        Utils.close(stream);
+        stream = null;
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to delete the file " + file);
+        }
+        if (queue.isEmpty()) {
+            return;
+        }
+        try {
+            stream = new DataOutputStream(new FileOutputStream(file, true));
+            for (JournalRecord record : queue) {
+                append(stream, record);
+            }
+        } catch (IOException e) {
+            Utils.close(stream);
+            stream = null;
+            throw e;
+        }
+    }
+
+    // Returns the marker of the first count records (count and checksum)
+    static long getCommitMarker(List<JournalRecord> records, int count) {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < count; i++) {
+            crc.update(serialize(records.get(i)));
+        }
+        return ((long) count << 32) | crc.getValue();
+    }
+
+    // Returns the records following the head matching the marker of the committed ones
+    static List<JournalRecord> getUncommitted(List<JournalRecord> records, long marker) {
+        int count = (int) (marker >>> 32);
+        if (count > 0 && count <= records.size() &&
+                getCommitMarker(records, count) == marker) {
+            return records.subList(count, records.size());
+        }
+        return records;
+    }
+
+    // Appends the record with its length and checksum
+    private static void append(DataOutputStream stream, JournalRecord record) throws IOException {
+        byte[] bytes = serialize(record);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        // the record is written with one call to avoid interleaving of partial records
+        ByteArrayOutputStream block = new ByteArrayOutputStream(bytes.length + 8);
+        DataOutputStream blockStream = new DataOutputStream(block);
+        blockStream.writeInt(bytes.length);
+        blockStream.writeInt((int) crc.getValue());
+        blockStream.write(bytes);
+        stream.write(block.toByteArray());
+    }
+
+    private static byte[] serialize(JournalRecord record) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream stream = new DataOutputStream(bytes);
+        try {
+            stream.writeLong(record.time);
+            writeString(stream, record.caller);
+            writeString(stream, record.number);
+            writeString(stream, record.text);
+        } catch (IOException e) {
+            // is never thrown by the stream in memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream stream, String string) throws IOException {
+        if (string == null) {
+            stream.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(UTF8);
+        stream.writeInt(bytes.length);
+        stream.write(bytes);
+    }
+
+    // Reads the records of the file until its end or the first damaged record
+    private static List<JournalRecord> readFile(File file) {
+        List<JournalRecord> records = new ArrayList<>();
+        if (!file.exists()) {
+            return records;
+        }
+        DataInputStream stream = null;
+        try {
+            stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            while (true) {
+                int length = stream.readInt();
+                int checksum = stream.readInt();
+                if (length < 0 || length > file.length()) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                stream.readFully(bytes);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                records.add(deserialize(bytes));
+            }
+        } catch (EOFException e) {
+            // the last record could be written partially
+        } catch (IOException e) {
+            // the rest of the file is unreadable, the read records are kept
+        } finally {
+            Utils.close(stream);
+        }
+        return records;
+    }
+
+    private static JournalRecord deserialize(byte[] bytes) throws IOException {
+        DataInputStream stream = new DataInputStream(new ByteArrayInputStream(bytes));
+        long time = stream.readLong();
+        String caller = readString(stream);
+        String number = readString(stream);
+        String text = readString(stream);
+        if (caller == null) {
+            throw new IOException("Journal record without caller");
+        }
+        return new JournalRecord(0, time, caller, number, text);
+    }
+
+    private static String readString(DataInputStream stream) throws IOException {
+        int length = stream.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        stream.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.kaliturin.blacklist.receivers.InternalEventBroadcast;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.JournalRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Group-commit writer of the journal.
+ * The records are queued and written into the database in one transaction per batch
+ * (when the batch is full or the flush delay is elapsed), with one notification
+ * of the journal change per batch.
+ * Until a record is committed it is kept in the append-only spill file (see JournalSpill),
+ * which is replayed on the next start if the process was killed before the commit.
+ * The replayed records are queued synchronously on the writer's creation, before the
+ * first new record is appended to the file, so none of them is queued twice.
+ * The records of a batch are always the head of the spill file, so the batch is
+ * committed with the marker of that head (count and checksum of the records). If the
+ * process was killed after the commit but before the spill file was rewritten, the
+ * replay skips the head matching the marker.
+ */
+public class JournalWriter {
+    private static final String TAG = JournalWriter.class.getName();
+    private static final String FILE_NAME = "journal.spill";
+    private static final long FLUSH_DELAY = 300;
+    private static final long RETRY_DELAY = 5000;
+    private static final int BATCH_SIZE = 100;
+    private static final long MINUTE_MILLIS = 60 * 1000;
+    private static volatile JournalWriter sInstance = null;
+
+    private final Context context;
+    private final Handler handler;
+    private final Object lock = new Object();
+    // records which aren't committed yet, is guarded by the lock
+    private final JournalSpill spill;
+    private boolean flushScheduled = false;
+    // the records of the spill file are replayed and could be committed already,
+    // is accessed from the handler's thread only
+    private boolean recovering = false;
+
+    public static JournalWriter getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (JournalWriter.class) {
+                if (sInstance == null) {
+                    sInstance = new JournalWriter(context.getApplicationContext());
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    private JournalWriter(Context context) {
+        this.context = context;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        // replay the records left since the previous run
+        spill = new JournalSpill(new File(context.getFilesDir(), FILE_NAME));
+        if (!spill.isEmpty()) {
+            recovering = true;
+            handler.post(flushTask);
+            flushScheduled = true;
+        }
+    }
+
+    /**
+     * Queues the journal record for writing
+     */
+    public void write(long time, @NonNull String caller, String number, String text) {
+        JournalRecord record = new JournalRecord(0, time, caller, number, text);
+        synchronized (lock) {
+            try {
+                spill.add(record);
+            } catch (IOException e) {
+                // the record is still in the queue
+                Log.w(TAG, e);
+            }
+            if (spill.size() >= BATCH_SIZE) {
+                handler.removeCallbacks(flushTask);
+                handler.post(flushTask);
+                flushScheduled = true;
+            } else if (!flushScheduled) {
+                // the delay isn't prolonged by the following records
+                handler.postDelayed(flushTask, FLUSH_DELAY);
+                flushScheduled = true;
+            }
+        }
+    }
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // Writes the queued records into the database
+    private void flush() {
+        List<JournalRecord> records;
+        synchronized (lock) {
+            flushScheduled = false;
+            if (spill.isEmpty()) {
+                return;
+            }
+            records = spill.takeAll();
+        }
+
+        boolean written = false;
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db != null) {
+            Integer minutes = Settings.getIntegerValue(context, Settings.JOURNAL_FOLD_WINDOW_MINUTES);
+            long foldWindow = (minutes != null && minutes > 0 ? minutes * MINUTE_MILLIS : 0);
+            long startTime = LatencyStats.start();
+            try {
+                List<JournalRecord> uncommitted = records;
+                if (recovering) {
+                    // the head of the records could be committed before the process was killed
+                    uncommitted = JournalSpill.getUncommitted(records, db.getJournalCommitMarker());
+                }
+                written = db.addJournalRecords(uncommitted, foldWindow,
+                        JournalSpill.getCommitMarker(records, records.size()));
+            } catch (Exception e) {
+                // the database could be closed or replaced
+                Log.w(TAG, e);
+            }
+            LatencyStats.record(LatencyStats.Stage.JOURNAL_WRITE, startTime);
+        }
+
+        synchronized (lock) {
+            if (!written) {
+                // return the records to the queue and try again later
+                spill.putBack(records);
+                if (!flushScheduled) {
+                    handler.postDelayed(flushTask, RETRY_DELAY);
+                    flushScheduled = true;
+                }
+                return;
+            }
+            // the spill file keeps the records which aren't committed yet only
+            try {
+                spill.rewrite();
+            } catch (IOException e) {
+                // the committed head of the file is skipped by the marker on the replay
+                Log.w(TAG, e);
+            }
+        }
+        recovering = false;
+
+        InternalEventBroadcast.send(context, InternalEventBroadcast.JOURNAL_WAS_WRITTEN);
+        // keep the journal within the limits of the retention policy
+        JournalCompactor.getInstance(context).schedule();
+    }
+}
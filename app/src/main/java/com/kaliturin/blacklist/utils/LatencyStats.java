@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import android.support.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Always-on latency statistics of the blocking pipeline stages.
+ * Every stage has a fixed-size histogram with power of 2 buckets of microseconds,
+ * which is updated without locks, so recording costs a few atomic increments.
+ * Doesn't depend on Android framework.
+ */
+public class LatencyStats {
+    // Stages of the blocking pipeline
+    public enum Stage {
+        SMS_TOTAL,
+        CALL_TOTAL,
+        PDU_EXTRACTION,
+        SETTINGS,
+        NORMALIZATION,
+        LIST_LOOKUP,
+        PHONEBOOK_LOOKUP,
+        SMS_CONTENT_CHECK,
+        ABORT_SMS,
+        END_CALL,
+        JOURNAL_WRITE
+    }
+
+    private static final Histogram[] histograms = new Histogram[Stage.values().length];
+
+    static {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Histogram of durations
+     */
+    public static class Histogram {
+        // bucket i counts durations less than 2^i microseconds (and not less than 2^(i-1))
+        private static final int BUCKETS = 32;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long micros) {
+            if (micros < 0) {
+                micros = 0;
+            }
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(micros);
+            long current;
+            while (micros > (current = max.get())) {
+                if (max.compareAndSet(current, micros)) {
+                    break;
+                }
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        // Returns mean duration in microseconds
+        public long getMean() {
+            long n = count.get();
+            return (n == 0 ? 0 : sum.get() / n);
+        }
+
+        // Returns max duration in microseconds
+        public long getMax() {
+            return max.get();
+        }
+
+        // Returns the upper bound (in microseconds) of the bucket containing the percentile
+        public long getPercentile(double percentile) {
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long accumulated = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                accumulated += counts[i];
+                if (accumulated >= rank) {
+                    return Math.min(1L << i, getMax());
+                }
+            }
+            return getMax();
+        }
+    }
+
+    /**
+     * Returns the start time of the measured stage
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the duration of the stage started at the passed time
+     */
+    public static void record(@NonNull Stage stage, long startTime) {
+        histograms[stage.ordinal()].record((System.nanoTime() - startTime) / 1000);
+    }
+
+    public static Histogram getHistogram(@NonNull Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public static void reset() {
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Returns the text report of all stages
+     */
+    public static String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("stage;count;mean_us;p50_us;p90_us;p99_us;max_us\n");
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = getHistogram(stage);
+            sb.append(String.format(Locale.US, "%s;%d;%d;%d;%d;%d;%d\n",
+                    stage.name(),
+                    histogram.getCount(),
+                    histogram.getMean(),
+                    histogram.getPercentile(50),
+                    histogram.getPercentile(90),
+                    histogram.getPercentile(99),
+                    histogram.getMax()));
+        }
+        return sb.toString();
+    }
+}
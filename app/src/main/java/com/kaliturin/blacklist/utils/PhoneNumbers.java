@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Phone numbers normalization helper.
+ * Doesn't depend on Android framework and can be used on the plain JVM.
+ * All the checks are made in a single pass over the chars of the number without
+ * regular expressions. Normalization allocates nothing if the number doesn't
+ * contain anything to remove.
+ */
+public class PhoneNumbers {
+    // Reusable buffers for the normalization
+    private static final ThreadLocal<char[]> buffers = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[32];
+        }
+    };
+
+    // Is the char removed from a digital phone number on normalization
+    private static boolean isSeparator(char c) {
+        return (c == '-' || c == '(' || c == ')' || c == ' ');
+    }
+
+    private static boolean isDigit(char c) {
+        return (c >= '0' && c <= '9');
+    }
+
+    // Returns index of the first not whitespace char (as String.trim does)
+    private static int trimStart(CharSequence number) {
+        int start = 0, end = number.length();
+        while (start < end && number.charAt(start) <= ' ') start++;
+        return start;
+    }
+
+    // Returns index after the last not whitespace char (as String.trim does)
+    private static int trimEnd(CharSequence number, int start) {
+        int end = number.length();
+        while (end > start && number.charAt(end - 1) <= ' ') end--;
+        return end;
+    }
+
+    // Returns count of separators if the number in the range is digital
+    // (looks like "[+]?[0-9-() ]+") or -1 if it is symbolic
+    private static int countSeparators(CharSequence number, int start, int end) {
+        if (start < end && number.charAt(start) == '+') {
+            start++;
+        }
+        if (start == end) {
+            return -1;
+        }
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            char c = number.charAt(i);
+            if (isSeparator(c)) {
+                count++;
+            } else if (!isDigit(c)) {
+                return -1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * If passed phone number is digital and not symbolic then normalizes
+     * it, removing brackets, dashes and spaces.
+     */
+    public static String normalize(@NonNull String number) {
+        int start = trimStart(number);
+        int end = trimEnd(number, start);
+        int separators = countSeparators(number, start, end);
+        if (separators <= 0) {
+            // symbolic or already normalized number - just trim it
+            return (start == 0 && end == number.length() ?
+                    number : number.substring(start, end));
+        }
+
+        char[] buffer = buffers.get();
+        if (buffer.length < end - start) {
+            buffer = new char[end - start];
+            buffers.set(buffer);
+        }
+        int length = write(number, start, end, buffer);
+        return new String(buffer, 0, length);
+    }
+
+    // Writes the digital number skipping the separators
+    private static int write(CharSequence number, int start, int end, char[] buffer) {
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = number.charAt(i);
+            if (!isSeparator(c)) {
+                buffer[length++] = c;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Checks whether passed phone number is private
+     */
+    public static boolean isPrivate(@Nullable String number) {
+        if (number == null) {
+            return true;
+        }
+        int start = trimStart(number);
+        int end = trimEnd(number, start);
+        if (start == end) {
+            return true;
+        }
+        // the number is private if it is a negative integer (fitting to long)
+        if (number.charAt(start) != '-' || ++start == end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (!isDigit(number.charAt(i))) {
+                return false;
+            }
+        }
+        // skip leading zeros
+        int first = start;
+        while (first < end && number.charAt(first) == '0') first++;
+        int digits = end - first;
+        if (digits == 0) {
+            // "-0" isn't negative
+            return false;
+        }
+        if (digits < LONG_MIN_DIGITS.length()) {
+            return true;
+        }
+        if (digits > LONG_MIN_DIGITS.length()) {
+            return false;
+        }
+        // compare with the absolute value of Long.MIN_VALUE
+        for (int i = 0; i < digits; i++) {
+            char c = number.charAt(first + i);
+            char m = LONG_MIN_DIGITS.charAt(i);
+            if (c != m) {
+                return (c < m);
+            }
+        }
+        return true;
+    }
+
+    // Absolute value of Long.MIN_VALUE
+    private static final String LONG_MIN_DIGITS = "9223372036854775808";
+
+    /**
+     * Country rules of phone numbers canonicalization. Converts numbers in the
+     * national form to the international one, so "8 (495) 123-45-67" and
+     * "+7 495 123-45-67" become equal for the country code "7" and trunk prefix "8".
+     */
+    public static class Country {
+        // Min length of the national number (short service numbers are left as is)
+        private static final int MIN_NATIONAL_NUMBER_LENGTH = 7;
+        private static final String INTERNATIONAL_PREFIX = "00";
+
+        public final String code;
+        public final String trunkPrefix;
+
+        Country(@NonNull String code, @NonNull String trunkPrefix) {
+            this.code = code;
+            this.trunkPrefix = trunkPrefix;
+        }
+
+        /**
+         * Returns country rules from the passed code and trunk prefix or
+         * null if the code isn't defined
+         */
+        @Nullable
+        public static Country valueOf(@Nullable String code, @Nullable String trunkPrefix) {
+            code = (code == null ? "" : normalize(code));
+            if (code.startsWith("+")) {
+                code = code.substring(1);
+            }
+            trunkPrefix = (trunkPrefix == null ? "" : normalize(trunkPrefix));
+            if (code.isEmpty() || !isDigital(code) || !isDigital(trunkPrefix)) {
+                return null;
+            }
+            return new Country(code, trunkPrefix);
+        }
+
+        /**
+         * Converts the normalized number to the international form if it is possible
+         */
+        public String canonicalize(@NonNull String number) {
+            return canonicalize(number, MIN_NATIONAL_NUMBER_LENGTH);
+        }
+
+        /**
+         * Converts the normalized prefix of a number to the international form
+         * if it is possible
+         */
+        public String canonicalizePrefix(@NonNull String prefix) {
+            if (trunkPrefix.isEmpty()) {
+                // national prefix can't be recognized without the trunk prefix
+                return (prefix.startsWith(INTERNATIONAL_PREFIX) && isDigital(prefix) ?
+                        "+" + prefix.substring(INTERNATIONAL_PREFIX.length()) : prefix);
+            }
+            return canonicalize(prefix, trunkPrefix.length() + 1);
+        }
+
+        private String canonicalize(String number, int minLength) {
+            if (number.startsWith("+") || !isDigital(number)) {
+                return number;
+            }
+            if (number.startsWith(INTERNATIONAL_PREFIX)) {
+                return "+" + number.substring(INTERNATIONAL_PREFIX.length());
+            }
+            if (trunkPrefix.isEmpty()) {
+                if (number.length() >= minLength) {
+                    return "+" + code + number;
+                }
+            } else if (number.startsWith(trunkPrefix) && number.length() >= minLength) {
+                return "+" + code + number.substring(trunkPrefix.length());
+            }
+            return number;
+        }
+
+        private static boolean isDigital(String number) {
+            for (int i = 0; i < number.length(); i++) {
+                if (!isDigit(number.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
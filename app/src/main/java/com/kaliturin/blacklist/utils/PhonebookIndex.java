@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.DeletedContacts;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.telephony.PhoneNumberUtils;
+import android.util.Log;
+
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Contact;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactNumber;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory index of the phonebook numbers: normalized number -> (contact id, name).
+ * Is loaded lazily in background and then kept current by the observer of the
+ * contacts provider, so resolving a number to the contact costs no provider
+ * round-trips. Numbers are matched like PhoneLookup does: candidates are found by
+ * the caller id "min match" key and then compared by PhoneNumberUtils.
+ */
+public class PhonebookIndex {
+    private static final String TAG = PhonebookIndex.class.getName();
+    private static final long SYNC_DELAY = 1000;
+    private static final int MAX_UPDATED_CONTACTS = 500;
+    private static volatile PhonebookIndex sInstance = null;
+
+    private final Context context;
+    private final ContentResolver contentResolver;
+    private final Handler handler;
+    // min match key -> entries
+    private final Map<String, List<Entry>> entries = new HashMap<>();
+    // contact id -> min match keys of the contact's numbers
+    private final Map<Long, Set<String>> contactKeys = new HashMap<>();
+    // all access to the maps is guarded by the instance lock
+    private boolean loaded = false;
+    // time of the last synchronization (is accessed from the handler's thread only)
+    private long syncTime = 0;
+
+    // Phonebook number entry
+    private static class Entry {
+        final long contactId;
+        final String name;
+        final String number;
+
+        Entry(long contactId, String name, String number) {
+            this.contactId = contactId;
+            this.name = name;
+            this.number = number;
+        }
+    }
+
+    public static PhonebookIndex getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (PhonebookIndex.class) {
+                if (sInstance == null) {
+                    sInstance = new PhonebookIndex(context.getApplicationContext());
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    private PhonebookIndex(Context context) {
+        this.context = context;
+        contentResolver = context.getContentResolver();
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(syncTask);
+        contentResolver.registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true,
+                new ContentObserver(handler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        handler.removeCallbacks(syncTask);
+                        handler.postDelayed(syncTask, SYNC_DELAY);
+                    }
+                });
+    }
+
+    /**
+     * Returns true if the index is loaded and can be used for lookups
+     */
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Returns the contact (without numbers) owning the number or null if
+     * there isn't any. Must be called only if the index is loaded.
+     */
+    @Nullable
+    public Contact getContact(@NonNull String number) {
+        String key = PhoneNumberUtils.toCallerIDMinMatch(number);
+        if (key == null) {
+            return null;
+        }
+        synchronized (this) {
+            List<Entry> list = entries.get(key);
+            if (list != null) {
+                for (Entry entry : list) {
+                    if (PhoneNumberUtils.compare(entry.number, number)) {
+                        return new Contact(entry.contactId, entry.name, 0,
+                                new LinkedList<ContactNumber>());
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private final Runnable syncTask = new Runnable() {
+        @Override
+        public void run() {
+            sync();
+        }
+    };
+
+    // Brings the index up to date with the contacts provider
+    private void sync() {
+        if (!Permissions.isGranted(context, Permissions.READ_CONTACTS)) {
+            return;
+        }
+        try {
+            if (isLoaded() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                update();
+            } else {
+                load();
+            }
+        } catch (Exception e) {
+            // provider can throw on some devices
+            Log.w(TAG, e);
+        }
+    }
+
+    // Loads all the phonebook numbers
+    private void load() {
+        long time = System.currentTimeMillis();
+        Map<Long, List<Entry>> contacts = queryEntries(null);
+        synchronized (this) {
+            entries.clear();
+            contactKeys.clear();
+            for (Map.Entry<Long, List<Entry>> contact : contacts.entrySet()) {
+                put(contact.getKey(), contact.getValue());
+            }
+            loaded = true;
+        }
+        syncTime = time;
+    }
+
+    // Updates the entries of the contacts changed since the last synchronization
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void update() {
+        long time = System.currentTimeMillis();
+
+        // get ids of the deleted contacts
+        Set<Long> deleted = new HashSet<>();
+        Cursor cursor = contentResolver.query(DeletedContacts.CONTENT_URI,
+                new String[]{DeletedContacts.CONTACT_ID},
+                DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ? ",
+                new String[]{String.valueOf(syncTime)},
+                null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                deleted.add(cursor.getLong(0));
+            }
+            cursor.close();
+        }
+
+        // get numbers of the updated contacts
+        Set<Long> updated = new HashSet<>();
+        cursor = contentResolver.query(ContactsContract.Contacts.CONTENT_URI,
+                new String[]{ContactsContract.Contacts._ID},
+                ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " > ? ",
+                new String[]{String.valueOf(syncTime)},
+                null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                updated.add(cursor.getLong(0));
+            }
+            cursor.close();
+        }
+        if (updated.size() > MAX_UPDATED_CONTACTS) {
+            // it is cheaper to reload everything
+            load();
+            return;
+        }
+        Map<Long, List<Entry>> contacts = (updated.isEmpty() ?
+                new HashMap<Long, List<Entry>>() : queryEntries(updated));
+
+        synchronized (this) {
+            for (Long contactId : deleted) {
+                remove(contactId);
+            }
+            for (Long contactId : updated) {
+                remove(contactId);
+                List<Entry> list = contacts.get(contactId);
+                if (list != null) {
+                    put(contactId, list);
+                }
+            }
+        }
+        syncTime = time;
+    }
+
+    // Selects the numbers of the specified (or all) contacts grouped by contact id
+    private Map<Long, List<Entry>> queryEntries(@Nullable Set<Long> contactIds) {
+        Map<Long, List<Entry>> contacts = new HashMap<>();
+        String selection = Phone.NUMBER + " IS NOT NULL AND " +
+                Phone.DISPLAY_NAME + " IS NOT NULL ";
+        if (contactIds != null) {
+            selection += " AND " + Phone.CONTACT_ID + " IN (" + join(contactIds) + ")";
+        }
+        Cursor cursor = contentResolver.query(Phone.CONTENT_URI,
+                new String[]{Phone.CONTACT_ID, Phone.DISPLAY_NAME, Phone.NUMBER},
+                selection, null, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                long contactId = cursor.getLong(0);
+                String name = cursor.getString(1);
+                String number = PhoneNumbers.normalize(cursor.getString(2));
+                List<Entry> list = contacts.get(contactId);
+                if (list == null) {
+                    list = new ArrayList<>(1);
+                    contacts.put(contactId, list);
+                }
+                list.add(new Entry(contactId, name, number));
+            }
+            cursor.close();
+        }
+        return contacts;
+    }
+
+    // Puts the entries of the contact (must be called under the lock)
+    private void put(long contactId, List<Entry> list) {
+        Set<String> keys = new HashSet<>();
+        for (Entry entry : list) {
+            String key = PhoneNumberUtils.toCallerIDMinMatch(entry.number);
+            if (key == null) {
+                continue;
+            }
+            List<Entry> keyEntries = entries.get(key);
+            if (keyEntries == null) {
+                keyEntries = new ArrayList<>(1);
+                entries.put(key, keyEntries);
+            }
+            keyEntries.add(entry);
+            keys.add(key);
+        }
+        contactKeys.put(contactId, keys);
+    }
+
+    // Removes the entries of the contact (must be called under the lock)
+    private void remove(long contactId) {
+        Set<String> keys = contactKeys.remove(contactId);
+        if (keys == null) {
+            return;
+        }
+        for (String key : keys) {
+            List<Entry> keyEntries = entries.get(key);
+            if (keyEntries == null) {
+                continue;
+            }
+            for (int i = keyEntries.size() - 1; i >= 0; i--) {
+                if (keyEntries.get(i).contactId == contactId) {
+                    keyEntries.remove(i);
+                }
+            }
+            if (keyEntries.isEmpty()) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    private static String join(Set<Long> ids) {
+        StringBuilder sb = new StringBuilder();
+        for (Long id : ids) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(id);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent set of the normalized addresses of the SMS content list.
+ * Is filled once and then kept current by the observer of the SMS content
+ * provider, so checking whether a number is met in the SMS content
+ * list costs a single hash lookup.
+ * All the updates are made in the own background thread.
+ */
+public class SMSAddressIndex {
+    private static final String TAG = SMSAddressIndex.class.getName();
+    private static final String FILE_NAME = "sms_addresses.idx";
+    private static final int FILE_VERSION = 1;
+    private static final long SYNC_DELAY = 500;
+    private static final Uri URI_CONTENT_SMS = Uri.parse("content://sms");
+    private static final String ID = "_id";
+    private static final String ADDRESS = "address";
+    private static volatile SMSAddressIndex sInstance = null;
+
+    private final Context context;
+    private final ContentResolver contentResolver;
+    private final Handler handler;
+    // set of addresses or null if it isn't ready yet
+    private volatile Set<String> addresses = null;
+    // the last indexed message id and the count of indexed messages,
+    // are accessed from the handler's thread only
+    private long lastId = 0;
+    private int count = 0;
+
+    public static SMSAddressIndex getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (SMSAddressIndex.class) {
+                if (sInstance == null) {
+                    sInstance = new SMSAddressIndex(context.getApplicationContext());
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    private SMSAddressIndex(Context context) {
+        this.context = context;
+        contentResolver = context.getContentResolver();
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                load();
+                sync();
+            }
+        });
+        contentResolver.registerContentObserver(URI_CONTENT_SMS, true,
+                new ContentObserver(handler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        scheduleSync();
+                    }
+                });
+    }
+
+    /**
+     * Returns true if the normalized number is met in the SMS content list,
+     * or null if the index isn't ready yet
+     */
+    @Nullable
+    public Boolean contains(@NonNull String number) {
+        Set<String> set = addresses;
+        return (set == null ? null : set.contains(number));
+    }
+
+    /**
+     * Rebuilds the index from scratch in background
+     */
+    public void rebuild() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                rebuildIndex();
+            }
+        });
+    }
+
+    private final Runnable syncTask = new Runnable() {
+        @Override
+        public void run() {
+            sync();
+        }
+    };
+
+    // Schedules synchronization (collapses the bursts of changes)
+    private void scheduleSync() {
+        handler.removeCallbacks(syncTask);
+        handler.postDelayed(syncTask, SYNC_DELAY);
+    }
+
+    // Brings the index up to date with the SMS content provider
+    private void sync() {
+        if (!Permissions.isGranted(context, Permissions.READ_SMS)) {
+            return;
+        }
+        if (addresses == null) {
+            rebuildIndex();
+            return;
+        }
+
+        long[] stats = queryStats();
+        if (stats == null || (stats[0] == lastId && stats[1] == count)) {
+            return;
+        }
+
+        // add addresses of the new messages
+        int added = 0;
+        long maxId = lastId;
+        Cursor cursor = query(new String[]{ID, ADDRESS},
+                ID + " > " + lastId + " AND " + ADDRESS + " IS NOT NULL ");
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                maxId = Math.max(maxId, cursor.getLong(0));
+                addresses.add(PhoneNumbers.normalize(cursor.getString(1)));
+                added++;
+            }
+            cursor.close();
+        }
+
+        if (count + added != stats[1]) {
+            // some messages were deleted - their addresses can't be removed incrementally
+            rebuildIndex();
+            return;
+        }
+
+        lastId = maxId;
+        count += added;
+        save();
+    }
+
+    // Builds the index from scratch
+    private void rebuildIndex() {
+        if (!Permissions.isGranted(context, Permissions.READ_SMS)) {
+            return;
+        }
+
+        // get stats before the addresses - all messages coming later will be synchronized
+        long[] stats = queryStats();
+        if (stats == null) {
+            return;
+        }
+
+        Set<String> set = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        Cursor cursor = query(new String[]{"DISTINCT " + ADDRESS},
+                ADDRESS + " IS NOT NULL) GROUP BY (" + ADDRESS);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                set.add(PhoneNumbers.normalize(cursor.getString(0)));
+            }
+            cursor.close();
+        }
+
+        lastId = stats[0];
+        count = (int) stats[1];
+        addresses = set;
+        save();
+    }
+
+    // Returns the max id and the count of the messages with address
+    @Nullable
+    private long[] queryStats() {
+        Cursor cursor = query(new String[]{"MAX(" + ID + ")", "COUNT(" + ID + ")"},
+                ADDRESS + " IS NOT NULL ");
+        long[] stats = null;
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                stats = new long[]{cursor.getLong(0), cursor.getLong(1)};
+            }
+            cursor.close();
+        }
+        return stats;
+    }
+
+    @Nullable
+    private Cursor query(String[] projection, String selection) {
+        try {
+            return contentResolver.query(URI_CONTENT_SMS, projection, selection, null, null);
+        } catch (Exception e) {
+            Log.w(TAG, e);
+        }
+        return null;
+    }
+
+    // Loads the index from the file
+    private void load() {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream stream = null;
+        try {
+            stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (stream.readInt() != FILE_VERSION) {
+                return;
+            }
+            long id = stream.readLong();
+            int n = stream.readInt();
+            int size = stream.readInt();
+            Set<String> set = Collections.newSetFromMap(
+                    new ConcurrentHashMap<String, Boolean>(Math.max(16, size * 2)));
+            for (int i = 0; i < size; i++) {
+                set.add(stream.readUTF());
+            }
+            lastId = id;
+            count = n;
+            addresses = set;
+        } catch (IOException e) {
+            Log.w(TAG, e);
+        } finally {
+            Utils.close(stream);
+        }
+    }
+
+    // Saves the index to the file
+    private void save() {
+        Set<String> set = addresses;
+        if (set == null) {
+            return;
+        }
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        File tmpFile = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+        DataOutputStream stream = null;
+        try {
+            stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            stream.writeInt(FILE_VERSION);
+            stream.writeLong(lastId);
+            stream.writeInt(count);
+            stream.writeInt(set.size());
+            for (String address : set) {
+                stream.writeUTF(address);
+            }
+            stream.close();
+            stream = null;
+            if (!tmpFile.renameTo(file)) {
+                Log.w(TAG, "Unable to write the file " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, e);
+        } finally {
+            Utils.close(stream);
+        }
+    }
+}
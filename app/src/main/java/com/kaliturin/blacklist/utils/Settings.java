@@ -23,9 +23,9 @@ import android.support.annotation.Nullable;
 
 import com.kaliturin.blacklist.R;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Settings name/value persistence container
@@ -63,38 +63,109 @@ public class Settings {
     public static final String DONT_EXIT_ON_BACK_PRESSED = "DONT_EXIT_ON_BACK_PRESSED";
     public static final String REMOVE_FROM_CALL_LOG = "REMOVE_FROM_CALL_LOG";
     public static final String SIM_SUBSCRIPTION_ID = "SIM_SUBSCRIPTION";
+    public static final String COUNTRY_CODE = "COUNTRY_CODE";
+    public static final String TRUNK_PREFIX = "TRUNK_PREFIX";
+    public static final String JOURNAL_MAX_AGE_DAYS = "JOURNAL_MAX_AGE_DAYS";
+    public static final String JOURNAL_MAX_RECORDS = "JOURNAL_MAX_RECORDS";
+    public static final String JOURNAL_KEEP_AGGREGATES = "JOURNAL_KEEP_AGGREGATES";
+    public static final String JOURNAL_FOLD_WINDOW_MINUTES = "JOURNAL_FOLD_WINDOW_MINUTES";
 
     private static final String TRUE = "TRUE";
     private static final String FALSE = "FALSE";
 
-    private static Map<String, String> settingsMap = new ConcurrentHashMap<>();
+    // the current snapshot of settings (null if it isn't loaded yet)
+    private static volatile Snapshot snapshot = null;
+    // the version of the last created snapshot (is guarded by the class lock)
+    private static int lastVersion = 0;
+
+    /**
+     * Immutable snapshot of all settings. Is loaded by one query and is
+     * replaced as a whole on every change, so the values read from the
+     * same snapshot are always consistent with each other.
+     */
+    public static class Snapshot {
+        public final int version;
+        private final Map<String, String> values;
+
+        private Snapshot(int version, Map<String, String> values) {
+            this.version = version;
+            this.values = Collections.unmodifiableMap(values);
+        }
+
+        @Nullable
+        public String getStringValue(@NonNull String name) {
+            return values.get(name);
+        }
+
+        public boolean getBooleanValue(@NonNull String name) {
+            return TRUE.equals(values.get(name));
+        }
+
+        // Returns the copy of the snapshot with the changed value
+        private Snapshot with(String name, String value) {
+            Map<String, String> map = new HashMap<>(values);
+            map.put(name, value);
+            return new Snapshot(++lastVersion, map);
+        }
+    }
 
     public static void invalidateCache() {
-        settingsMap.clear();
+        snapshot = null;
+    }
+
+    // Returns the current snapshot of settings, loads it at the first call
+    public static Snapshot getSnapshot(Context context) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (Settings.class) {
+                current = snapshot;
+                if (current == null) {
+                    Map<String, String> values = loadValues(context);
+                    if (values == null) {
+                        // data are unavailable yet - don't cache the empty snapshot
+                        return new Snapshot(lastVersion, new HashMap<String, String>());
+                    }
+                    current = new Snapshot(++lastVersion, values);
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    // Loads all settings values, returns null if they are unavailable
+    @Nullable
+    private static Map<String, String> loadValues(Context context) {
+        // the image is current if it exists, so the database isn't needed then
+        BlocklistImage image = BlocklistImage.get(context);
+        if (image != null) {
+            return image.getAllSettings();
+        }
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db != null) {
+            return db.getAllSettings();
+        }
+        return null;
     }
 
     public static boolean setStringValue(Context context, @NonNull String name, @NonNull String value) {
         DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
-        if (db != null && db.setSettingsValue(name, value)) {
-            settingsMap.put(name, value);
-            return true;
+        if (db == null) {
+            return false;
+        }
+        synchronized (Settings.class) {
+            Snapshot current = getSnapshot(context);
+            if (db.setSettingsValue(name, value)) {
+                snapshot = current.with(name, value);
+                return true;
+            }
         }
         return false;
     }
 
     @Nullable
     public static String getStringValue(Context context, @NonNull String name) {
-        String value = settingsMap.get(name);
-        if (value == null) {
-            DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
-            if (db != null) {
-                value = db.getSettingsValue(name);
-                if (value != null) {
-                    settingsMap.put(name, value);
-                }
-            }
-        }
-        return value;
+        return getSnapshot(context).getStringValue(name);
     }
 
     public static boolean setBooleanValue(Context context, @NonNull String name, boolean value) {
@@ -103,8 +174,7 @@ public class Settings {
     }
 
     public static boolean getBooleanValue(Context context, @NonNull String name) {
-        String value = getStringValue(context, name);
-        return (value != null && value.equals(TRUE));
+        return getSnapshot(context).getBooleanValue(name);
     }
 
     public static boolean setIntegerValue(Context context, @NonNull String name, int value) {
@@ -152,9 +222,17 @@ public class Settings {
         map.put(DONT_EXIT_ON_BACK_PRESSED, FALSE);
         map.put(REMOVE_FROM_CALL_LOG, FALSE);
         map.put(SIM_SUBSCRIPTION_ID, "-1");
+        map.put(COUNTRY_CODE, "");
+        map.put(TRUNK_PREFIX, "");
+        map.put(JOURNAL_MAX_AGE_DAYS, "0");
+        map.put(JOURNAL_MAX_RECORDS, "0");
+        map.put(JOURNAL_KEEP_AGGREGATES, TRUE);
+        map.put(JOURNAL_FOLD_WINDOW_MINUTES, "0");
 
         if (!Permissions.isGranted(context, Permissions.WRITE_EXTERNAL_STORAGE)) {
-            settingsMap = new ConcurrentHashMap<>(map);
+            synchronized (Settings.class) {
+                snapshot = new Snapshot(++lastVersion, map);
+            }
         } else {
             for (Map.Entry<String, String> entry : map.entrySet()) {
                 String name = entry.getKey();
@@ -166,6 +244,32 @@ public class Settings {
         }
     }
 
+    // Returns the rules of SMS blocking
+    public static BlockingDecisionEngine.Rules getSMSBlockingRules(Context context) {
+        Snapshot settings = getSnapshot(context);
+        return new BlockingDecisionEngine.Rules(
+                settings.getBooleanValue(BLOCK_PRIVATE_SMS),
+                settings.getBooleanValue(BLOCK_ALL_SMS),
+                settings.getBooleanValue(BLOCK_SMS_FROM_BLACK_LIST),
+                settings.getBooleanValue(BLOCK_SMS_NOT_FROM_CONTACTS) &&
+                        Permissions.isGranted(context, Permissions.READ_CONTACTS),
+                settings.getBooleanValue(BLOCK_SMS_NOT_FROM_SMS_CONTENT) &&
+                        Permissions.isGranted(context, Permissions.READ_SMS));
+    }
+
+    // Returns the rules of calls blocking
+    public static BlockingDecisionEngine.Rules getCallBlockingRules(Context context) {
+        Snapshot settings = getSnapshot(context);
+        return new BlockingDecisionEngine.Rules(
+                settings.getBooleanValue(BLOCK_PRIVATE_CALLS),
+                settings.getBooleanValue(BLOCK_ALL_CALLS),
+                settings.getBooleanValue(BLOCK_CALLS_FROM_BLACK_LIST),
+                settings.getBooleanValue(BLOCK_CALLS_NOT_FROM_CONTACTS) &&
+                        Permissions.isGranted(context, Permissions.READ_CONTACTS),
+                settings.getBooleanValue(BLOCK_CALLS_NOT_FROM_SMS_CONTENT) &&
+                        Permissions.isGranted(context, Permissions.READ_SMS));
+    }
+
     // Applies the current UI theme depending on settings
     public static void applyCurrentTheme(Activity activity) {
         if (getBooleanValue(activity, Settings.UI_THEME_DARK)) {
@@ -45,10 +45,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.zip.CRC32;
 
 /**
  * Some utils methods
@@ -56,6 +57,7 @@ import java.text.SimpleDateFormat;
 
 public class Utils {
     private static final String TAG = Utils.class.getName();
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
 
     /**
      * Tints menu icon
@@ -164,25 +166,63 @@ public class Utils {
      * Copies file from source to destination
      **/
     public static boolean copyFile(File src, File dst) {
-        InputStream in = null;
-        OutputStream out = null;
+        return (copyFileWithChecksum(src, dst) != -1);
+    }
+
+    /**
+     * Copies file from source to destination and flushes it to the storage.
+     * Returns CRC32 of the copied data or -1 on error.
+     **/
+    public static long copyFileWithChecksum(File src, File dst) {
+        FileInputStream in = null;
+        FileOutputStream out = null;
         try {
             in = new FileInputStream(src);
             out = new FileOutputStream(dst);
-            byte[] buffer = new byte[1024];
-            int length;
-            while ((length = in.read(buffer)) > 0) {
-                out.write(buffer, 0, length);
+            FileChannel inChannel = in.getChannel();
+            FileChannel outChannel = out.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(FILE_BUFFER_SIZE);
+            CRC32 crc = new CRC32();
+            while (inChannel.read(buffer) > 0) {
+                crc.update(buffer.array(), 0, buffer.position());
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    outChannel.write(buffer);
+                }
+                buffer.clear();
             }
+            out.getFD().sync();
+            return crc.getValue();
         } catch (IOException e) {
             Log.w(TAG, e);
-            return false;
+            return -1;
         } finally {
             close(in);
             close(out);
         }
+    }
 
-        return true;
+    /**
+     * Returns CRC32 of the file data or -1 on error
+     **/
+    public static long getFileChecksum(File file) {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(FILE_BUFFER_SIZE);
+            CRC32 crc = new CRC32();
+            while (channel.read(buffer) > 0) {
+                crc.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            return crc.getValue();
+        } catch (IOException e) {
+            Log.w(TAG, e);
+            return -1;
+        } finally {
+            close(in);
+        }
     }
 
     public static void close(Closeable closeable) {
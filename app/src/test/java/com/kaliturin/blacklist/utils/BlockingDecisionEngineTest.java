@@ -0,0 +1,149 @@
+package com.kaliturin.blacklist.utils;
+
+import com.kaliturin.blacklist.utils.BlockingDecisionEngine.Rule;
+import com.kaliturin.blacklist.utils.BlockingDecisionEngine.Rules;
+import com.kaliturin.blacklist.utils.BlockingDecisionEngine.Verdict;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Contact;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactNumber;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Blocking decision engine unit test
+ */
+public class BlockingDecisionEngineTest {
+
+    // Data source keeping all the data in memory
+    private static class TestDataSource implements BlockingDecisionEngine.DataSource {
+        final List<ContactNumber> numbers = new LinkedList<>();
+        final List<Contact> contacts = new LinkedList<>();
+        final Set<String> phonebook = new HashSet<>();
+        final Set<String> smsContent = new HashSet<>();
+
+        void addContact(int type, String name, String number, int numberType) {
+            long id = contacts.size() + 1;
+            contacts.add(new Contact(id, name, type, new LinkedList<ContactNumber>()));
+            numbers.add(new ContactNumber(numbers.size() + 1, number, numberType, id));
+        }
+
+        @Override
+        public List<Contact> getContacts(String number) {
+            List<Contact> result = new LinkedList<>();
+            for (ContactNumber contactNumber : new ContactNumberMatcher(numbers).match(number)) {
+                for (Contact contact : contacts) {
+                    if (contact.id == contactNumber.contactId) {
+                        result.add(contact);
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public boolean isInContacts(String number) {
+            return phonebook.contains(number);
+        }
+
+        @Override
+        public boolean isInSMSContent(String number) {
+            return smsContent.contains(number);
+        }
+    }
+
+    private static Rules rules(boolean blockPrivate, boolean blockAll, boolean blockFromBlackList,
+                               boolean blockNotFromContacts, boolean blockNotFromSMSContent) {
+        return new Rules(blockPrivate, blockAll, blockFromBlackList,
+                blockNotFromContacts, blockNotFromSMSContent);
+    }
+
+    @Test
+    public void privateNumber() throws Exception {
+        BlockingDecisionEngine engine = new BlockingDecisionEngine(new TestDataSource());
+
+        Verdict verdict = engine.decide("-2", rules(true, false, false, false, false));
+        assertTrue(verdict.block);
+        assertTrue(verdict.isPrivate);
+        assertEquals(Rule.PRIVATE, verdict.rule);
+
+        verdict = engine.decide(null, rules(false, false, true, false, false));
+        assertFalse(verdict.block);
+        assertTrue(verdict.isPrivate);
+
+        verdict = engine.decide("", rules(false, true, false, false, false));
+        assertTrue(verdict.block);
+    }
+
+    @Test
+    public void blackAndWhiteLists() throws Exception {
+        TestDataSource source = new TestDataSource();
+        source.addContact(Contact.TYPE_BLACK_LIST, "Spam", "+7495", ContactNumber.TYPE_STARTS);
+        source.addContact(Contact.TYPE_WHITE_LIST, "Friend", "+74951234567", ContactNumber.TYPE_EQUALS);
+        BlockingDecisionEngine engine = new BlockingDecisionEngine(source);
+
+        Verdict verdict = engine.decide("+7 (495) 765-43-21", rules(false, false, true, false, false));
+        assertTrue(verdict.block);
+        assertEquals(Rule.BLACK_LIST, verdict.rule);
+        assertEquals("+74957654321", verdict.number);
+        assertEquals("Spam", verdict.name);
+
+        verdict = engine.decide("+74951234567", rules(false, true, true, false, false));
+        assertFalse(verdict.block);
+        assertEquals(Rule.WHITE_LIST, verdict.rule);
+
+        verdict = engine.decide("+74957654321", rules(false, false, false, false, false));
+        assertFalse(verdict.block);
+        assertEquals(Rule.NONE, verdict.rule);
+
+        verdict = engine.decide("12345", rules(false, true, false, false, false));
+        assertTrue(verdict.block);
+        assertEquals(Rule.ALL, verdict.rule);
+    }
+
+    @Test
+    public void notFromContactsAndSMSContent() throws Exception {
+        TestDataSource source = new TestDataSource();
+        source.phonebook.add("111");
+        source.smsContent.add("222");
+        BlockingDecisionEngine engine = new BlockingDecisionEngine(source);
+
+        Verdict verdict = engine.decide("111", rules(false, false, true, true, true));
+        assertFalse(verdict.block);
+        assertEquals(Rule.FROM_CONTACTS, verdict.rule);
+
+        verdict = engine.decide("222", rules(false, false, true, true, true));
+        assertFalse(verdict.block);
+        assertEquals(Rule.FROM_SMS_CONTENT, verdict.rule);
+
+        verdict = engine.decide("333", rules(false, false, true, true, false));
+        assertTrue(verdict.block);
+        assertEquals(Rule.NOT_FROM_CONTACTS, verdict.rule);
+        assertEquals("333", verdict.name);
+
+        verdict = engine.decide("333", rules(false, false, true, false, true));
+        assertTrue(verdict.block);
+        assertEquals(Rule.NOT_FROM_SMS_CONTENT, verdict.rule);
+        assertNull(verdict.name);
+    }
+
+    @Test
+    public void fallback() throws Exception {
+        Verdict verdict = BlockingDecisionEngine.fallback("-2", rules(true, false, false, false, false));
+        assertTrue(verdict.block);
+        assertEquals(Rule.PRIVATE, verdict.rule);
+
+        verdict = BlockingDecisionEngine.fallback("-2", null);
+        assertFalse(verdict.block);
+
+        verdict = BlockingDecisionEngine.fallback("+7 495", rules(true, true, true, true, true));
+        assertFalse(verdict.block);
+        assertEquals(Rule.TIMEOUT, verdict.rule);
+        assertEquals("+7495", verdict.number);
+    }
+}
@@ -0,0 +1,98 @@
+package com.kaliturin.blacklist.utils;
+
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactNumber;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Contact number matcher unit test
+ */
+public class ContactNumberMatcherTest {
+    private static final String[] PROBES = {
+            "", "123", "+79001234567", "89001234567", "9001234567", "0012345",
+            "ab12CD", "AB12cd34", "5554567", "+15554567", "4567", "x",
+    };
+
+    private static List<ContactNumber> numbers() {
+        List<ContactNumber> numbers = new ArrayList<>();
+        numbers.add(new ContactNumber(1, "89001234567", ContactNumber.TYPE_EQUALS, 1));
+        numbers.add(new ContactNumber(2, "+7900", ContactNumber.TYPE_STARTS, 1));
+        numbers.add(new ContactNumber(3, "4567", ContactNumber.TYPE_ENDS, 2));
+        numbers.add(new ContactNumber(4, "12", ContactNumber.TYPE_CONTAINS, 2));
+        numbers.add(new ContactNumber(5, "AB12", ContactNumber.TYPE_CONTAINS, 3));
+        numbers.add(new ContactNumber(6, "2cd", ContactNumber.TYPE_CONTAINS, 3));
+        numbers.add(new ContactNumber(7, "00", ContactNumber.TYPE_STARTS, 3));
+        numbers.add(new ContactNumber(8, "", ContactNumber.TYPE_EQUALS, 4));
+        numbers.add(new ContactNumber(9, "89001234567", ContactNumber.TYPE_EQUALS, 4));
+        return numbers;
+    }
+
+    private static ByteBuffer write(ContactNumberMatcher matcher, List<ContactNumber> numbers)
+            throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream stream = new DataOutputStream(bytes);
+        matcher.write(stream, numbers);
+        stream.close();
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static String ids(List<ContactNumber> numbers) {
+        StringBuilder builder = new StringBuilder();
+        for (ContactNumber number : numbers) {
+            builder.append(number.id).append(' ');
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void readWritten() throws Exception {
+        PhoneNumbers.Country country = PhoneNumbers.Country.valueOf("7", "8");
+        List<ContactNumber> numbers = numbers();
+        ContactNumberMatcher matcher = new ContactNumberMatcher(numbers, country);
+        ByteBuffer buffer = write(matcher, numbers);
+
+        // the numbers are read by the caller, so the read matcher has the other instances
+        ContactNumberMatcher read = ContactNumberMatcher.read(buffer, numbers(), country);
+        assertFalse(buffer.hasRemaining());
+        assertEquals(matcher.getSize(), read.getSize());
+        for (String probe : PROBES) {
+            assertEquals(probe, ids(matcher.match(probe)), ids(read.match(probe)));
+        }
+        assertEquals("4 5 6 ", ids(read.match("ab12CD")));
+    }
+
+    @Test
+    public void readEmpty() throws Exception {
+        List<ContactNumber> numbers = new ArrayList<>();
+        ContactNumberMatcher read = ContactNumberMatcher.read(
+                write(new ContactNumberMatcher(numbers), numbers), numbers, null);
+        assertEquals(0, read.getSize());
+        for (String probe : PROBES) {
+            assertTrue(read.match(probe).isEmpty());
+        }
+    }
+
+    @Test
+    public void readTruncated() throws Exception {
+        List<ContactNumber> numbers = numbers();
+        ByteBuffer buffer = write(new ContactNumberMatcher(numbers), numbers);
+        ByteBuffer truncated = ByteBuffer.wrap(buffer.array(), 0, buffer.limit() - 5).slice();
+        try {
+            ContactNumberMatcher.read(truncated, numbers, null);
+            fail();
+        } catch (BufferUnderflowException e) {
+            // the image is corrupt
+        } catch (IllegalArgumentException e) {
+            // the image is corrupt
+        }
+    }
+}
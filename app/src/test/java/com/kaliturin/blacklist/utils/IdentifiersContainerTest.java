@@ -0,0 +1,156 @@
+package com.kaliturin.blacklist.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Identifiers container unit test
+ */
+public class IdentifiersContainerTest {
+    private static final long MIN = Long.MIN_VALUE;
+    private static final long MAX = Long.MAX_VALUE;
+
+    @Test
+    public void adjacentMerge() {
+        IdentifiersContainer container = new IdentifiersContainer(100);
+        container.add(1);
+        container.add(3);
+        assertArrayEquals(new long[]{1, 1, 3, 3}, container.getRanges());
+        container.add(2);
+        assertArrayEquals(new long[]{1, 3}, container.getRanges());
+        container.addRange(4, 6);
+        container.add(0);
+        assertArrayEquals(new long[]{0, 6}, container.getRanges());
+        assertEquals(7, container.getSize());
+    }
+
+    @Test
+    public void overlappingMerge() {
+        IdentifiersContainer container = new IdentifiersContainer(100);
+        container.addRange(1, 5);
+        container.addRange(10, 15);
+        container.addRange(20, 30);
+        container.addRange(4, 11);
+        assertArrayEquals(new long[]{1, 15, 20, 30}, container.getRanges());
+        container.addRange(0, 40);
+        assertArrayEquals(new long[]{0, 40}, container.getRanges());
+        container.addRange(10, 20);
+        assertArrayEquals(new long[]{0, 40}, container.getRanges());
+        assertEquals(41, container.getSize());
+    }
+
+    @Test
+    public void splitRun() {
+        IdentifiersContainer container = new IdentifiersContainer(100);
+        container.addRange(1, 10);
+        container.remove(5);
+        assertArrayEquals(new long[]{1, 4, 6, 10}, container.getRanges());
+        container.removeRange(1, 2);
+        container.removeRange(4, 7);
+        assertArrayEquals(new long[]{3, 3, 8, 10}, container.getRanges());
+        assertEquals(4, container.getSize());
+        assertFalse(container.contains(5));
+        assertTrue(container.contains(8));
+        container.removeRange(0, 20);
+        assertTrue(container.isEmpty());
+    }
+
+    @Test
+    public void invert() {
+        IdentifiersContainer container = new IdentifiersContainer(100);
+        container.addRange(5, 7);
+        container.invert();
+        assertTrue(container.isAll());
+        assertFalse(container.contains(5));
+        assertTrue(container.contains(4));
+        assertTrue(container.contains(8));
+        assertEquals(97, container.getSize());
+        assertArrayEquals(new long[]{MIN, 4, 8, MAX}, container.getRanges());
+        container.invert();
+        assertFalse(container.isAll());
+        assertArrayEquals(new long[]{5, 7}, container.getRanges());
+
+        container.removeAll();
+        container.invert();
+        assertTrue(container.isFull());
+        container.invert();
+        assertTrue(container.isEmpty());
+    }
+
+    @Test
+    public void allWithExclusions() {
+        IdentifiersContainer container = new IdentifiersContainer(100);
+        assertTrue(container.addAll());
+        assertFalse(container.addAll());
+        container.remove(3);
+        container.removeRange(10, 12);
+        assertArrayEquals(new long[]{MIN, 2, 4, 9, 13, MAX}, container.getRanges());
+        assertEquals(96, container.getSize());
+        container.add(11);
+        assertArrayEquals(new long[]{MIN, 2, 4, 9, 11, 11, 13, MAX}, container.getRanges());
+        container.addRange(3, 12);
+        assertTrue(container.isFull());
+        assertArrayEquals(new long[]{MIN, MAX}, container.getRanges());
+        assertTrue(container.removeAll());
+        assertTrue(container.isEmpty());
+    }
+
+    @Test
+    public void edges() {
+        IdentifiersContainer container = new IdentifiersContainer(100);
+        container.addRange(MIN, MIN + 1);
+        container.add(MAX);
+        assertTrue(container.contains(MIN));
+        assertTrue(container.contains(MAX));
+        assertFalse(container.contains(MAX - 1));
+        assertArrayEquals(new long[]{MIN, MIN + 1, MAX, MAX}, container.getRanges());
+        container.invert();
+        assertArrayEquals(new long[]{MIN + 2, MAX - 1}, container.getRanges());
+        container.add(MIN);
+        assertArrayEquals(new long[]{MIN, MIN, MIN + 2, MAX - 1}, container.getRanges());
+
+        container.removeAll();
+        container.addAll();
+        container.remove(MIN);
+        container.remove(MAX);
+        assertArrayEquals(new long[]{MIN + 1, MAX - 1}, container.getRanges());
+        container.addRange(MIN, MAX);
+        assertTrue(container.isFull());
+
+        container.removeRange(MIN, MAX);
+        assertTrue(container.isEmpty());
+        container.addRange(MIN, MAX);
+        assertTrue(container.isFull());
+        assertEquals(100, container.getSize());
+    }
+
+    @Test
+    public void flipAtCapacity() {
+        IdentifiersContainer container = new IdentifiersContainer(3);
+        container.add(0);
+        container.add(1);
+        assertFalse(container.isFull());
+        container.add(2);
+        assertTrue(container.isFull());
+        assertTrue(container.isAll());
+        assertEquals(3, container.getSize());
+
+        container.remove(1);
+        assertFalse(container.isFull());
+        assertFalse(container.contains(1));
+        assertEquals(2, container.getSize());
+        container.remove(0);
+        container.remove(2);
+        assertTrue(container.isEmpty());
+        assertFalse(container.isAll());
+
+        container.addRange(0, 2);
+        assertTrue(container.isFull());
+
+        IdentifiersContainer empty = new IdentifiersContainer(0);
+        assertFalse(empty.addAll());
+        empty.add(1);
+        assertTrue(empty.isEmpty());
+    }
+}
@@ -0,0 +1,147 @@
+package com.kaliturin.blacklist.utils;
+
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactNumberTable;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactTable;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.JournalTable;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Migrations;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.SettingsTable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Journal search unit test (runs the statements of the journal on the desktop SQLite)
+ */
+public class JournalSearchTest {
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        Statement statement = connection.createStatement();
+        statement.execute(JournalTable.Statement.CREATE);
+        statement.execute(ContactTable.Statement.CREATE);
+        statement.execute(ContactNumberTable.Statement.CREATE);
+        statement.execute(SettingsTable.Statement.CREATE);
+        for (int v = 2; v <= DatabaseAccessHelper.DATABASE_VERSION; v++) {
+            for (String sql : Migrations.get(v)) {
+                statement.execute(sql);
+            }
+        }
+        statement.close();
+
+        insert(1, "+79161234567", null, "Call me back");
+        insert(2, "John", "+79169876543", "Hello world");
+        insert(3, "84951112233", null, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+    }
+
+    private void insert(long id, String caller, String number, String text) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO " + JournalTable.NAME + "(" +
+                        JournalTable.Column.ID + ", " +
+                        JournalTable.Column.TIME + ", " +
+                        JournalTable.Column.CALLER + ", " +
+                        JournalTable.Column.NUMBER + ", " +
+                        JournalTable.Column.TEXT + ") VALUES (?, ?, ?, ?, ?)");
+        statement.setLong(1, id);
+        statement.setLong(2, id);
+        statement.setString(3, caller);
+        statement.setString(4, number);
+        statement.setString(5, text);
+        statement.execute();
+        statement.close();
+    }
+
+    // Returns ids of the records found by the query
+    private List<Long> search(String query) throws SQLException {
+        JournalTable.Filter filter = JournalTable.Filter.valueOf(query);
+        assertNotNull(filter);
+        PreparedStatement statement = connection.prepareStatement(
+                JournalTable.Statement.getSelectPage(filter.clause, false));
+        for (int i = 0; i < filter.args.length; i++) {
+            statement.setString(i + 1, filter.args[i]);
+        }
+        List<Long> ids = new LinkedList<>();
+        ResultSet result = statement.executeQuery();
+        while (result.next()) {
+            ids.add(result.getLong(1));
+        }
+        result.close();
+        statement.close();
+        return ids;
+    }
+
+    @Test
+    public void wordPrefix() throws Exception {
+        assertEquals(list(2L), search("hel"));
+        assertEquals(list(2L), search("wor hel"));
+        assertEquals(list(1L), search("BACK"));
+        assertEquals(list(2L), search("joh"));
+        assertEquals(list(), search("orld"));
+    }
+
+    @Test
+    public void partialNumber() throws Exception {
+        assertEquals(list(2L, 1L), search("916"));
+        assertEquals(list(1L), search("1234"));
+        assertEquals(list(1L), search("+7916123"));
+        assertEquals(list(1L), search("(916) 123-45"));
+        assertEquals(list(3L), search("111"));
+        assertEquals(list(2L), search("9876543"));
+        assertEquals(list(), search("000"));
+    }
+
+    @Test
+    public void compressedText() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() <= JournalTable.TEXT_PREVIEW_LENGTH) {
+            builder.append("Lorem ipsum dolor sit amet ");
+        }
+        String text = builder.append("tailword").toString();
+        insert(4, "Spam", null, JournalBody.getPreview(text, JournalTable.TEXT_PREVIEW_LENGTH));
+        assertEquals(list(), search("tailw"));
+
+        // the full text of the body is indexed as the record is inserted
+        PreparedStatement statement = connection.prepareStatement(
+                JournalTable.Statement.UPDATE_FTS_TEXT);
+        statement.setString(1, text);
+        statement.setLong(2, 4);
+        statement.execute();
+        statement.close();
+        assertEquals(list(4L), search("tailw"));
+        assertEquals(list(4L), search("lorem"));
+    }
+
+    @Test
+    public void noWords() throws Exception {
+        assertEquals(list(), search("!!"));
+        assertFalse(JournalTable.Filter.isNumberPart("+"));
+        assertFalse(JournalTable.Filter.isNumberPart("9+1"));
+        assertTrue(JournalTable.Filter.isNumberPart(" +7 (916) "));
+    }
+
+    private static List<Long> list(Long... ids) {
+        List<Long> list = new LinkedList<>();
+        for (Long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+}
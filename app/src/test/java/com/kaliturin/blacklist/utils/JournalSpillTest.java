@@ -0,0 +1,118 @@
+package com.kaliturin.blacklist.utils;
+
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.JournalRecord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Journal spill file unit test
+ */
+public class JournalSpillTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("journal", ".spill");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (file.exists()) {
+            assertTrue(file.delete());
+        }
+    }
+
+    private static JournalRecord record(long time) {
+        return new JournalRecord(0, time, "caller" + time, null, (time % 2 == 0 ? "text" : null));
+    }
+
+    private static void assertRecords(List<JournalRecord> records, long... times) {
+        assertEquals(times.length, records.size());
+        for (int i = 0; i < times.length; i++) {
+            JournalRecord record = records.get(i);
+            assertEquals(times[i], record.time);
+            assertEquals("caller" + times[i], record.caller);
+            assertNull(record.number);
+            assertEquals((times[i] % 2 == 0 ? "text" : null), record.text);
+        }
+    }
+
+    @Test
+    public void writeBeforeRecovery() throws Exception {
+        // the process is killed before the commit
+        JournalSpill spill = new JournalSpill(file);
+        spill.add(record(1));
+        spill.add(record(2));
+
+        // the new process writes the record at once
+        spill = new JournalSpill(file);
+        spill.add(record(3));
+        assertRecords(spill.takeAll(), 1, 2, 3);
+
+        // and is killed too
+        spill = new JournalSpill(file);
+        assertRecords(spill.takeAll(), 1, 2, 3);
+    }
+
+    @Test
+    public void rewriteAfterCommit() throws Exception {
+        JournalSpill spill = new JournalSpill(file);
+        spill.add(record(1));
+        List<JournalRecord> records = spill.takeAll();
+        spill.add(record(2));
+        spill.rewrite();
+        assertRecords(records, 1);
+        assertRecords(new JournalSpill(file).takeAll(), 2);
+
+        spill.takeAll();
+        spill.rewrite();
+        assertFalse(file.exists());
+        spill.add(record(3));
+        assertRecords(new JournalSpill(file).takeAll(), 3);
+    }
+
+    @Test
+    public void putBack() throws Exception {
+        JournalSpill spill = new JournalSpill(file);
+        spill.add(record(1));
+        List<JournalRecord> records = spill.takeAll();
+        spill.add(record(2));
+        spill.putBack(records);
+        assertRecords(spill.takeAll(), 1, 2);
+    }
+
+    @Test
+    public void damagedTail() throws Exception {
+        JournalSpill spill = new JournalSpill(file);
+        spill.add(record(1));
+        spill.add(record(2));
+        FileOutputStream stream = new FileOutputStream(file, true);
+        stream.write(new byte[]{0, 0, 0, 10, 1, 2, 3});
+        stream.close();
+        assertRecords(new JournalSpill(file).takeAll(), 1, 2);
+    }
+
+    @Test
+    public void commitMarker() throws Exception {
+        JournalSpill spill = new JournalSpill(file);
+        spill.add(record(1));
+        spill.add(record(2));
+        spill.add(record(3));
+        List<JournalRecord> records = spill.takeAll();
+        long marker = JournalSpill.getCommitMarker(records, 2);
+        assertRecords(JournalSpill.getUncommitted(records, marker), 3);
+        assertRecords(JournalSpill.getUncommitted(records, 0), 1, 2, 3);
+        // the marker of other records
+        long other = JournalSpill.getCommitMarker(records.subList(1, 3), 2);
+        assertRecords(JournalSpill.getUncommitted(records, other), 1, 2, 3);
+    }
+}
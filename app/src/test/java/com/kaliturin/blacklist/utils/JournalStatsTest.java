@@ -0,0 +1,236 @@
+package com.kaliturin.blacklist.utils;
+
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactNumberTable;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactTable;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.JournalAggregateTable;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.JournalStatsTable;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.JournalTable;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Migrations;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.SettingsTable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Journal statistics unit test (runs the statements of the journal on the desktop SQLite)
+ */
+public class JournalStatsTest {
+    // 30 minutes past the hour in UTC, the hour differs in the zones like +5:30
+    private static final long TIME = 1500000000000L + 30 * 60 * 1000;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        Statement statement = connection.createStatement();
+        statement.execute(JournalTable.Statement.CREATE);
+        statement.execute(ContactTable.Statement.CREATE);
+        statement.execute(ContactNumberTable.Statement.CREATE);
+        statement.execute(SettingsTable.Statement.CREATE);
+        for (int v = 2; v <= DatabaseAccessHelper.DATABASE_VERSION; v++) {
+            for (String sql : Migrations.get(v)) {
+                statement.execute(sql);
+            }
+        }
+        statement.close();
+
+        insert(1, TIME, "Alice", "Hello");
+        insert(2, TIME + 1000, "Alice", null);
+        insert(3, TIME + 2000, "Bob", null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+    }
+
+    private void insert(long id, long time, String caller, String text) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO " + JournalTable.NAME + "(" +
+                        JournalTable.Column.ID + ", " +
+                        JournalTable.Column.TIME + ", " +
+                        JournalTable.Column.CALLER + ", " +
+                        JournalTable.Column.TEXT + ") VALUES (?, ?, ?, ?)");
+        statement.setLong(1, id);
+        statement.setLong(2, time);
+        statement.setString(3, caller);
+        statement.setString(4, text);
+        statement.execute();
+        statement.close();
+    }
+
+    // Removes the records as the retention policy does
+    private void remove(String idsClause, boolean keepAggregates) throws SQLException {
+        Statement statement = connection.createStatement();
+        if (keepAggregates) {
+            ResultSet result = statement.executeQuery(
+                    JournalTable.Statement.getSelectCounts(idsClause));
+            while (result.next()) {
+                PreparedStatement insert = connection.prepareStatement(
+                        JournalAggregateTable.Statement.INSERT_EMPTY);
+                insert.setLong(1, result.getLong(1));
+                insert.setString(2, result.getString(2));
+                insert.execute();
+                insert.close();
+                PreparedStatement add = connection.prepareStatement(
+                        JournalAggregateTable.Statement.ADD_COUNTS);
+                add.setLong(1, result.getLong(3));
+                add.setLong(2, result.getLong(4));
+                add.setLong(3, result.getLong(1));
+                add.setString(4, result.getString(2));
+                add.execute();
+                add.close();
+            }
+            result.close();
+            statement.execute(JournalAggregateTable.Statement.getFillMoving(idsClause));
+        }
+        statement.execute("DELETE FROM " + JournalTable.NAME + " WHERE " + idsClause);
+        statement.execute("DELETE FROM " + JournalAggregateTable.MOVING_NAME);
+        statement.close();
+    }
+
+    // Folds the event into the record as the journal does
+    private void fold(long id, long time) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(
+                JournalTable.Statement.FOLD_REPEATED);
+        statement.setLong(1, time);
+        statement.setLong(2, id);
+        statement.execute();
+        statement.close();
+    }
+
+    // Returns the counts of SMS and calls of the statistics of the kind (ordered by the
+    // counts, the keys of the hours aren't ordered by the time around the midnight)
+    private String getStats(int kind) throws SQLException {
+        StringBuilder builder = new StringBuilder();
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT " +
+                JournalStatsTable.Column.SMS_COUNT + ", " + JournalStatsTable.Column.CALL_COUNT +
+                " FROM " + JournalStatsTable.NAME +
+                " WHERE " + JournalStatsTable.Column.KIND + " = " + kind +
+                " ORDER BY " + JournalStatsTable.Column.SMS_COUNT + ", " +
+                JournalStatsTable.Column.CALL_COUNT);
+        while (result.next()) {
+            builder.append(result.getLong(1)).append('/').append(result.getLong(2)).append(' ');
+        }
+        result.close();
+        statement.close();
+        return builder.toString().trim();
+    }
+
+    // Returns the start of the next local hour after the time
+    private static long getNextLocalHour(long time) {
+        long hour = JournalAggregateTable.HOUR_MILLIS;
+        long offset = TimeZone.getDefault().getOffset(time);
+        return time - ((time + offset) % hour + hour) % hour + hour;
+    }
+
+    // Returns all the statistics as the string
+    private String getStats() throws SQLException {
+        StringBuilder builder = new StringBuilder();
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT * FROM " + JournalStatsTable.NAME +
+                " ORDER BY " + JournalStatsTable.Column.KIND + ", " + JournalStatsTable.Column.KEY);
+        while (result.next()) {
+            builder.append(result.getInt(1)).append(' ')
+                    .append(result.getString(2)).append(' ')
+                    .append(result.getLong(3)).append(' ')
+                    .append(result.getLong(4)).append('\n');
+        }
+        result.close();
+        statement.close();
+        return builder.toString();
+    }
+
+    @Test
+    public void moveToAggregates() throws Exception {
+        String stats = getStats();
+        remove(JournalTable.Column.ID + " IN (1, 2)", true);
+        assertEquals(stats, getStats());
+        remove(JournalTable.Column.ID + " IN (3)", true);
+        assertEquals(stats, getStats());
+    }
+
+    @Test
+    public void removeWithoutAggregates() throws Exception {
+        remove(JournalTable.Column.ID + " IN (1, 3)", false);
+        insert(4, TIME, "Alice", null);
+        remove(JournalTable.Column.ID + " IN (4)", false);
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT " +
+                "SUM(" + JournalStatsTable.Column.SMS_COUNT + "), " +
+                "SUM(" + JournalStatsTable.Column.CALL_COUNT + ")" +
+                " FROM " + JournalStatsTable.NAME);
+        assertTrue(result.next());
+        // the call of Alice is left once per kind of the statistics
+        assertEquals(0, result.getLong(1));
+        assertEquals(3, result.getLong(2));
+        result.close();
+        statement.close();
+    }
+
+    @Test
+    public void foldAcrossHour() throws Exception {
+        connection.createStatement().execute("DELETE FROM " + JournalTable.NAME);
+        long hour = getNextLocalHour(TIME);
+        insert(1, hour - 1000, "Alice", null);
+        insert(2, hour - 2000, "Bob", "Hi");
+        fold(1, hour + 1000);
+        fold(1, hour + 2000);
+        fold(2, hour + 1000);
+        // the earlier events stay in the former hour
+        assertEquals("0/3 2/0", getStats(DatabaseAccessHelper.JournalStats.BY_CALLER));
+        assertEquals("1/1 1/2", getStats(DatabaseAccessHelper.JournalStats.BY_HOUR));
+    }
+
+    @Test
+    public void foldAcrossDay() throws Exception {
+        connection.createStatement().execute("DELETE FROM " + JournalTable.NAME);
+        long day = TIME;
+        while (getStatsDayKey(day - 1000).equals(getStatsDayKey(day))) {
+            day = getNextLocalHour(day);
+        }
+        insert(1, day - 1000, "Alice", null);
+        fold(1, day + 1000);
+        assertEquals("0/1 0/1", getStats(DatabaseAccessHelper.JournalStats.BY_DAY));
+        assertEquals("0/2", getStats(DatabaseAccessHelper.JournalStats.BY_CALLER));
+    }
+
+    // Returns the local day of the time as SQLite returns it
+    private String getStatsDayKey(long time) throws SQLException {
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT strftime('%Y-%m-%d', " + time +
+                " / 1000, 'unixepoch', 'localtime')");
+        result.next();
+        String key = result.getString(1);
+        result.close();
+        statement.close();
+        return key;
+    }
+
+    @Test
+    public void foldTimeBounds() throws Exception {
+        long hour = getNextLocalHour(TIME);
+        long window = 60 * 60 * 1000;
+        long[] bounds = JournalTable.getFoldTimeBounds(hour + 1000, window);
+        // the record of the previous hour isn't folded into
+        assertEquals(hour, bounds[0]);
+        assertTrue(bounds[1] <= hour + window);
+        bounds = JournalTable.getFoldTimeBounds(hour - 1000, window);
+        assertTrue(bounds[0] >= hour - window);
+        assertEquals(hour, bounds[1]);
+        bounds = JournalTable.getFoldTimeBounds(hour + 5000, 2000);
+        assertEquals(hour + 3000, bounds[0]);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import com.kaliturin.blacklist.utils.BlockingDecisionEngine.Rules;
+import com.kaliturin.blacklist.utils.BlockingDecisionEngine.Verdict;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Contact;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactNumber;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the whole blocking decision cascade with the in-memory data source
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockingDecisionBenchmark {
+    private static final int QUERIES = 1024;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private BlockingDecisionEngine engine;
+    private Rules blackListRules;
+    private Rules allRules;
+    private String[] queries;
+    private int index = 0;
+
+    // Data source keeping all the data in memory
+    private static class MemoryDataSource implements BlockingDecisionEngine.DataSource {
+        private final ContactNumberMatcher matcher;
+        private final Map<Long, Contact> contacts = new HashMap<>();
+        private final Set<String> phonebook = new HashSet<>();
+        private final Set<String> smsContent = new HashSet<>();
+
+        MemoryDataSource(List<ContactNumber> rules, String[] numbers) {
+            matcher = new ContactNumberMatcher(rules);
+            for (Contact contact : Datasets.contacts(rules)) {
+                contacts.put(contact.id, contact);
+            }
+            for (int i = 0; i < numbers.length; i++) {
+                (i % 2 == 0 ? phonebook : smsContent).add(numbers[i]);
+            }
+        }
+
+        @Override
+        public List<Contact> getContacts(String number) {
+            List<Contact> result = new LinkedList<>();
+            for (ContactNumber contactNumber : matcher.match(number)) {
+                result.add(contacts.get(contactNumber.contactId));
+            }
+            return result;
+        }
+
+        @Override
+        public boolean isInContacts(String number) {
+            return phonebook.contains(number);
+        }
+
+        @Override
+        public boolean isInSMSContent(String number) {
+            return smsContent.contains(number);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        List<ContactNumber> rules = Datasets.rules(size);
+        engine = new BlockingDecisionEngine(new MemoryDataSource(rules, Datasets.numbers(size)));
+        blackListRules = new Rules(true, false, true, false, false);
+        allRules = new Rules(true, false, true, true, true);
+        queries = Datasets.formattedNumbers(QUERIES);
+        String[] matching = Datasets.queries(rules, QUERIES);
+        for (int i = 0; i < QUERIES; i += 2) {
+            queries[i] = matching[i];
+        }
+    }
+
+    private String next() {
+        index = (index + 1) & (QUERIES - 1);
+        return queries[index];
+    }
+
+    @Benchmark
+    public Verdict decideBlackList() {
+        return engine.decide(next(), blackListRules);
+    }
+
+    @Benchmark
+    public Verdict decideAllRules() {
+        return engine.decide(next(), allRules);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactNumber;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the contact numbers lookup at different sizes of the lists
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContactNumberMatcherBenchmark {
+    private static final int QUERIES = 1024;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private List<ContactNumber> rules;
+    private ContactNumberMatcher matcher;
+    private ContactNumberMatcher countryMatcher;
+    private String[] queries;
+    private int index = 0;
+
+    @Setup
+    public void setup() {
+        rules = Datasets.rules(size);
+        matcher = new ContactNumberMatcher(rules);
+        countryMatcher = new ContactNumberMatcher(rules, PhoneNumbers.Country.valueOf("7", "8"));
+        queries = Datasets.queries(rules, QUERIES);
+    }
+
+    private String next() {
+        index = (index + 1) & (QUERIES - 1);
+        return queries[index];
+    }
+
+    @Benchmark
+    public List<ContactNumber> match() {
+        return matcher.match(next());
+    }
+
+    @Benchmark
+    public List<ContactNumber> matchWithCountry() {
+        return countryMatcher.match(next());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public ContactNumberMatcher build() {
+        return new ContactNumberMatcher(rules);
+    }
+
+    @Benchmark
+    public List<ContactNumber> legacyScan() {
+        return Datasets.scan(rules, next());
+    }
+}
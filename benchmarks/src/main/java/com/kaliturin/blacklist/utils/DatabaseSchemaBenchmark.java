@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Contact;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactNumber;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactNumberTable;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactTable;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.JournalTable;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Migrations;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.SettingsTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the database queries on the scheme of the first version (without
+ * indexes) and on the migrated one. Uses the statements of DatabaseAccessHelper on
+ * the desktop SQLite, so the results are comparable with each other only.
+ * The query plans of both versions are printed at the setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatabaseSchemaBenchmark {
+    private static final int CONTACTS = 10000;
+    private static final int JOURNAL_RECORDS = 100000;
+    private static final int QUERIES = 1024;
+    // the whole journal list as it was selected before the pages loading
+    private static final String JOURNAL_LIST =
+            JournalTable.Statement.LIST_PROJECTION + JournalTable.Statement.ORDER_BY_KEY;
+
+    @Param({"1", "2", "3"})
+    public int version;
+
+    private Connection connection;
+    private PreparedStatement selectContactsByType;
+    private PreparedStatement selectNumbersByContactId;
+    private PreparedStatement selectNumbersByTypeAndNumber;
+    private PreparedStatement selectContactByTypeAndName;
+    private PreparedStatement selectJournal;
+    private PreparedStatement selectJournalFirstPage;
+    private PreparedStatement selectJournalPage;
+    private long[] journalKeys;
+    private PreparedStatement deleteContact;
+    private List<ContactNumber> numbers;
+    private int[] queries;
+    private int index = 0;
+
+    @Setup
+    public void setup() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        Statement statement = connection.createStatement();
+        statement.execute("PRAGMA foreign_keys=ON");
+        statement.execute(JournalTable.Statement.CREATE);
+        statement.execute(ContactTable.Statement.CREATE);
+        statement.execute(ContactNumberTable.Statement.CREATE);
+        statement.execute(SettingsTable.Statement.CREATE);
+        numbers = Datasets.rules(CONTACTS);
+        fill(Datasets.contacts(numbers));
+        for (int v = 2; v <= version; v++) {
+            for (String sql : Migrations.get(v)) {
+                statement.execute(sql);
+            }
+        }
+        statement.close();
+
+        selectContactsByType = connection.prepareStatement(ContactTable.Statement.SELECT_BY_TYPE);
+        selectNumbersByContactId = connection.prepareStatement(
+                ContactNumberTable.Statement.SELECT_BY_CONTACT_ID);
+        selectNumbersByTypeAndNumber = connection.prepareStatement(
+                ContactNumberTable.Statement.SELECT_BY_TYPE_AND_NUMBER);
+        selectContactByTypeAndName = connection.prepareStatement(
+                ContactTable.Statement.SELECT_BY_TYPE_AND_NAME);
+        selectJournal = connection.prepareStatement(JOURNAL_LIST);
+        selectJournalFirstPage = connection.prepareStatement(
+                JournalTable.Statement.getSelectPage(null, false));
+        selectJournalPage = connection.prepareStatement(
+                JournalTable.Statement.getSelectPage(null, true));
+        journalKeys = selectJournalKeys();
+        deleteContact = connection.prepareStatement(
+                "DELETE FROM " + ContactTable.NAME + " WHERE " + ContactTable.Column.ID + " = ?");
+
+        Random random = new Random(version);
+        queries = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = random.nextInt(CONTACTS);
+        }
+
+        printQueryPlans();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    // Inserts the contacts, their numbers and the journal records
+    private void fill(List<Contact> contacts) throws SQLException {
+        connection.setAutoCommit(false);
+        PreparedStatement insertContact = connection.prepareStatement(
+                "INSERT INTO " + ContactTable.NAME + " VALUES (?, ?, ?)");
+        PreparedStatement insertNumber = connection.prepareStatement(
+                "INSERT INTO " + ContactNumberTable.NAME + " VALUES (?, ?, ?, ?)");
+        for (Contact contact : contacts) {
+            insertContact.setLong(1, contact.id);
+            insertContact.setString(2, contact.name);
+            insertContact.setInt(3, getContactType(contact.id));
+            insertContact.executeUpdate();
+            for (ContactNumber number : contact.numbers) {
+                insertNumber.setLong(1, number.id);
+                insertNumber.setString(2, number.number);
+                insertNumber.setInt(3, number.type);
+                insertNumber.setLong(4, number.contactId);
+                insertNumber.executeUpdate();
+            }
+        }
+        PreparedStatement insertRecord = connection.prepareStatement(
+                "INSERT INTO " + JournalTable.NAME + " VALUES (?, ?, ?, ?, ?)");
+        Random random = new Random(JOURNAL_RECORDS);
+        long time = 1500000000000L;
+        for (int i = 1; i <= JOURNAL_RECORDS; i++) {
+            // the records are written not in the order of time (e.g. on import)
+            ContactNumber number = numbers.get(random.nextInt(numbers.size()));
+            insertRecord.setLong(1, i);
+            insertRecord.setLong(2, time + random.nextInt(365 * 24 * 3600) * 1000L);
+            insertRecord.setString(3, "Contact " + number.contactId);
+            insertRecord.setString(4, number.number);
+            insertRecord.setString(5, (i % 3 == 0 ? null : "Message text " + i));
+            insertRecord.executeUpdate();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    // Every fourth contact is in the white list
+    private static int getContactType(long id) {
+        return (id % 4 == 0 ? Contact.TYPE_WHITE_LIST : Contact.TYPE_BLACK_LIST);
+    }
+
+    private void printQueryPlans() throws SQLException {
+        System.out.println();
+        System.out.println("Query plans of the scheme version " + version + ":");
+        printQueryPlan(ContactTable.Statement.SELECT_BY_TYPE, "1");
+        printQueryPlan(ContactTable.Statement.SELECT_BY_TYPE_AND_NAME, "1", "Contact 1");
+        printQueryPlan(ContactNumberTable.Statement.SELECT_BY_CONTACT_ID, "1");
+        printQueryPlan(ContactNumberTable.Statement.SELECT_BY_TYPE_AND_NUMBER, "0", "+79000000000");
+        printQueryPlan(JOURNAL_LIST);
+        printQueryPlan(JournalTable.Statement.getSelectPage(null, true), "0", "0", "0");
+        printQueryPlan("DELETE FROM " + ContactNumberTable.NAME +
+                " WHERE " + ContactNumberTable.Column.CONTACT_ID + " = ?", "1");
+    }
+
+    private void printQueryPlan(String sql, String... args) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+        for (int i = 0; i < args.length; i++) {
+            statement.setString(i + 1, args[i]);
+        }
+        ResultSet result = statement.executeQuery();
+        System.out.println(sql.replaceAll("\\s+", " ").trim());
+        while (result.next()) {
+            System.out.println("    " + result.getString("detail"));
+        }
+        result.close();
+        statement.close();
+    }
+
+    // Selects keys (time, _id) of random journal records
+    private long[] selectJournalKeys() throws SQLException {
+        long[] times = new long[JOURNAL_RECORDS];
+        long[] ids = new long[JOURNAL_RECORDS];
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery(
+                "SELECT " + JournalTable.Column.TIME + ", " + JournalTable.Column.ID +
+                        " FROM " + JournalTable.NAME);
+        for (int i = 0; result.next(); i++) {
+            times[i] = result.getLong(1);
+            ids[i] = result.getLong(2);
+        }
+        statement.close();
+        Random random = new Random(JOURNAL_RECORDS);
+        long[] keys = new long[QUERIES * 2];
+        for (int i = 0; i < QUERIES; i++) {
+            int row = random.nextInt(JOURNAL_RECORDS);
+            keys[i * 2] = times[row];
+            keys[i * 2 + 1] = ids[row];
+        }
+        return keys;
+    }
+
+    private int next() {
+        index = (index + 1) & (QUERIES - 1);
+        return queries[index];
+    }
+
+    // Reads all the rows as the cursor does on getCount()
+    private static int count(PreparedStatement statement) throws SQLException {
+        ResultSet result = statement.executeQuery();
+        int count = 0;
+        while (result.next()) {
+            count++;
+        }
+        result.close();
+        return count;
+    }
+
+    // Contacts list (ContactsFragment)
+    @Benchmark
+    public int contactsList() throws SQLException {
+        selectContactsByType.setInt(1, Contact.TYPE_BLACK_LIST);
+        return count(selectContactsByType);
+    }
+
+    // Numbers of the contact (the contact editing and ContactCursorWrapper.getContact)
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int contactNumbers() throws SQLException {
+        selectNumbersByContactId.setLong(1, numbers.get(next()).contactId);
+        return count(selectNumbersByContactId);
+    }
+
+    // Lookups of the existing number and contact (DatabaseAccessHelper.addContact)
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int addContactLookups() throws SQLException {
+        ContactNumber number = numbers.get(next());
+        selectNumbersByTypeAndNumber.setInt(1, number.type);
+        selectNumbersByTypeAndNumber.setString(2, number.number);
+        selectContactByTypeAndName.setInt(1, getContactType(number.contactId));
+        selectContactByTypeAndName.setString(2, "Contact " + number.contactId);
+        return count(selectNumbersByTypeAndNumber) + count(selectContactByTypeAndName);
+    }
+
+    // Deletion of the contact with cascade deletion of its numbers (is rolled back)
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int deleteContact() throws SQLException {
+        connection.setAutoCommit(false);
+        deleteContact.setLong(1, numbers.get(next()).contactId);
+        int count = deleteContact.executeUpdate();
+        connection.rollback();
+        connection.setAutoCommit(true);
+        return count;
+    }
+
+    // Whole journal list (JournalFragment before the pages loading)
+    @Benchmark
+    public int journal() throws SQLException {
+        return count(selectJournal);
+    }
+
+    // The first page of the journal list (JournalPagedCursor)
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int journalFirstPage() throws SQLException {
+        return count(selectJournalFirstPage);
+    }
+
+    // A page of the journal list after the key of the previous page (JournalPagedCursor)
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int journalPage() throws SQLException {
+        int i = (next() & (QUERIES - 1)) * 2;
+        selectJournalPage.setLong(1, journalKeys[i]);
+        selectJournalPage.setLong(2, journalKeys[i]);
+        selectJournalPage.setLong(3, journalKeys[i + 1]);
+        return count(selectJournalPage);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Contact;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactNumber;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generated datasets of the benchmarks. Are reproducible (fixed seed).
+ */
+class Datasets {
+    private static final long SEED = 20170401;
+
+    // Returns international numbers like "+79161234567"
+    static String[] numbers(int count) {
+        Random random = new Random(SEED);
+        String[] numbers = new String[count];
+        for (int i = 0; i < count; i++) {
+            numbers[i] = number(random);
+        }
+        return numbers;
+    }
+
+    // Returns the same numbers formatted like "8 (916) 123-45-67"
+    static String[] formattedNumbers(int count) {
+        String[] numbers = numbers(count);
+        for (int i = 0; i < count; i++) {
+            String n = numbers[i];
+            numbers[i] = "8 (" + n.substring(2, 5) + ") " + n.substring(5, 8) + "-" +
+                    n.substring(8, 10) + "-" + n.substring(10);
+        }
+        return numbers;
+    }
+
+    // Returns the rules of the black list: 70% "equals", 15% "starts",
+    // 10% "ends" and 5% "contains" ones, every contact has one number
+    static List<ContactNumber> rules(int count) {
+        Random random = new Random(SEED + count);
+        List<ContactNumber> rules = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            String number = number(random);
+            int p = random.nextInt(100);
+            int type;
+            if (p < 70) {
+                type = ContactNumber.TYPE_EQUALS;
+            } else if (p < 85) {
+                type = ContactNumber.TYPE_STARTS;
+                number = number.substring(0, 6 + random.nextInt(4));
+            } else if (p < 95) {
+                type = ContactNumber.TYPE_ENDS;
+                number = number.substring(number.length() - 6 - random.nextInt(3));
+            } else {
+                type = ContactNumber.TYPE_CONTAINS;
+                int start = 2 + random.nextInt(3);
+                number = number.substring(start, start + 6);
+            }
+            rules.add(new ContactNumber(i, number, type, i));
+        }
+        return rules;
+    }
+
+    static List<Contact> contacts(List<ContactNumber> rules) {
+        List<Contact> contacts = new ArrayList<>(rules.size());
+        for (ContactNumber rule : rules) {
+            List<ContactNumber> numbers = new ArrayList<>(1);
+            numbers.add(rule);
+            contacts.add(new Contact(rule.contactId, "Contact " + rule.contactId,
+                    Contact.TYPE_BLACK_LIST, numbers));
+        }
+        return contacts;
+    }
+
+    // Returns the queries: a half of them are the numbers matching to the rules
+    static String[] queries(List<ContactNumber> rules, int count) {
+        Random random = new Random(SEED - count);
+        String[] queries = new String[count];
+        for (int i = 0; i < count; i++) {
+            String number = number(random);
+            if (i % 2 == 0) {
+                ContactNumber rule = rules.get(random.nextInt(rules.size()));
+                switch (rule.type) {
+                    case ContactNumber.TYPE_EQUALS:
+                        number = rule.number;
+                        break;
+                    case ContactNumber.TYPE_STARTS:
+                        number = rule.number + number.substring(rule.number.length());
+                        break;
+                    case ContactNumber.TYPE_ENDS:
+                        number = number.substring(0, number.length() - rule.number.length()) +
+                                rule.number;
+                        break;
+                    default:
+                        number = number.substring(0, 2) + rule.number +
+                                number.substring(2 + rule.number.length());
+                        break;
+                }
+            }
+            queries[i] = number;
+        }
+        return queries;
+    }
+
+    private static String number(Random random) {
+        return String.format(Locale.US, "+79%09d", random.nextInt(1000000000));
+    }
+
+    /**
+     * Scan of all the rules as SELECT_BY_NUMBER statement did before the
+     * matcher was introduced ('=' for "equals" and 'LIKE' for the rest).
+     * Doesn't include the costs of SQLite itself, so it is the lower bound
+     * of the old lookup.
+     */
+    static List<ContactNumber> scan(List<ContactNumber> rules, String number) {
+        List<ContactNumber> result = new ArrayList<>();
+        String lowerNumber = number.toLowerCase(Locale.US);
+        for (ContactNumber rule : rules) {
+            boolean matches;
+            switch (rule.type) {
+                case ContactNumber.TYPE_EQUALS:
+                    matches = number.equals(rule.number);
+                    break;
+                case ContactNumber.TYPE_STARTS:
+                    matches = lowerNumber.startsWith(rule.number.toLowerCase(Locale.US));
+                    break;
+                case ContactNumber.TYPE_ENDS:
+                    matches = lowerNumber.endsWith(rule.number.toLowerCase(Locale.US));
+                    break;
+                default:
+                    matches = lowerNumber.contains(rule.number.toLowerCase(Locale.US));
+                    break;
+            }
+            if (matches) {
+                result.add(rule);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactNumberTable;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.ContactTable;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.JournalTable;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.Migrations;
+import com.kaliturin.blacklist.utils.DatabaseAccessHelper.SettingsTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the journal search: the first page and the count of the records
+ * (as JournalPagedCursor selects them) found by substring (LIKE) and by the
+ * full-text index (MATCH) on the current scheme with the desktop SQLite.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalSearchBenchmark {
+    private static final int JOURNAL_RECORDS = 100000;
+    private static final int WORDS = 5000;
+    private static final int QUERIES = 1024;
+
+    private Connection connection;
+    private PreparedStatement likePage;
+    private PreparedStatement likeCount;
+    private PreparedStatement matchPage;
+    private PreparedStatement matchCount;
+    private String[] queries;
+    private int index = 0;
+
+    @Setup
+    public void setup() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        Statement statement = connection.createStatement();
+        statement.execute(JournalTable.Statement.CREATE);
+        statement.execute(ContactTable.Statement.CREATE);
+        statement.execute(ContactNumberTable.Statement.CREATE);
+        statement.execute(SettingsTable.Statement.CREATE);
+        for (int v = 2; v <= DatabaseAccessHelper.DATABASE_VERSION; v++) {
+            for (String sql : Migrations.get(v)) {
+                statement.execute(sql);
+            }
+        }
+        statement.close();
+
+        String[] words = words();
+        fill(words);
+
+        likePage = connection.prepareStatement(
+                JournalTable.Statement.getSelectPage(JournalTable.Statement.LIKE_CLAUSE, false));
+        likeCount = connection.prepareStatement(
+                "SELECT COUNT(*) FROM " + JournalTable.NAME +
+                        " WHERE " + JournalTable.Statement.LIKE_CLAUSE);
+        matchPage = connection.prepareStatement(
+                JournalTable.Statement.getSelectPage(JournalTable.Statement.MATCH_CLAUSE, false));
+        matchCount = connection.prepareStatement(
+                "SELECT COUNT(*) FROM " + JournalTable.NAME +
+                        " WHERE " + JournalTable.Statement.MATCH_CLAUSE);
+
+        // prefixes of the words as they are typed in the search view
+        Random random = new Random(QUERIES);
+        queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String word = words[random.nextInt(WORDS)];
+            queries[i] = word.substring(0, 3 + random.nextInt(word.length() - 2));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    // Returns the pseudo words of the texts
+    private static String[] words() {
+        Random random = new Random(WORDS);
+        String[] words = new String[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            char[] chars = new char[4 + random.nextInt(6)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) ('a' + random.nextInt(26));
+            }
+            words[i] = new String(chars);
+        }
+        return words;
+    }
+
+    // Inserts the journal records with texts of the words
+    private void fill(String[] words) throws SQLException {
+        connection.setAutoCommit(false);
+        PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO " + JournalTable.NAME + " VALUES (?, ?, ?, ?, ?)");
+        String[] numbers = Datasets.numbers(JOURNAL_RECORDS / 10);
+        Random random = new Random(JOURNAL_RECORDS);
+        long time = 1500000000000L;
+        for (int i = 1; i <= JOURNAL_RECORDS; i++) {
+            insert.setLong(1, i);
+            insert.setLong(2, time + random.nextInt(365 * 24 * 3600) * 1000L);
+            insert.setString(3, numbers[random.nextInt(numbers.length)]);
+            insert.setString(4, null);
+            if (i % 3 == 0) {
+                insert.setString(5, null);
+            } else {
+                StringBuilder sb = new StringBuilder();
+                int count = 5 + random.nextInt(30);
+                for (int j = 0; j < count; j++) {
+                    // skewed distribution of the words
+                    int w = (int) (WORDS * Math.pow(random.nextDouble(), 3));
+                    sb.append(words[w]).append(j % 8 == 7 ? ". " : " ");
+                }
+                insert.setString(5, sb.toString());
+            }
+            insert.executeUpdate();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    private String next() {
+        index = (index + 1) & (QUERIES - 1);
+        return queries[index];
+    }
+
+    private static int read(PreparedStatement statement) throws SQLException {
+        ResultSet result = statement.executeQuery();
+        int count = 0;
+        while (result.next()) {
+            count++;
+        }
+        result.close();
+        return count;
+    }
+
+    @Benchmark
+    public int searchLike() throws SQLException {
+        String like = "%" + next() + "%";
+        likeCount.setString(1, like);
+        likeCount.setString(2, like);
+        likePage.setString(1, like);
+        likePage.setString(2, like);
+        return read(likeCount) + read(likePage);
+    }
+
+    @Benchmark
+    public int searchMatch() throws SQLException {
+        String match = JournalTable.Filter.getMatchQuery(next());
+        matchCount.setString(1, match);
+        matchPage.setString(1, match);
+        return read(matchCount) + read(matchPage);
+    }
+}
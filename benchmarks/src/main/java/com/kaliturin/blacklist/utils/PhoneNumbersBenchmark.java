@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.kaliturin.blacklist.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks of phone numbers normalization
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhoneNumbersBenchmark {
+    private static final int COUNT = 1024;
+    // the regexps of normalization used before PhoneNumbers
+    private static final Pattern digitalPhoneNumberPattern = Pattern.compile("[+]?[0-9-() ]+");
+    private static final Pattern normalizePhoneNumberPattern = Pattern.compile("[-() ]");
+
+    private String[] numbers;
+    private String[] formattedNumbers;
+    private int index = 0;
+
+    @Setup
+    public void setup() {
+        numbers = Datasets.numbers(COUNT);
+        formattedNumbers = Datasets.formattedNumbers(COUNT);
+    }
+
+    private int next() {
+        index = (index + 1) & (COUNT - 1);
+        return index;
+    }
+
+    @Benchmark
+    public String normalizeFormatted() {
+        return PhoneNumbers.normalize(formattedNumbers[next()]);
+    }
+
+    @Benchmark
+    public String normalizeNormalized() {
+        return PhoneNumbers.normalize(numbers[next()]);
+    }
+
+    @Benchmark
+    public boolean isPrivate() {
+        return PhoneNumbers.isPrivate(numbers[next()]);
+    }
+
+    @Benchmark
+    public String legacyNormalizeFormatted() {
+        String number = formattedNumbers[next()].trim();
+        if (digitalPhoneNumberPattern.matcher(number).matches()) {
+            return normalizePhoneNumberPattern.matcher(number).replaceAll("");
+        }
+        return number;
+    }
+
+    @Benchmark
+    public boolean legacyIsPrivate() {
+        String number = numbers[next()].trim();
+        try {
+            return Long.valueOf(number) < 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}